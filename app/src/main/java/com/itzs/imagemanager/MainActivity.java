@@ -1,10 +1,15 @@
 package com.itzs.imagemanager;
 
 import android.app.Activity;
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.ListView;
@@ -14,13 +19,23 @@ import android.widget.TextView;
 import com.itzs.zimageloader.FailReason;
 import com.itzs.zimageloader.ImageLoader;
 import com.itzs.zimageloader.ImageLoadingListener;
+import com.itzs.zimageloader.TargetSizeBucketer;
 import com.itzs.zimageloader.view.ImageViewAware;
 
 
 public class MainActivity extends Activity {
 
+    private static final String TAG = MainActivity.class.getSimpleName();
+
+    /**
+     * 是否对目标大小分档的设置，在菜单中切换后比较标题栏显示的内存缓存命中率
+     */
+    private static final String PREF_BUCKET_TARGET_SIZE = "bucket_target_size";
+
     private ImageLoader imageLoader;
 
+    private SharedPreferences preferences;
+
     private ListView mListView = null;
 
     private ImageAdapter mAdapter = null;
@@ -33,10 +48,69 @@ public class MainActivity extends Activity {
         setContentView(R.layout.activity_main);
 
         imageLoader = ImageLoader.getInstance(this);
+        preferences = getPreferences(MODE_PRIVATE);
+        applyBucketTargetSize(preferences.getBoolean(PREF_BUCKET_TARGET_SIZE, false));
 
         mListView = (ListView) this.findViewById(R.id.lv_main);
         mAdapter = new ImageAdapter();
         mListView.setAdapter(mAdapter);
+        mListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                if (scrollState == SCROLL_STATE_IDLE) {
+                    showCacheStats();
+                }
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+            }
+        });
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+        menu.findItem(R.id.action_bucket_target_size).setChecked(isBucketTargetSize());
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_bucket_target_size) {
+            boolean bucket = !item.isChecked();
+            item.setChecked(bucket);
+            preferences.edit().putBoolean(PREF_BUCKET_TARGET_SIZE, bucket).apply();
+            applyBucketTargetSize(bucket);
+            mAdapter.notifyDataSetChanged();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private boolean isBucketTargetSize() {
+        return preferences.getBoolean(PREF_BUCKET_TARGET_SIZE, false);
+    }
+
+    /**
+     * 切换目标大小分档，清空内存缓存和命中率统计，使切换前后的命中率可以比较
+     */
+    private void applyBucketTargetSize(boolean bucket) {
+        imageLoader.setTargetSizeBucketer(bucket ? TargetSizeBucketer.step(32) : null);
+        imageLoader.clearMemoryCache();
+        imageLoader.getMemoryCache().resetStats();
+        showCacheStats();
+    }
+
+    /**
+     * 在标题栏显示内存缓存命中率，用于比较目标大小分档的效果
+     */
+    private void showCacheStats() {
+        int hits = imageLoader.getMemoryCache().hitCount();
+        int accesses = hits + imageLoader.getMemoryCache().missCount();
+        int hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+        setTitle("bucket=" + isBucketTargetSize() + " hitRate=" + hitPercent + "%");
+        Log.d(TAG, imageLoader.getCacheStats());
 
     }
 
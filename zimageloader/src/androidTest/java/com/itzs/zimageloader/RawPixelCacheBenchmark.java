@@ -0,0 +1,132 @@
+package com.itzs.zimageloader;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 比较从{@link RawPixelCache}恢复bitmap与解码JPEG的耗时，在设备上执行，结果输出到logcat
+ */
+@RunWith(AndroidJUnit4.class)
+public class RawPixelCacheBenchmark {
+
+    private static final String TAG = RawPixelCacheBenchmark.class.getSimpleName();
+    private static final int SIZE = 1080;
+    private static final int ITERATIONS = 20;
+    private static final String KEY = "http://example.com/benchmark.jpg_1080x1080";
+
+    private File cacheDir;
+    private RawPixelCache rawPixelCache;
+    private Bitmap source;
+    private byte[] jpeg;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        cacheDir = new File(context.getCacheDir(), "rawPixelBenchmark");
+        // 同步写入，便于测试
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        rawPixelCache = new RawPixelCache(cacheDir, 64 * 1024 * 1024, 1, direct, null);
+        source = createPhotoLikeBitmap(SIZE, SIZE);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        source.compress(Bitmap.CompressFormat.JPEG, 90, os);
+        jpeg = os.toByteArray();
+        rawPixelCache.onEvicted(KEY, source, 1);
+    }
+
+    @After
+    public void tearDown() {
+        rawPixelCache.clear();
+        cacheDir.delete();
+        source.recycle();
+    }
+
+    @Test
+    public void rawReloadVersusJpegDecode() {
+        long[] decodeTimes = new long[ITERATIONS];
+        long[] reloadTimes = new long[ITERATIONS];
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            Bitmap decoded = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+            decodeTimes[i] = System.nanoTime() - start;
+            assertNotNull(decoded);
+            decoded.recycle();
+
+            start = System.nanoTime();
+            Bitmap restored = rawPixelCache.get(KEY);
+            reloadTimes[i] = System.nanoTime() - start;
+            assertNotNull(restored);
+            if (i == 0) {
+                assertTrue(restored.sameAs(source));
+            }
+            restored.recycle();
+        }
+        long decodeMedian = median(decodeTimes) / 1000;
+        long reloadMedian = median(reloadTimes) / 1000;
+        Log.i(TAG, String.format("%dx%d jpeg=%dKB decode median=%dus, raw reload median=%dus, speedup=%.1fx",
+                SIZE, SIZE, jpeg.length / 1024, decodeMedian, reloadMedian, (float) decodeMedian / Math.max(1, reloadMedian)));
+    }
+
+    private static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * 渐变加噪点，JPEG压缩率与照片接近
+     */
+    private static Bitmap createPhotoLikeBitmap(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, width, height, Color.rgb(30, 90, 160), Color.rgb(220, 170, 60),
+                Shader.TileMode.CLAMP));
+        canvas.drawRect(0, 0, width, height, paint);
+        int[] row = new int[width];
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(31) - 15;
+                int c = row[x];
+                row[x] = Color.rgb(clamp(Color.red(c) + noise), clamp(Color.green(c) + noise), clamp(Color.blue(c) + noise));
+            }
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+        return bitmap;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,251 @@
+package com.itzs.zimageloader;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.util.Log;
+import android.view.View;
+
+import com.itzs.zimageloader.decoder.GifDecoder;
+import com.itzs.zimageloader.view.ImageViewAware;
+
+/**
+ * GIF动画
+ * <p/>
+ * 不预先解码所有帧：在解码线程池中按顺序解码，最多比正在显示的帧多解码{@link #FRAME_RING_SIZE}-1帧，
+ * 帧写入固定数量的bitmap环中循环复用，内存占用与帧数无关；
+ * view不可见时暂停播放，也不再解码，可见后继续。<br/>
+ * 使用方式：在{@link OnOpenListener#onOpened(String, AnimatedImage)}中调用{@link #start(ImageViewAware)}，
+ * 不再显示时调用{@link #recycle()}
+ * @author zhangshuo
+ */
+public class AnimatedImage {
+
+    private static final String TAG = AnimatedImage.class.getSimpleName();
+
+    /**
+     * 帧bitmap环的大小：1帧正在显示，其余为提前解码的帧
+     */
+    public static final int FRAME_RING_SIZE = 3;
+    /**
+     * view不可见时检查是否恢复可见的间隔，毫秒
+     */
+    private static final long OFFSCREEN_CHECK_INTERVAL = 500;
+    /**
+     * 下一帧还没解码完成时重新检查的间隔，毫秒
+     */
+    private static final long FRAME_WAIT_INTERVAL = 16;
+
+    /**
+     * 动画打开结果的回调，在主线程调用
+     */
+    public interface OnOpenListener {
+        void onOpened(String imageUri, AnimatedImage image);
+
+        void onOpenFailed(String imageUri, FailReason failReason);
+    }
+
+    private final String imageUri;
+    private final GifDecoder decoder;
+    private final ImageLoaderEngine engine;
+    private final Handler handler;
+
+    private final Bitmap[] frames = new Bitmap[FRAME_RING_SIZE];
+    private final int[] frameIndices = new int[FRAME_RING_SIZE];
+    private final int[] delays = new int[FRAME_RING_SIZE];
+    /** 解码线程合成画面用的缓冲区 */
+    private final int[] pixels;
+
+    /** 已解码的帧数，第n帧写入frames[n % FRAME_RING_SIZE] */
+    private int decodedCount;
+    /** 已显示的帧数 */
+    private int shownCount;
+    private boolean decoding;
+    private boolean recycled;
+
+    /** 以下只在主线程访问 */
+    private ImageViewAware target;
+    private boolean running;
+    private int loopsCompleted;
+
+    AnimatedImage(String imageUri, GifDecoder decoder, ImageLoaderEngine engine, Handler handler) {
+        this.imageUri = imageUri;
+        this.decoder = decoder;
+        this.engine = engine;
+        this.handler = handler;
+        this.pixels = new int[decoder.getWidth() * decoder.getHeight()];
+        for (int i = 0; i < FRAME_RING_SIZE; i++) {
+            frames[i] = Bitmap.createBitmap(decoder.getWidth(), decoder.getHeight(), Bitmap.Config.ARGB_8888);
+        }
+    }
+
+    public String getImageUri() {
+        return imageUri;
+    }
+
+    public int getWidth() {
+        return decoder.getWidth();
+    }
+
+    public int getHeight() {
+        return decoder.getHeight();
+    }
+
+    public int getFrameCount() {
+        return decoder.getFrameCount();
+    }
+
+    /**
+     * 开始在view中播放，需在主线程调用
+     *
+     * @param target
+     */
+    public void start(ImageViewAware target) {
+        if (recycled) {
+            throw new IllegalStateException("AnimatedImage已被回收");
+        }
+        this.target = target;
+        if (running) {
+            return;
+        }
+        running = true;
+        requestFrames();
+        handler.post(showNextFrame);
+    }
+
+    /**
+     * 停止播放，之后可再次{@link #start(ImageViewAware)}从停止的帧继续，需在主线程调用
+     */
+    public void stop() {
+        running = false;
+        handler.removeCallbacks(showNextFrame);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 停止播放并回收帧bitmap，需在主线程调用
+     */
+    public void recycle() {
+        stop();
+        boolean recycleNow;
+        synchronized (this) {
+            if (recycled) {
+                return;
+            }
+            recycled = true;
+            // 正在解码时由解码线程结束时回收
+            recycleNow = !decoding;
+        }
+        if (recycleNow) {
+            recycleFrames();
+        }
+    }
+
+    private void recycleFrames() {
+        for (Bitmap frame : frames) {
+            frame.recycle();
+        }
+    }
+
+    /**
+     * 环中有空位且没有正在解码时，提交解码任务
+     */
+    private void requestFrames() {
+        synchronized (this) {
+            if (decoding || recycled || decodedCount - shownCount >= FRAME_RING_SIZE - 1) {
+                return;
+            }
+            decoding = true;
+        }
+        engine.submitDecode(decodeFrames);
+    }
+
+    private final Runnable decodeFrames = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                int slot;
+                synchronized (AnimatedImage.this) {
+                    if (recycled || decodedCount - shownCount >= FRAME_RING_SIZE - 1) {
+                        decoding = false;
+                        if (recycled) {
+                            recycleFrames();
+                        }
+                        return;
+                    }
+                    slot = decodedCount % FRAME_RING_SIZE;
+                }
+                int index;
+                try {
+                    index = decoder.advance(pixels);
+                    frames[slot].setPixels(pixels, 0, decoder.getWidth(), 0, 0, decoder.getWidth(), decoder.getHeight());
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "decodeFrames-->" + imageUri, e);
+                    synchronized (AnimatedImage.this) {
+                        decoding = false;
+                    }
+                    return;
+                }
+                synchronized (AnimatedImage.this) {
+                    frameIndices[slot] = index;
+                    delays[slot] = decoder.getDelay(index);
+                    decodedCount++;
+                }
+            }
+        }
+    };
+
+    private final Runnable showNextFrame = new Runnable() {
+        @Override
+        public void run() {
+            if (!running || recycled) {
+                return;
+            }
+            if (target.isCollected()) {
+                recycle();
+                return;
+            }
+            View view = target.getWrappedView();
+            if (view == null || !view.isShown()) {
+                // 不可见时暂停，解码线程也因环已满而停止
+                handler.postDelayed(this, OFFSCREEN_CHECK_INTERVAL);
+                return;
+            }
+            Bitmap frame;
+            int index;
+            int delay;
+            synchronized (AnimatedImage.this) {
+                if (decodedCount <= shownCount) {
+                    frame = null;
+                    index = -1;
+                    delay = 0;
+                } else {
+                    int slot = shownCount % FRAME_RING_SIZE;
+                    frame = frames[slot];
+                    index = frameIndices[slot];
+                    delay = delays[slot];
+                    shownCount++;
+                }
+            }
+            if (frame == null) {
+                requestFrames();
+                handler.postDelayed(this, FRAME_WAIT_INTERVAL);
+                return;
+            }
+            target.setImageBitmap(frame);
+            if (index == decoder.getFrameCount() - 1) {
+                loopsCompleted++;
+                int loopCount = decoder.getLoopCount();
+                if (loopCount != 0 && loopsCompleted >= Math.max(1, loopCount)) {
+                    // 没有设置循环次数时只播放一次
+                    running = false;
+                    return;
+                }
+            }
+            requestFrames();
+            handler.postDelayed(this, delay);
+        }
+    };
+}
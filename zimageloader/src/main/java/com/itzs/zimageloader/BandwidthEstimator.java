@@ -0,0 +1,120 @@
+package com.itzs.zimageloader;
+
+/**
+ * 网络带宽估算器
+ * <p/>
+ * 根据{@link IoUtils#copyStream(java.io.InputStream, java.io.OutputStream, IoUtils.CopyListener, int, BandwidthEstimator)}
+ * 实际观测到的下载吞吐量，使用指数加权移动平均估算当前网络带宽，并给出网络质量等级
+ * @author zhangshuo
+ */
+public class BandwidthEstimator {
+
+    /** 网络质量等级 */
+    public enum Quality {
+        /** 尚未采集到足够的样本 */
+        UNKNOWN,
+        /** 低于{@link #POOR_BANDWIDTH_KBPS} */
+        POOR,
+        /** 介于{@link #POOR_BANDWIDTH_KBPS}和{@link #GOOD_BANDWIDTH_KBPS}之间 */
+        MODERATE,
+        /** 高于{@link #GOOD_BANDWIDTH_KBPS} */
+        GOOD
+    }
+
+    /** 低速网络的带宽上限，单位kbps */
+    public static final int POOR_BANDWIDTH_KBPS = 150;
+    /** 高速网络的带宽下限，单位kbps */
+    public static final int GOOD_BANDWIDTH_KBPS = 550;
+    /** 有效样本的最小字节数，过小的下载受连接建立时间影响太大，不计入估算 */
+    public static final int MIN_SAMPLE_BYTES = 8 * 1024;
+    /** 确定网络质量所需的最少样本数 */
+    public static final int MIN_SAMPLE_COUNT = 3;
+    /** 新样本在移动平均中的权重 */
+    private static final double SAMPLE_WEIGHT = 0.25;
+
+    /**
+     * 网络质量等级变化的回调，在记录样本的线程中调用
+     */
+    public interface OnQualityChangedListener {
+        void onQualityChanged(Quality oldQuality, Quality newQuality);
+    }
+
+    /** 当前估算的带宽，单位kbps，-1表示还没有样本 */
+    private double bandwidthKbps = -1;
+    /** 已采集的有效样本数 */
+    private int sampleCount;
+
+    private volatile OnQualityChangedListener qualityListener;
+
+    /**
+     * 记录一次下载的吞吐量样本
+     * @param bytes 下载的字节数
+     * @param elapsedMillis 下载耗时，毫秒
+     */
+    public void addSample(long bytes, long elapsedMillis) {
+        if (bytes < MIN_SAMPLE_BYTES || elapsedMillis <= 0) {
+            return;
+        }
+        Quality oldQuality;
+        Quality newQuality;
+        synchronized (this) {
+            oldQuality = getQuality();
+            double kbps = bytes * 8.0 / elapsedMillis;
+            if (bandwidthKbps < 0) {
+                bandwidthKbps = kbps;
+            } else {
+                bandwidthKbps = bandwidthKbps * (1 - SAMPLE_WEIGHT) + kbps * SAMPLE_WEIGHT;
+            }
+            sampleCount++;
+            newQuality = getQuality();
+        }
+        OnQualityChangedListener listener = qualityListener;
+        if (listener != null && oldQuality != newQuality) {
+            listener.onQualityChanged(oldQuality, newQuality);
+        }
+    }
+
+    /**
+     * 设置网络质量等级变化的回调，如网络好转时重新加载低质量版本的图片
+     *
+     * @param qualityListener null则不回调
+     */
+    public void setOnQualityChangedListener(OnQualityChangedListener qualityListener) {
+        this.qualityListener = qualityListener;
+    }
+
+    /**
+     * @return 当前估算的带宽，单位kbps；还没有样本时返回-1
+     */
+    public synchronized double getBandwidthKbps() {
+        return bandwidthKbps;
+    }
+
+    /**
+     * @return 当前网络质量等级
+     */
+    public synchronized Quality getQuality() {
+        if (sampleCount < MIN_SAMPLE_COUNT) {
+            return Quality.UNKNOWN;
+        }
+        if (bandwidthKbps < POOR_BANDWIDTH_KBPS) {
+            return Quality.POOR;
+        } else if (bandwidthKbps < GOOD_BANDWIDTH_KBPS) {
+            return Quality.MODERATE;
+        }
+        return Quality.GOOD;
+    }
+
+    /**
+     * 清空已有样本，如网络切换（WIFI/移动网络）时调用
+     */
+    public synchronized void reset() {
+        bandwidthKbps = -1;
+        sampleCount = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("BandwidthEstimator[kbps=%.1f,samples=%d]", bandwidthKbps, sampleCount);
+    }
+}
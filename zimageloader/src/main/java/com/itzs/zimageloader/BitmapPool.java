@@ -0,0 +1,153 @@
+package com.itzs.zimageloader;
+
+import android.graphics.Bitmap;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * 可复用bitmap池
+ * <p/>
+ * 按宽、高、{@link Bitmap.Config}分组保存不再显示的可变bitmap，解码时通过{@link android.graphics.BitmapFactory.Options#inBitmap}复用，
+ * 减少大块内存的分配和GC；超过容量时回收最久未使用的bitmap
+ * @author zhangshuo
+ */
+public class BitmapPool {
+
+    /**
+     * 允许占用内存的总量
+     */
+    private final int maxSize;
+
+    /**
+     * 当前池中bitmap所占内存的总量
+     */
+    private int size;
+
+    /**
+     * 宽、高、Config -> 该规格的bitmap
+     */
+    private final Map<String, LinkedList<Bitmap>> groups = new HashMap<String, LinkedList<Bitmap>>();
+    /**
+     * 所有bitmap按放入的先后排序，用于淘汰
+     */
+    private final LinkedList<Bitmap> order = new LinkedList<Bitmap>();
+
+    private int hitCount;
+    private int missCount;
+
+    public BitmapPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 取出指定规格的bitmap，内容为之前的图片数据
+     *
+     * @param width
+     * @param height
+     * @param config
+     * @return 池中没有该规格的bitmap时返回null
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        LinkedList<Bitmap> group = groups.get(keyOf(width, height, config));
+        Bitmap bitmap = null;
+        if (group != null) {
+            bitmap = group.pollLast();
+            if (group.isEmpty()) {
+                groups.remove(keyOf(width, height, config));
+            }
+        }
+        if (bitmap == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        order.remove(bitmap);
+        size -= sizeOf(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * 将不再使用的bitmap放入池中，不可变、已回收或大于池容量的bitmap会被直接回收
+     *
+     * @param bitmap 放入后调用者不能再使用该bitmap
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int bitmapSize = sizeOf(bitmap);
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || bitmapSize > maxSize) {
+            bitmap.recycle();
+            return;
+        }
+        synchronized (this) {
+            String key = keyOf(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            LinkedList<Bitmap> group = groups.get(key);
+            if (group == null) {
+                group = new LinkedList<Bitmap>();
+                groups.put(key, group);
+            }
+            group.add(bitmap);
+            order.add(bitmap);
+            size += bitmapSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * 回收最久未使用的bitmap，直到池中bitmap所占内存不大于maxSize
+     *
+     * @param maxSize 0则清空
+     */
+    public void trimToSize(int maxSize) {
+        while (true) {
+            Bitmap toEvict;
+            synchronized (this) {
+                if (size <= maxSize || order.isEmpty()) {
+                    break;
+                }
+                toEvict = order.removeFirst();
+                String key = keyOf(toEvict.getWidth(), toEvict.getHeight(), toEvict.getConfig());
+                LinkedList<Bitmap> group = groups.get(key);
+                if (group != null) {
+                    group.remove(toEvict);
+                    if (group.isEmpty()) {
+                        groups.remove(key);
+                    }
+                }
+                size -= sizeOf(toEvict);
+            }
+            toEvict.recycle();
+        }
+    }
+
+    /**
+     * 清空并回收池中所有bitmap
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    private static String keyOf(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + "_" + config;
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("BitmapPool[maxSize=%d,size=%d,hits=%d,misses=%d]", maxSize, size, hitCount, missCount);
+    }
+}
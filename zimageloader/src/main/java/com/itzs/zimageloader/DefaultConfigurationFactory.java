@@ -20,14 +20,20 @@ import android.os.Environment;
 
 import com.itzs.zimageloader.decoder.ImageDecoder;
 import com.itzs.zimageloader.decoder.BaseDecoder;
+import com.itzs.zimageloader.decoder.DecodeAdmissionController;
+import com.itzs.zimageloader.decoder.TileDecoder;
 import com.itzs.zimageloader.downloader.ImageDownloader;
 import com.itzs.zimageloader.downloader.BaseDownloader;
+import com.itzs.zimageloader.downloader.HedgedImageDownloader;
 import com.itzs.zimageloader.downloader.NetworkDeniedImageDownloader;
 import com.itzs.zimageloader.downloader.SlowNetworkImageDownloader;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
@@ -52,10 +58,34 @@ public class DefaultConfigurationFactory {
      * 分发线程的名字前缀
      */
     private static final String DISTRIBUTOR_THREAD_NAME_PREFIX = "z-d-pool-";
+    /**
+     * 对冲请求线程的名字前缀
+     */
+    private static final String HEDGE_THREAD_NAME_PREFIX = "z-h-pool-";
+    /**
+     * 并行变换线程的名字前缀
+     */
+    private static final String TRANSFORM_THREAD_NAME_PREFIX = "z-t-pool-";
+    /**
+     * 入库规范化线程的名字前缀
+     */
+    private static final String INGEST_THREAD_NAME_PREFIX = "z-i-pool-";
+    /**
+     * 磁盘缓存异步写入线程的名字前缀
+     */
+    private static final String DISK_WRITE_THREAD_NAME_PREFIX = "z-w-pool-";
     /**
      * 磁盘缓存目录
      */
     private static final String DISK_CACHE_DIR = "zImage";
+    /**
+     * 解码后像素的磁盘缓存目录
+     */
+    private static final String RAW_PIXEL_CACHE_DIR = "zImageRaw";
+    /**
+     * 解码后像素写入队列的容量
+     */
+    private static final int RAW_PIXEL_WRITE_QUEUE_CAPACITY = 8;
     /**
      * 磁盘缓存大小
      */
@@ -64,6 +94,18 @@ public class DefaultConfigurationFactory {
      * 内存缓存大小
      */
     private static final int MEMORY_CACHE_SIZE = (int) (Runtime.getRuntime().maxMemory() / 8);
+    /**
+     * 大图图块缓存大小
+     */
+    private static final int TILE_CACHE_SIZE = (int) (Runtime.getRuntime().maxMemory() / 16);
+    /**
+     * 同时解码的bitmap内存总量
+     */
+    private static final long DECODE_BUDGET = Runtime.getRuntime().maxMemory() / 8;
+    /**
+     * 可复用bitmap池大小
+     */
+    private static final int BITMAP_POOL_SIZE = (int) (Runtime.getRuntime().maxMemory() / 32);
 
     /**
      * 创建线程池
@@ -103,6 +145,18 @@ public class DefaultConfigurationFactory {
         return cacheDir;
     }
 
+    /**
+     * 创建解码后像素的磁盘缓存，与磁盘缓存目录同级，使用单独的写入线程
+     *
+     * @param maxSize    文件总大小上限，字节
+     * @param bitmapPool 恢复bitmap时复用的bitmap池，可为null
+     */
+    public static RawPixelCache createRawPixelCache(long maxSize, BitmapPool bitmapPool) {
+        File cacheDir = new File(Environment.getExternalStorageDirectory(), RAW_PIXEL_CACHE_DIR);
+        return new RawPixelCache(cacheDir, maxSize, RawPixelCache.DEFAULT_MIN_HITS,
+                createDiskCacheWriteExecutor(RAW_PIXEL_WRITE_QUEUE_CAPACITY), bitmapPool);
+    }
+
     /**
      * 创建内存缓存器
      * @param context
@@ -112,6 +166,27 @@ public class DefaultConfigurationFactory {
         return new LruMemoryCache(context, MEMORY_CACHE_SIZE);
     }
 
+    /**
+     * 创建可复用bitmap池
+     */
+    public static BitmapPool createBitmapPool() {
+        return new BitmapPool(BITMAP_POOL_SIZE);
+    }
+
+    /**
+     * 创建大图图块缓存，被淘汰的图块放回bitmapPool
+     */
+    public static TileCache createTileCache(BitmapPool bitmapPool) {
+        return new TileCache(TILE_CACHE_SIZE, bitmapPool);
+    }
+
+    /**
+     * 创建大图区域解码器，最多与解码线程池同时解码{@link #DEFAULT_THREAD_POOL_SIZE}个图块
+     */
+    public static TileDecoder createTileDecoder(String filePath) throws IOException {
+        return new TileDecoder(filePath, DEFAULT_THREAD_POOL_SIZE);
+    }
+
     /**
      * Creates default implementation of {@link BaseDownloader} - {@link ImageDownloader}
      */
@@ -127,6 +202,71 @@ public class DefaultConfigurationFactory {
         return new SlowNetworkImageDownloader(downloader);
     }
 
+    /**
+     * 创建并行计算bitmap变换（如模糊）的线程池，线程数为CPU核数
+     */
+    public static ExecutorService createTransformExecutor() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        return Executors.newFixedThreadPool(threads, createThreadFactory(DEFAULT_THREAD_PRIORITY, TRANSFORM_THREAD_NAME_PREFIX));
+    }
+
+    /**
+     * 创建入库规范化的线程池，单个最低优先级的线程，不影响显示图片的解码
+     */
+    public static ExecutorService createIngestExecutor() {
+        return Executors.newSingleThreadExecutor(createThreadFactory(Thread.MIN_PRIORITY, INGEST_THREAD_NAME_PREFIX));
+    }
+
+    /**
+     * 创建磁盘缓存异步写入bitmap的线程池：单个线程按顺序写入，队列有界，队列满时拒绝新的写入
+     *
+     * @param queueCapacity 等待写入的最大数量
+     */
+    public static ExecutorService createDiskCacheWriteExecutor(int queueCapacity) {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity),
+                createThreadFactory(DEFAULT_THREAD_PRIORITY, DISK_WRITE_THREAD_NAME_PREFIX));
+    }
+
+    /**
+     * 创建对冲请求downloader，原请求和对冲请求都在单独的线程池中执行
+     */
+    public static HedgedImageDownloader createHedgedDownloader(BaseDownloader downloader) {
+        return new HedgedImageDownloader(downloader, createHedgeExecutor());
+    }
+
+    /**
+     * 创建对冲请求线程池，所有请求共享：每个下载线程最多同时等待原请求和对冲请求，线程数为下载线程数的2倍，空闲时回收。
+     * 等待队列不限长度，落败的请求会被中止并立即释放线程，排队的请求不会等到读取超时
+     */
+    public static ExecutorService createHedgeExecutor() {
+        int poolSize = DEFAULT_THREAD_POOL_SIZE * 2;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), createThreadFactory(DEFAULT_THREAD_PRIORITY, HEDGE_THREAD_NAME_PREFIX));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 创建加载失败的uri缓存
+     */
+    public static FailedUriCache createFailedUriCache() {
+        return new FailedUriCache();
+    }
+
+    /**
+     * 创建按主机划分的熔断器
+     */
+    public static HostCircuitBreaker createHostCircuitBreaker() {
+        return new HostCircuitBreaker();
+    }
+
+    /**
+     * 创建网络带宽估算器
+     */
+    public static BandwidthEstimator createBandwidthEstimator() {
+        return new BandwidthEstimator();
+    }
+
     /**
      * Creates default implementation of {@link BaseDecoder} - {@link ImageDecoder}
      */
@@ -134,6 +274,21 @@ public class DefaultConfigurationFactory {
         return new ImageDecoder();
     }
 
+    /**
+     * Creates default implementation of {@link BaseDecoder} - {@link ImageDecoder},
+     * which reads image sizes of disk cached files from the disk cache's metadata index
+     */
+    public static BaseDecoder createImageDecoder(LruDiskCache diskCache) {
+        return new ImageDecoder(diskCache.getMetadataIndex(), createDecodeAdmissionController());
+    }
+
+    /**
+     * 创建解码准入控制，同时解码的bitmap内存总量不超过{@link #DECODE_BUDGET}
+     */
+    public static DecodeAdmissionController createDecodeAdmissionController() {
+        return new DecodeAdmissionController(DECODE_BUDGET);
+    }
+
     /**
      * Creates default implementation of {@linkplain ThreadFactory thread factory} for task executor
      */
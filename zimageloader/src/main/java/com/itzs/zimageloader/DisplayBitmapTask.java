@@ -37,19 +37,37 @@ final class DisplayBitmapTask implements Runnable {
 	private final String memoryCacheKey;
 	private final ImageLoadingListener listener;
 	private final ImageLoaderEngine engine;
+	/**
+	 * 是否为完整解码前显示的预览图；预览图不结束显示任务，也不回调listener
+	 */
+	private final boolean preview;
 
 	public DisplayBitmapTask(Bitmap bitmap, String uri, String memoryCacheKey, ImageViewAware imageAware,
 			ImageLoadingListener listener, ImageLoaderEngine engine) {
+		this(bitmap, uri, memoryCacheKey, imageAware, listener, engine, false);
+	}
+
+	public DisplayBitmapTask(Bitmap bitmap, String uri, String memoryCacheKey, ImageViewAware imageAware,
+			ImageLoadingListener listener, ImageLoaderEngine engine, boolean preview) {
 		this.bitmap = bitmap;
 		this.imageUri = uri;
 		this.imageAware = imageAware;
 		this.memoryCacheKey = memoryCacheKey;
 		this.listener = listener;
 		this.engine = engine;
+		this.preview = preview;
 	}
 
 	@Override
 	public void run() {
+		if (preview) {
+			// 完整图片已显示（显示任务已结束）或view被复用时，不再显示预览图
+			if (!imageAware.isCollected() && !isViewWasReused()) {
+				Log.d(TAG, "显示预览图-->" + memoryCacheKey);
+				imageAware.setImageBitmap(bitmap);
+			}
+			return;
+		}
 		if (imageAware.isCollected()) {
 			Log.d(TAG, LOG_TASK_CANCELLED_IMAGEAWARE_COLLECTED + "-->" + memoryCacheKey);
 			listener.onLoadingCancelled(imageUri, imageAware.getWrappedView());
@@ -0,0 +1,250 @@
+package com.itzs.zimageloader;
+
+import android.os.MemoryFile;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.itzs.zimageloader.stream.MemoryFileInputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 编码后图片数据的内存缓存，位于内存缓存和磁盘缓存之间
+ * <p/>
+ * 内存缓存未命中时，从这里读取压缩的图片数据直接解码，不需要打开和读取磁盘文件；
+ * 数据保存在匿名共享内存（{@link MemoryFile}）中，不占用Java堆的内存预算。<br/>
+ * 以文件uri为key，缓存时记录文件长度和修改时间，文件被替换（如入库规范化）后任一不同，旧数据自动失效。<br/>
+ * 正在被读取的数据被淘汰时，等数据流关闭后再释放
+ * @author zhangshuo
+ */
+public class EncodedMemoryCache {
+
+    private static final String TAG = EncodedMemoryCache.class.getSimpleName();
+
+    /**
+     * 单个文件最多占总容量的比例，避免一个大文件挤掉所有缓存
+     */
+    private static final int MAX_ENTRY_FRACTION = 8;
+    private static final int COPY_BUFFER_SIZE = 32 * 1024;
+
+    private static class Entry {
+        final MemoryFile memoryFile;
+        final int length;
+        /** 缓存时文件的修改时间 */
+        final long lastModified;
+        /** 未关闭的数据流数量 */
+        int readers;
+        boolean removed;
+
+        Entry(MemoryFile memoryFile, int length, long lastModified) {
+            this.memoryFile = memoryFile;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final int maxSize;
+    private final LinkedHashMap<String, Entry> map = new LinkedHashMap<String, Entry>(0, 0.75f, true);
+    private int size;
+
+    private int hitCount;
+    private int missCount;
+
+    /**
+     * @param maxSize 缓存数据的总大小上限，字节
+     */
+    public EncodedMemoryCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 打开缓存的文件数据
+     *
+     * @param key          文件uri
+     * @param fileLength   当前的文件长度
+     * @param lastModified 当前的文件修改时间；长度或修改时间与缓存时不同则认为文件已被替换
+     * @return 没有缓存或已失效时返回null；返回的数据流必须关闭
+     */
+    public InputStream open(String key, long fileLength, long lastModified) {
+        Entry stale = null;
+        synchronized (this) {
+            Entry entry = map.get(key);
+            if (null != entry && entry.length == fileLength && entry.lastModified == lastModified) {
+                hitCount++;
+                return newStream(entry);
+            }
+            missCount++;
+            if (null != entry) {
+                map.remove(key);
+                size -= entry.length;
+                stale = entry;
+            }
+        }
+        if (null != stale) {
+            release(stale);
+        }
+        return null;
+    }
+
+    /**
+     * 把文件读入共享内存并缓存，返回从共享内存读取的数据流；文件只读取一次
+     *
+     * @param key  文件uri
+     * @param file
+     * @return 文件过大或无法分配共享内存时返回null，调用者应直接读取文件
+     * @throws IOException 读取文件失败
+     */
+    public InputStream put(String key, File file) throws IOException {
+        //在读取之前记录，读取期间文件被替换时下次open会发现修改时间不同
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (TextUtils.isEmpty(key) || length <= 0 || length > maxSize / MAX_ENTRY_FRACTION) {
+            return null;
+        }
+        MemoryFile memoryFile;
+        try {
+            memoryFile = new MemoryFile(null, (int) length);
+        } catch (IOException e) {
+            Log.w(TAG, "put--无法分配共享内存-->" + key, e);
+            return null;
+        }
+        boolean copied = false;
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int offset = 0;
+            int count;
+            while (offset < length && (count = is.read(buffer, 0, (int) Math.min(buffer.length, length - offset))) != -1) {
+                memoryFile.writeBytes(buffer, 0, offset, count);
+                offset += count;
+            }
+            copied = offset == length;
+        } finally {
+            IoUtils.closeSilently(is);
+            if (!copied) {
+                memoryFile.close();
+            }
+        }
+        if (!copied) {
+            return null;
+        }
+        Entry entry = new Entry(memoryFile, (int) length, lastModified);
+        Entry previous;
+        InputStream stream;
+        synchronized (this) {
+            previous = map.put(key, entry);
+            size += entry.length;
+            if (null != previous) {
+                size -= previous.length;
+            }
+            stream = newStream(entry);
+        }
+        if (null != previous) {
+            release(previous);
+        }
+        trimToSize(maxSize);
+        return stream;
+    }
+
+    private InputStream newStream(final Entry entry) {
+        entry.readers++;
+        return new MemoryFileInputStream(entry.memoryFile, entry.length) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                boolean free;
+                synchronized (EncodedMemoryCache.this) {
+                    entry.readers--;
+                    free = entry.removed && entry.readers == 0;
+                }
+                if (free) {
+                    entry.memoryFile.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * 条目已从map中移除，没有正在读取的数据流时立即释放共享内存
+     */
+    private void release(Entry entry) {
+        boolean free;
+        synchronized (this) {
+            entry.removed = true;
+            free = entry.readers == 0;
+        }
+        if (free) {
+            entry.memoryFile.close();
+        }
+    }
+
+    private void trimToSize(int maxSize) {
+        List<Entry> evicted = new ArrayList<Entry>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+            while (size > maxSize && it.hasNext()) {
+                Entry entry = it.next().getValue();
+                it.remove();
+                size -= entry.length;
+                evicted.add(entry);
+            }
+        }
+        for (Entry entry : evicted) {
+            release(entry);
+        }
+    }
+
+    /**
+     * 移除uri对应的数据
+     *
+     * @param key 文件uri
+     */
+    public void remove(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = map.remove(key);
+            if (null != entry) {
+                size -= entry.length;
+            }
+        }
+        if (null != entry) {
+            release(entry);
+        }
+    }
+
+    /**
+     * 释放所有数据，正在读取的数据在数据流关闭后释放
+     */
+    public void clear() {
+        trimToSize(-1);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = hitCount + missCount;
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("EncodedMemoryCache[maxSize=%d,size=%d,entries=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, size, map.size(), hitCount, missCount, hitPercent);
+    }
+}
@@ -0,0 +1,100 @@
+package com.itzs.zimageloader;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 加载失败的uri缓存（负缓存）
+ * <p/>
+ * 记录最近加载失败的uri及失败类型，在有效期内再次显示该uri时直接显示失败图片，不再占用下载线程去重复请求；
+ * 每种{@link FailReason.FailType}有各自的有效期，有效期为0的失败类型不会被缓存
+ * @author zhangshuo
+ */
+public class FailedUriCache {
+
+    /** 默认最多缓存的uri数量 */
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private final int maxSize;
+
+    private final Map<FailReason.FailType, Long> ttls = new EnumMap<FailReason.FailType, Long>(FailReason.FailType.class);
+
+    private final LinkedHashMap<String, FailEntry> map;
+
+    public FailedUriCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public FailedUriCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.map = new LinkedHashMap<String, FailEntry>(0, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FailEntry> eldest) {
+                return size() > FailedUriCache.this.maxSize;
+            }
+        };
+        ttls.put(FailReason.FailType.IO_ERROR, 30 * 1000L);
+        ttls.put(FailReason.FailType.DECODING_ERROR, 5 * 60 * 1000L);
+        ttls.put(FailReason.FailType.NETWORK_DENIED, 0L);
+        ttls.put(FailReason.FailType.OUT_OF_MEMORY, 0L);
+        ttls.put(FailReason.FailType.UNKNOWN, 10 * 1000L);
+    }
+
+    /**
+     * 设置某种失败类型的有效期
+     * @param failType
+     * @param ttlMillis 有效期，毫秒；0则不缓存该类型的失败
+     */
+    public synchronized void setTtl(FailReason.FailType failType, long ttlMillis) {
+        ttls.put(failType, ttlMillis);
+    }
+
+    /**
+     * 记录uri加载失败
+     * @param uri
+     * @param failType
+     */
+    public synchronized void put(String uri, FailReason.FailType failType) {
+        Long ttl = ttls.get(failType);
+        if (uri == null || ttl == null || ttl <= 0) {
+            return;
+        }
+        map.put(uri, new FailEntry(failType, System.currentTimeMillis() + ttl));
+    }
+
+    /**
+     * @param uri
+     * @return 有效期内的失败类型；uri没有失败记录或记录已过期时返回null
+     */
+    public synchronized FailReason.FailType get(String uri) {
+        if (uri == null) return null;
+        FailEntry entry = map.get(uri);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            map.remove(uri);
+            return null;
+        }
+        return entry.failType;
+    }
+
+    public synchronized void remove(String uri) {
+        map.remove(uri);
+    }
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    private static class FailEntry {
+        final FailReason.FailType failType;
+        final long expiresAt;
+
+        FailEntry(FailReason.FailType failType, long expiresAt) {
+            this.failType = failType;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
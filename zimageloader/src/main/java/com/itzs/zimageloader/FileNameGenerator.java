@@ -9,21 +9,136 @@ public class FileNameGenerator {
 
     private static final String URI_AND_SIZE_SEPARATOR = "_";
     private static final String WIDTH_AND_HEIGHT_SEPARATOR = "x";
+    private static final String URI_AND_TRANSFORMATION_SEPARATOR = "|";
 
     /**
-     * 返回imageUri的hashCode值
+     * 缓存key的uri规范化，默认为null，不做规范化
+     */
+    private static volatile UriCanonicalizer uriCanonicalizer;
+
+    /**
+     * 设置缓存key的uri规范化，内存缓存、磁盘缓存及同一uri的加载锁都使用规范化后的uri；
+     * 开启后磁盘缓存文件名会变化，之前按原uri命名的文件在第一次命中时改名，见{@link #generateLegacy(String)}
+     * @param canonicalizer null则不做规范化
+     */
+    public static void setUriCanonicalizer(UriCanonicalizer canonicalizer) {
+        uriCanonicalizer = canonicalizer;
+    }
+
+    public static UriCanonicalizer getUriCanonicalizer() {
+        return uriCanonicalizer;
+    }
+
+    /**
+     * 目标大小分档，null则不分档
+     */
+    private static volatile TargetSizeBucketer targetSizeBucketer;
+
+    /**
+     * 设置目标大小分档，view的目标大小在生成内存缓存key之前取整到档位
+     * @param bucketer null则不分档
+     */
+    public static void setTargetSizeBucketer(TargetSizeBucketer bucketer) {
+        targetSizeBucketer = bucketer;
+    }
+
+    public static TargetSizeBucketer getTargetSizeBucketer() {
+        return targetSizeBucketer;
+    }
+
+    /**
+     * 将目标大小取整到档位，未设置分档时不做修改
+     * @param targetSize 0 width，1 height，会被直接修改
+     */
+    public static void bucketTargetSize(int[] targetSize) {
+        TargetSizeBucketer bucketer = targetSizeBucketer;
+        if (bucketer != null) {
+            bucketer.bucket(targetSize);
+        }
+    }
+
+    /**
+     * 返回用作缓存key的规范化uri
+     * @param imageUri
+     * @return
+     */
+    public static String canonicalize(String imageUri) {
+        UriCanonicalizer canonicalizer = uriCanonicalizer;
+        return canonicalizer == null ? imageUri : canonicalizer.canonicalize(imageUri);
+    }
+
+    /**
+     * 返回规范化后的imageUri的hashCode值
      * @param imageUri
      * @return
      */
     public String generate(String imageUri) {
-        return String.valueOf(imageUri.hashCode());
+        return String.valueOf(canonicalize(imageUri).hashCode());
+    }
+
+    /**
+     * 返回不做规范化时的文件名，用于找回开启规范化之前缓存的文件
+     * @param imageUri
+     * @return 与{@link #generate(String)}相同（没有开启规范化或uri不受规范化影响）时返回null
+     */
+    public String generateLegacy(String imageUri) {
+        String legacy = String.valueOf(imageUri.hashCode());
+        return legacy.equals(generate(imageUri)) ? null : legacy;
     }
 
     /**
      * Generates key for memory cache for incoming image (URI + size).<br />
-     * Pattern for cache key - <b>[imageUri]_[width]x[height]</b>.
+     * Pattern for cache key - <b>[imageUri]_[width]x[height]</b>, imageUri is canonicalized first.
      */
     public static String generateMemoryCacheKey(String imageUri, int[] targetSize) {
-        return new StringBuilder(imageUri).append(URI_AND_SIZE_SEPARATOR).append(targetSize[0]).append(WIDTH_AND_HEIGHT_SEPARATOR).append(targetSize[1]).toString();
+        return generateMemoryCacheKey(imageUri, targetSize, null);
+    }
+
+    /**
+     * 生成包含变换的内存缓存key，格式为<b>[imageUri]|[transformationKey]_[width]x[height]</b>，
+     * 同一图片不同的变换使用不同的key
+     * @param imageUri
+     * @param targetSize 为null时不包含目标大小
+     * @param transformationKey 变换的key，为null时不包含变换
+     */
+    public static String generateMemoryCacheKey(String imageUri, int[] targetSize, String transformationKey) {
+        StringBuilder sb = new StringBuilder(canonicalize(imageUri));
+        if (transformationKey != null && transformationKey.length() > 0) {
+            sb.append(URI_AND_TRANSFORMATION_SEPARATOR).append(transformationKey);
+        }
+        if (targetSize != null) {
+            sb.append(URI_AND_SIZE_SEPARATOR).append(targetSize[0]).append(WIDTH_AND_HEIGHT_SEPARATOR).append(targetSize[1]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 从内存缓存key中去掉目标大小，得到同一图片所有大小共用的key
+     * @param memoryCacheKey {@link #generateMemoryCacheKey(String, int[])}生成的key或规范化的uri
+     * @return 没有目标大小后缀时返回memoryCacheKey本身
+     */
+    public static String getMemoryCacheBaseKey(String memoryCacheKey) {
+        int sizeIndex = memoryCacheKey.lastIndexOf(URI_AND_SIZE_SEPARATOR);
+        if (sizeIndex <= 0) {
+            return memoryCacheKey;
+        }
+        int separatorIndex = memoryCacheKey.indexOf(WIDTH_AND_HEIGHT_SEPARATOR, sizeIndex);
+        if (separatorIndex < 0 || !isDigits(memoryCacheKey, sizeIndex + 1, separatorIndex)
+                || !isDigits(memoryCacheKey, separatorIndex + 1, memoryCacheKey.length())) {
+            return memoryCacheKey;
+        }
+        return memoryCacheKey.substring(0, sizeIndex);
+    }
+
+    private static boolean isDigits(String s, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (!Character.isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,139 @@
+package com.itzs.zimageloader;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 按主机划分的熔断器
+ * <p/>
+ * 主机连续失败{@link #FAILURE_THRESHOLD}次后熔断，熔断期间该主机的请求直接失败，不再建立连接；
+ * 熔断时间从{@link #BASE_BACKOFF}开始按指数增长，最长{@link #MAX_BACKOFF}。
+ * 熔断时间结束后只放行一个探测请求，成功则恢复，失败则继续熔断
+ * @author zhangshuo
+ */
+public class HostCircuitBreaker {
+
+    /** 触发熔断的连续失败次数 */
+    public static final int FAILURE_THRESHOLD = 3;
+    /** 初始熔断时间，毫秒 */
+    public static final long BASE_BACKOFF = 2 * 1000;
+    /** 最长熔断时间，毫秒 */
+    public static final long MAX_BACKOFF = 5 * 60 * 1000;
+    /** 探测请求的超时时间，超过该时间没有结果则允许再次探测，毫秒 */
+    public static final long PROBE_TIMEOUT = 30 * 1000;
+    /** 最多记录的主机数 */
+    private static final int MAX_HOSTS = 64;
+
+    private final LinkedHashMap<String, HostState> hosts = new LinkedHashMap<String, HostState>(0, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HostState> eldest) {
+            return size() > MAX_HOSTS;
+        }
+    };
+
+    /**
+     * 熔断期间的请求抛出此异常
+     */
+    public static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public CircuitOpenException(String host) {
+            super("Host is temporarily unavailable: " + host);
+        }
+    }
+
+    /**
+     * 获取uri的主机名
+     * @param uri
+     * @return 主机名（小写），无法解析时返回null
+     */
+    public static String getHost(String uri) {
+        if (uri == null) return null;
+        int start = uri.indexOf("://");
+        if (start < 0) return null;
+        start += 3;
+        int end = start;
+        while (end < uri.length()) {
+            char c = uri.charAt(end);
+            if (c == '/' || c == '?' || c == '#') break;
+            end++;
+        }
+        String authority = uri.substring(start, end);
+        int at = authority.lastIndexOf('@');
+        if (at >= 0) authority = authority.substring(at + 1);
+        return authority.length() == 0 ? null : authority.toLowerCase(Locale.US);
+    }
+
+    /**
+     * @param host
+     * @return true - 允许请求该主机；false - 主机处于熔断状态
+     */
+    public synchronized boolean allowRequest(String host) {
+        HostState state = hosts.get(host);
+        if (state == null || state.failures < FAILURE_THRESHOLD) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now < state.openUntil) {
+            return false;
+        }
+        // 熔断时间已过，只放行一个探测请求
+        if (state.probeStartedAt > 0 && now - state.probeStartedAt < PROBE_TIMEOUT) {
+            return false;
+        }
+        state.probeStartedAt = now;
+        return true;
+    }
+
+    /**
+     * 只读检查主机是否处于熔断状态，不会占用探测请求的名额；实际发起请求前应使用{@link #allowRequest(String)}
+     *
+     * @param host
+     * @return true - 熔断中或探测请求还没有结果；false - 可以请求
+     */
+    public synchronized boolean isOpen(String host) {
+        HostState state = hosts.get(host);
+        if (state == null || state.failures < FAILURE_THRESHOLD) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        return now < state.openUntil || (state.probeStartedAt > 0 && now - state.probeStartedAt < PROBE_TIMEOUT);
+    }
+
+    /**
+     * 记录主机请求成功，清除该主机的失败记录
+     */
+    public synchronized void recordSuccess(String host) {
+        hosts.remove(host);
+    }
+
+    /**
+     * 记录主机请求失败
+     */
+    public synchronized void recordFailure(String host) {
+        HostState state = hosts.get(host);
+        if (state == null) {
+            state = new HostState();
+            hosts.put(host, state);
+        }
+        state.failures++;
+        state.probeStartedAt = 0;
+        if (state.failures >= FAILURE_THRESHOLD) {
+            int exponent = Math.min(state.failures - FAILURE_THRESHOLD, 20);
+            long backoff = Math.min(BASE_BACKOFF << exponent, MAX_BACKOFF);
+            state.openUntil = System.currentTimeMillis() + backoff;
+        }
+    }
+
+    public synchronized void clear() {
+        hosts.clear();
+    }
+
+    private static class HostState {
+        int failures;
+        long openUntil;
+        long probeStartedAt;
+    }
+}
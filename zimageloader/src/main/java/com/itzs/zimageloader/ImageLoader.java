@@ -10,9 +10,29 @@ import android.util.Log;
 import android.widget.ImageView;
 
 import com.itzs.zimageloader.decoder.BaseDecoder;
+import com.itzs.zimageloader.decoder.BitmapConfigPolicy;
+import com.itzs.zimageloader.decoder.DecodeAdmissionController;
+import com.itzs.zimageloader.decoder.GifDecoder;
+import com.itzs.zimageloader.decoder.ImageDecoder;
+import com.itzs.zimageloader.decoder.ImageHeader;
+import com.itzs.zimageloader.decoder.TileDecoder;
 import com.itzs.zimageloader.downloader.BaseDownloader;
+import com.itzs.zimageloader.downloader.HedgedImageDownloader;
+import com.itzs.zimageloader.downloader.ImageVariantResolver;
 import com.itzs.zimageloader.view.ImageViewAware;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
 public class ImageLoader {
     public static final String TAG = ImageLoader.class.getSimpleName();
 
@@ -31,13 +51,41 @@ public class ImageLoader {
     private ImageLoaderEngine engine;
 
     private BaseDownloader downloader, networkDeniedDownloader, slowNetworkDownloader;
+    private HedgedImageDownloader hedgedDownloader;
     private LruMemoryCache memoryCache;
     private LruDiskCache diskCache;
+    private BitmapPool bitmapPool;
+    private TileCache tileCache;
+    private OomRecovery oomRecovery;
     private BaseDecoder decoder;
+    private BandwidthEstimator bandwidthEstimator;
+    private ImageVariantResolver variantResolver;
+    private IngestNormalizer ingestNormalizer;
+    private RawPixelCache rawPixelCache;
+    private EncodedMemoryCache encodedMemoryCache;
+    private Executor ingestExecutor;
+
+    /**
+     * view id -> 正在显示的低质量版本，网络好转或需要原图时重新加载原图
+     */
+    private final Map<Integer, DegradedDisplay> degradedDisplays = new HashMap<Integer, DegradedDisplay>();
+
+    private static class DegradedDisplay {
+        final ImageViewAware imageAware;
+        final ImageLoadingListener listener;
+        final String sourceUri;
+
+        DegradedDisplay(ImageViewAware imageAware, ImageLoadingListener listener, String sourceUri) {
+            this.imageAware = imageAware;
+            this.listener = listener;
+            this.sourceUri = sourceUri;
+        }
+    }
 
     private Context context;
 
     private Handler handler = null;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     private volatile static ImageLoader instance;
 
@@ -71,9 +119,22 @@ public class ImageLoader {
         downloader = DefaultConfigurationFactory.createImageDownloader(context);
         networkDeniedDownloader = DefaultConfigurationFactory.createNetworkDeniedDownloader(downloader);
         slowNetworkDownloader = DefaultConfigurationFactory.createSlowNetworkDownloader(downloader);
+        hedgedDownloader = DefaultConfigurationFactory.createHedgedDownloader(downloader);
         diskCache = DefaultConfigurationFactory.createDiskCache();
         memoryCache = DefaultConfigurationFactory.createMemoryCache(context);
-        decoder = DefaultConfigurationFactory.createImageDecoder();
+        bitmapPool = DefaultConfigurationFactory.createBitmapPool();
+        tileCache = DefaultConfigurationFactory.createTileCache(bitmapPool);
+        decoder = DefaultConfigurationFactory.createImageDecoder(diskCache);
+        oomRecovery = new OomRecovery(memoryCache, tileCache, bitmapPool);
+        bandwidthEstimator = DefaultConfigurationFactory.createBandwidthEstimator();
+        bandwidthEstimator.setOnQualityChangedListener(new BandwidthEstimator.OnQualityChangedListener() {
+            @Override
+            public void onQualityChanged(BandwidthEstimator.Quality oldQuality, BandwidthEstimator.Quality newQuality) {
+                if (newQuality.compareTo(oldQuality) > 0) {
+                    mainHandler.post(upgradeDegradedDisplays);
+                }
+            }
+        });
         engine = new ImageLoaderEngine(diskCache);
     }
 
@@ -104,16 +165,31 @@ public class ImageLoader {
         }
 
         engine.prepareDisplayTaskFor(imageAware);
+        synchronized (degradedDisplays) {
+            degradedDisplays.remove(imageAware.getId());
+        }
 
         listener.onLoadingStarted(imageAware.getUri(), imageAware.getWrappedView());
 
         Bitmap bmp = memoryCache.get(imageAware.getMemoryCacheKey());
-        if (bmp != null && !bmp.isRecycled()) {
+        FailReason.FailType failType;
+        if (imageAware.acceptsCachedBitmap(bmp)) {
             Log.d(TAG, "从缓存中获取到图片-->" + imageAware.getMemoryCacheKey());
             imageAware.setImageBitmap(bmp);
             listener.onLoadingComplete(imageAware.getUri(), imageAware.getWrappedView(), bmp);
+        } else if ((failType = engine.getFailedUriCache().get(FileNameGenerator.canonicalize(imageAware.getUri()))) != null) {
+            Log.d(TAG, "图片最近加载失败，直接显示失败图片-->" + imageAware.getUri());
+            engine.cancelDisplayTaskFor(imageAware);
+            imageAware.setImageDrawable(getImageOnFail());
+            listener.onLoadingFailed(imageAware.getUri(), imageAware.getWrappedView(), new FailReason(failType, null));
         } else {
-            imageAware.setImageDrawable(getImageOnLoading());
+            Bitmap placeholder = getCachedVariant(imageAware);
+            if (placeholder != null) {
+                Log.d(TAG, "先显示内存缓存中其他大小的图片-->" + imageAware.getMemoryCacheKey());
+                imageAware.setImageBitmap(placeholder);
+            } else {
+                imageAware.setImageDrawable(getImageOnLoading());
+            }
 
             LoadAndDisplayImageTask displayTask = new LoadAndDisplayImageTask(
                     imageAware,
@@ -123,6 +199,20 @@ public class ImageLoader {
         }
     }
 
+    /**
+     * 在内存缓存中查找同一图片其他目标大小的bitmap，作为加载目标大小图片时的占位图（如view大小改变、详情页以更大尺寸显示同一图片）
+     *
+     * @param imageAware
+     * @return 不压缩图片或没有其他大小的bitmap时返回null
+     */
+    private Bitmap getCachedVariant(ImageViewAware imageAware) {
+        if (!imageAware.isShouldCompress()) {
+            return null;
+        }
+        int[] targetSize = imageAware.getTargetSize();
+        return memoryCache.getClosestVariant(imageAware.getMemoryCacheKey(), targetSize[0], targetSize[1]);
+    }
+
     public Handler getHandler() {
         if (handler == null && Looper.myLooper() == Looper.getMainLooper()) {
             handler = new Handler();
@@ -146,16 +236,214 @@ public class ImageLoader {
         return slowNetworkDownloader;
     }
 
+    public HedgedImageDownloader getHedgedDownloader() {
+        return hedgedDownloader;
+    }
+
     public BaseDecoder getDecoder() {
         return decoder;
     }
 
+    /**
+     * 设置解码时bitmap格式的选择策略，默认{@link BitmapConfigPolicy#BALANCED}：不透明的JPEG使用RGB_565，
+     * 同样大小的内存缓存可以多缓存约一倍的图片；需要原图质量的view可通过{@link ImageViewAware#setFullQualityRequired(boolean)}强制使用ARGB_8888
+     *
+     * @param configPolicy
+     */
+    public void setBitmapConfigPolicy(BitmapConfigPolicy configPolicy) {
+        if (decoder instanceof ImageDecoder) {
+            ((ImageDecoder) decoder).setConfigPolicy(configPolicy);
+        }
+    }
+
+    /**
+     * @return 解码准入控制，可查看同时解码的内存峰值和排队次数；自定义的解码器返回null
+     */
+    public DecodeAdmissionController getDecodeAdmissionController() {
+        return decoder instanceof ImageDecoder ? ((ImageDecoder) decoder).getAdmissionController() : null;
+    }
+
+    /**
+     * @return 解码OOM后的恢复，可查看每一级重试成功的次数和放弃的次数
+     */
+    public OomRecovery getOomRecovery() {
+        return oomRecovery;
+    }
+
     public LruMemoryCache getMemoryCache() {
         return memoryCache;
     }
 
+    /**
+     * 设置内存缓存的淘汰策略，默认{@link LruMemoryCache.EvictionPolicy#LRU}；
+     * 列表中有频繁复用的小图（头像、标题图）又经常快速滑动时，{@link LruMemoryCache.EvictionPolicy#TINY_LFU}的命中率更高。应在开始加载图片前设置
+     *
+     * @param policy
+     */
+    public void setMemoryCachePolicy(LruMemoryCache.EvictionPolicy policy) {
+        memoryCache.setEvictionPolicy(policy);
+    }
+
     public void clearMemoryCache() {
         memoryCache.clear();
+        tileCache.clear();
+        bitmapPool.clear();
+    }
+
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+
+    /**
+     * 打开按图块显示的大图，图片不在本地时先下载到磁盘缓存；需在主线程调用
+     *
+     * @param uri
+     * @param listener 打开结果的回调，在主线程调用
+     */
+    public void openTiledImage(final String uri, final TiledImage.OnOpenListener listener) {
+        if (TextUtils.isEmpty(uri)) {
+            throw new IllegalArgumentException("openTiledImage方法调用参数错误，uri不可为空");
+        }
+        final Handler handler = getHandler();
+        engine.submitLoad(new Runnable() {
+            @Override
+            public void run() {
+                FailReason failReason;
+                try {
+                    File imageFile = getLocalImageFile(uri);
+                    TileDecoder tileDecoder = DefaultConfigurationFactory.createTileDecoder(imageFile.getAbsolutePath());
+                    final TiledImage image = new TiledImage(uri, tileDecoder, tileCache, bitmapPool, engine, handler);
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onOpened(uri, image);
+                        }
+                    });
+                    return;
+                } catch (IOException e) {
+                    Log.e(TAG, "openTiledImage-->" + uri, e);
+                    failReason = new FailReason(FailReason.FailType.IO_ERROR, e);
+                } catch (OutOfMemoryError e) {
+                    Log.e(TAG, "openTiledImage--OOM-->" + uri, e);
+                    failReason = new FailReason(FailReason.FailType.OUT_OF_MEMORY, e);
+                }
+                final FailReason reason = failReason;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onOpenFailed(uri, reason);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 打开GIF动画，图片不在本地时先下载到磁盘缓存；帧在播放时按需解码。需在主线程调用
+     *
+     * @param uri
+     * @param listener 打开结果的回调，在主线程调用；不是GIF时回调{@link FailReason.FailType#DECODING_ERROR}
+     */
+    public void openAnimatedImage(final String uri, final AnimatedImage.OnOpenListener listener) {
+        if (TextUtils.isEmpty(uri)) {
+            throw new IllegalArgumentException("openAnimatedImage方法调用参数错误，uri不可为空");
+        }
+        final Handler handler = getHandler();
+        engine.submitLoad(new Runnable() {
+            @Override
+            public void run() {
+                FailReason failReason;
+                try {
+                    byte[] data = readFully(getLocalImageFile(uri));
+                    if (!GifDecoder.isGif(data)) {
+                        throw new IllegalArgumentException("Not a GIF [" + uri + "]");
+                    }
+                    final AnimatedImage image = new AnimatedImage(uri, new GifDecoder(data), engine, handler);
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onOpened(uri, image);
+                        }
+                    });
+                    return;
+                } catch (IOException e) {
+                    Log.e(TAG, "openAnimatedImage-->" + uri, e);
+                    failReason = new FailReason(FailReason.FailType.IO_ERROR, e);
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "openAnimatedImage-->" + uri, e);
+                    failReason = new FailReason(FailReason.FailType.DECODING_ERROR, e);
+                } catch (OutOfMemoryError e) {
+                    Log.e(TAG, "openAnimatedImage--OOM-->" + uri, e);
+                    failReason = new FailReason(FailReason.FailType.OUT_OF_MEMORY, e);
+                }
+                final FailReason reason = failReason;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onOpenFailed(uri, reason);
+                    }
+                });
+            }
+        });
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream((int) file.length());
+            IoUtils.copyStream(is, os, null, IoUtils.DEFAULT_BUFFER_SIZE);
+            return os.toByteArray();
+        } finally {
+            IoUtils.closeSilently(is);
+        }
+    }
+
+    /**
+     * 返回图片的本地文件（用于大图、动画），本地文件直接使用，其他uri先下载到磁盘缓存；
+     * 下载与显示图片一样经过负缓存和主机熔断器，下载失败记录到负缓存
+     */
+    private File getLocalImageFile(String uri) throws IOException {
+        if (BaseDownloader.Scheme.ofUri(uri) == BaseDownloader.Scheme.FILE) {
+            return new File(BaseDownloader.Scheme.FILE.crop(uri));
+        }
+        String uriKey = FileNameGenerator.canonicalize(uri);
+        ReentrantLock uriLock = engine.getLockForUri(uriKey);
+        uriLock.lock();
+        try {
+            File imageFile = diskCache.get(uri);
+            if (imageFile != null) {
+                return imageFile;
+            }
+            if (engine.getFailedUriCache().get(uriKey) != null) {
+                throw new IOException("Image recently failed to load [" + uri + "]");
+            }
+            boolean cached;
+            try {
+                BaseDownloader imageDownloader = engine.isNetworkDenied() ? networkDeniedDownloader : downloader;
+                InputStream is = engine.openImageStream(uri, imageDownloader);
+                if (is == null) {
+                    throw new IOException("Image stream can't be opened [" + uri + "]");
+                }
+                cached = diskCache.put(uri, is, null);
+            } catch (HostCircuitBreaker.CircuitOpenException e) {
+                // 熔断导致的失败不记录，由熔断器负责恢复
+                throw e;
+            } catch (IOException e) {
+                engine.getFailedUriCache().put(uriKey, FailReason.FailType.IO_ERROR);
+                throw e;
+            }
+            // 写入磁盘缓存失败是本地的问题，不记录到负缓存
+            if (!cached || (imageFile = diskCache.peek(uri)) == null) {
+                throw new IOException("Image can't be cached on disk [" + uri + "]");
+            }
+            return imageFile;
+        } finally {
+            uriLock.unlock();
+        }
     }
 
     public LruDiskCache getDiskCache() {
@@ -164,6 +452,258 @@ public class ImageLoader {
 
     public void clearDiskCache() {
         diskCache.clear();
+        RawPixelCache rawCache = rawPixelCache;
+        if (rawCache != null) {
+            rawCache.clear();
+        }
+        EncodedMemoryCache encodedCache = encodedMemoryCache;
+        if (encodedCache != null) {
+            encodedCache.clear();
+        }
+    }
+
+    /**
+     * 开启编码图片数据的内存缓存：从磁盘缓存或本地文件解码时，把文件数据保存在匿名共享内存中，
+     * 内存缓存未命中时直接从共享内存解码，不再读取磁盘；共享内存不计入Java堆。自定义的解码器不支持
+     *
+     * @param maxSize 数据总大小上限，字节，不大于0则关闭
+     */
+    public synchronized void setEncodedMemoryCache(int maxSize) {
+        if (!(decoder instanceof ImageDecoder)) {
+            return;
+        }
+        if (encodedMemoryCache != null) {
+            ((ImageDecoder) decoder).setEncodedMemoryCache(null);
+            encodedMemoryCache.clear();
+            encodedMemoryCache = null;
+        }
+        if (maxSize > 0) {
+            encodedMemoryCache = new EncodedMemoryCache(maxSize);
+            ((ImageDecoder) decoder).setEncodedMemoryCache(encodedMemoryCache);
+        }
+    }
+
+    /**
+     * @return 编码图片数据的内存缓存，没有开启时返回null
+     */
+    public EncodedMemoryCache getEncodedMemoryCache() {
+        return encodedMemoryCache;
+    }
+
+    /**
+     * 开启解码后像素的磁盘缓存：内存缓存中被回看过的bitmap被淘汰时，把像素写入磁盘，
+     * 再次加载时通过内存映射直接恢复，不需要再解码，适合返回之前浏览过的页面；文件按未压缩的像素保存，需要较大的磁盘空间
+     *
+     * @param maxSize 文件总大小上限，字节，不大于0则关闭
+     */
+    public synchronized void setRawPixelCache(long maxSize) {
+        if (rawPixelCache != null) {
+            memoryCache.setEvictionListener(null);
+            rawPixelCache = null;
+        }
+        if (maxSize > 0) {
+            rawPixelCache = DefaultConfigurationFactory.createRawPixelCache(maxSize, bitmapPool);
+            memoryCache.setEvictionListener(rawPixelCache);
+        }
+    }
+
+    /**
+     * @return 解码后像素的磁盘缓存，没有开启时返回null
+     */
+    public RawPixelCache getRawPixelCache() {
+        return rawPixelCache;
+    }
+
+    /**
+     * @return 内存缓存、磁盘缓存的命中率统计及因uri规范化而合并的写法数量，用于评估缓存配置的效果
+     */
+    public String getCacheStats() {
+        UriCanonicalizer canonicalizer = FileNameGenerator.getUriCanonicalizer();
+        IngestNormalizer normalizer = ingestNormalizer;
+        RawPixelCache rawCache = rawPixelCache;
+        EncodedMemoryCache encodedCache = encodedMemoryCache;
+        return memoryCache + " " + diskCache
+                + " collapsedUris=" + (canonicalizer == null ? 0 : canonicalizer.getCollapsedCount())
+                + (normalizer == null ? "" : " " + normalizer)
+                + (rawCache == null ? "" : " " + rawCache)
+                + (encodedCache == null ? "" : " " + encodedCache);
+    }
+
+    /**
+     * 开启入库规范化：下载到磁盘缓存的图片最长边超过maxDimension时，在后台缩小并按format、quality重新编码后另存，
+     * 之后从磁盘加载只需解码较小的文件。原图仍保留在磁盘缓存中，必须显示原图的请求
+     * （{@link ImageViewAware#setFullQualityRequired(boolean)}）和{@link #openTiledImage}使用原图；
+     * 原图不再被访问时会先被淘汰，之后要求原图的请求需要重新下载
+     *
+     * @param maxDimension 最长边上限，像素，不大于0则关闭
+     * @param format       重新编码的格式，如JPEG、WEBP
+     * @param quality      重新编码的质量，0~100
+     */
+    public synchronized void setIngestNormalization(int maxDimension, Bitmap.CompressFormat format, int quality) {
+        if (maxDimension <= 0) {
+            ingestNormalizer = null;
+            return;
+        }
+        if (ingestExecutor == null) {
+            ingestExecutor = DefaultConfigurationFactory.createIngestExecutor();
+        }
+        ingestNormalizer = new IngestNormalizer(diskCache, getDecodeAdmissionController(), ingestExecutor,
+                maxDimension, format, quality);
+    }
+
+    /**
+     * @return 入库规范化，没有开启时返回null
+     */
+    public IngestNormalizer getIngestNormalizer() {
+        return ingestNormalizer;
+    }
+
+    /**
+     * 查询磁盘缓存中图片的原始大小、格式和EXIF方向，只查询内存中的元数据索引，不做任何IO，
+     * 可在主线程中用于图片显示前的布局；宽高为文件中的宽高，{@link ImageHeader#isTransposed()}为true时显示出来的宽高相反
+     *
+     * @param uri
+     * @return 图片未缓存到磁盘、没有记录或索引还没有加载完时返回null
+     */
+    public ImageHeader getCachedImageMetadata(String uri) {
+        return diskCache.getMetadata(uri);
+    }
+
+    /**
+     * 是否按图片内容寻址存储磁盘缓存：相同内容的图片（如不同的查询参数、镜像地址）在磁盘上只保存一份，
+     * 内存缓存中相同内容、相同目标大小的图片也共享同一个bitmap
+     *
+     * @param contentAddressed
+     */
+    public void setContentAddressedDiskCache(boolean contentAddressed) {
+        diskCache.setContentAddressed(contentAddressed);
+    }
+
+    /**
+     * 设置缓存key的uri规范化，默认不做规范化；{@link UriCanonicalizer}会统一scheme/host大小写、去掉默认端口和#片段、按参数名排序查询参数，
+     * 可通过{@link UriCanonicalizer#stripParam(String)}等配置去掉统计参数等。<br/>
+     * 应在显示图片之前设置；开启前按原uri缓存的磁盘文件在第一次命中时改为新的文件名，内存缓存key会失效
+     *
+     * @param canonicalizer null则不做规范化，直接使用原uri作为缓存key
+     */
+    public void setUriCanonicalizer(UriCanonicalizer canonicalizer) {
+        FileNameGenerator.setUriCanonicalizer(canonicalizer);
+    }
+
+    /**
+     * 设置目标大小分档，如{@link TargetSizeBucketer#step(int)}，大小相近的view共用同一个缓存的bitmap，提高内存缓存命中率；
+     * 默认不分档。应在显示图片之前设置，修改后之前的缓存key会失效
+     *
+     * @param bucketer null则不分档，直接使用view的大小
+     */
+    public void setTargetSizeBucketer(TargetSizeBucketer bucketer) {
+        FileNameGenerator.setTargetSizeBucketer(bucketer);
+    }
+
+    /**
+     * 获得加载失败的uri缓存，可通过{@link FailedUriCache#setTtl(FailReason.FailType, long)}调整各失败类型的有效期
+     */
+    public FailedUriCache getFailedUriCache() {
+        return engine.getFailedUriCache();
+    }
+
+    /**
+     * 清除加载失败的uri记录及主机熔断状态，如网络恢复连接时调用
+     */
+    public void clearFailures() {
+        engine.getFailedUriCache().clear();
+        engine.getHostCircuitBreaker().clear();
+    }
+
+    public BandwidthEstimator getBandwidthEstimator() {
+        return bandwidthEstimator;
+    }
+
+    public ImageVariantResolver getImageVariantResolver() {
+        return variantResolver;
+    }
+
+    /**
+     * 设置图片版本选择器，网络较差时根据估算的网络质量下载低分辨率或高压缩率的版本；
+     * 网络质量好转后，正在显示低质量版本的view会在后台重新加载新选择的版本，加载完成前继续显示低质量版本；
+     * 需要原图时（如放大）调用{@link #upgradeToFullQuality(ImageViewAware)}
+     *
+     * @param variantResolver null则始终下载原图
+     */
+    public void setImageVariantResolver(ImageVariantResolver variantResolver) {
+        this.variantResolver = variantResolver;
+    }
+
+    /**
+     * 加载任务显示了低质量版本后调用，记录下来以便网络好转后重新加载原图
+     */
+    void registerDegradedDisplay(ImageViewAware imageAware, ImageLoadingListener listener, String sourceUri) {
+        synchronized (degradedDisplays) {
+            degradedDisplays.put(imageAware.getId(), new DegradedDisplay(imageAware, listener, sourceUri));
+        }
+    }
+
+    /**
+     * 重新加载view中低质量版本的原图，如用户放大图片时调用；加载期间继续显示低质量版本，失败时也保留低质量版本。
+     * 之后该view的请求都加载原图（{@link ImageViewAware#setFullQualityRequired(boolean)}）
+     *
+     * @param imageAware
+     * @return 该view没有在显示低质量版本时返回false
+     */
+    public boolean upgradeToFullQuality(ImageViewAware imageAware) {
+        DegradedDisplay display;
+        synchronized (degradedDisplays) {
+            display = degradedDisplays.remove(imageAware.getId());
+        }
+        if (display == null || !isDisplayed(display)) {
+            return false;
+        }
+        display.imageAware.setFullQualityRequired(true);
+        Log.d(TAG, "重新加载原图-->" + display.imageAware.getUri());
+        engine.submit(new LoadAndDisplayImageTask(display.imageAware, this, display.listener, true));
+        return true;
+    }
+
+    /**
+     * 网络质量好转后，按新的网络质量重新选择版本，选择的版本与显示的不同时在后台重新加载
+     */
+    private final Runnable upgradeDegradedDisplays = new Runnable() {
+        @Override
+        public void run() {
+            if (engine == null) {
+                return;
+            }
+            List<DegradedDisplay> displays;
+            synchronized (degradedDisplays) {
+                displays = new ArrayList<DegradedDisplay>(degradedDisplays.values());
+            }
+            BandwidthEstimator.Quality quality = bandwidthEstimator.getQuality();
+            ImageVariantResolver resolver = variantResolver;
+            for (DegradedDisplay display : displays) {
+                if (isDisplayed(display)) {
+                    String sourceUri = resolver == null ? null
+                            : resolver.resolve(display.imageAware.getUri(), display.imageAware.getTargetSize(), quality);
+                    if (display.sourceUri.equals(sourceUri)) {
+                        continue;
+                    }
+                    Log.d(TAG, "网络质量" + quality + "，重新加载-->" + display.imageAware.getUri());
+                    engine.submit(new LoadAndDisplayImageTask(display.imageAware, instance, display.listener, true));
+                }
+                synchronized (degradedDisplays) {
+                    if (degradedDisplays.get(display.imageAware.getId()) == display) {
+                        degradedDisplays.remove(display.imageAware.getId());
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * @return view没有被回收，也没有被用来显示其他图片
+     */
+    private boolean isDisplayed(DegradedDisplay display) {
+        ImageViewAware imageAware = display.imageAware;
+        return !imageAware.isCollected() && imageAware.getMemoryCacheKey().equals(engine.getLoadingUriForView(imageAware));
     }
 
     public String getLoadingUriForView(ImageViewAware imageAware) {
@@ -197,6 +737,24 @@ public class ImageLoader {
         engine.handleSlowNetwork(handleSlowNetwork);
     }
 
+    /**
+     * 是否对网络请求使用对冲请求：请求在一定延迟（最近请求首字节延迟的p95）内没有收到数据时，再发起一次相同的请求，
+     * 使用先返回的结果，以降低慢速图片服务器造成的长尾延迟。<br/>
+     * 与{@link #handleSlowNetwork(boolean)}同时开启时，以handleSlowNetwork为准
+     *
+     * @param hedgeRequests <b>true</b> - 使用对冲请求; <b>false</b> - 不使用
+     */
+    public void hedgeRequests(boolean hedgeRequests) {
+        engine.hedgeRequests(hedgeRequests);
+    }
+
+    /**
+     * 设置对冲请求使用的镜像主机，不设置则对冲请求使用原uri
+     */
+    public void setHedgeMirrorResolver(HedgedImageDownloader.MirrorResolver mirrorResolver) {
+        hedgedDownloader.setMirrorResolver(mirrorResolver);
+    }
+
     /**
      * Pause ImageLoader. All new "load&display" tasks won't be executed until ImageLoader is {@link #resume() resumed}.
      * <br />
@@ -224,10 +782,25 @@ public class ImageLoader {
 
     public void destroy() {
         stop();
+        mainHandler.removeCallbacks(upgradeDegradedDisplays);
+        bandwidthEstimator.setOnQualityChangedListener(null);
+        synchronized (degradedDisplays) {
+            degradedDisplays.clear();
+        }
         downloader = null;
+        hedgedDownloader = null;
         decoder = null;
         memoryCache = null;
         diskCache = null;
+        tileCache = null;
+        bitmapPool = null;
+        oomRecovery = null;
+        ingestNormalizer = null;
+        rawPixelCache = null;
+        if (encodedMemoryCache != null) {
+            encodedMemoryCache.clear();
+            encodedMemoryCache = null;
+        }
         engine = null;
         instance = null;
     }
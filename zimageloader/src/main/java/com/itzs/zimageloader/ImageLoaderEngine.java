@@ -1,12 +1,19 @@
 package com.itzs.zimageloader;
 
+import com.itzs.zimageloader.downloader.BaseDownloader;
 import com.itzs.zimageloader.view.ImageViewAware;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -29,16 +36,32 @@ public class ImageLoaderEngine {
 
     private LruDiskCache diskCache;
 
+    /**
+     * 加载失败的uri缓存
+     */
+    private final FailedUriCache failedUriCache = DefaultConfigurationFactory.createFailedUriCache();
+    /**
+     * 按主机划分的熔断器
+     */
+    private final HostCircuitBreaker hostCircuitBreaker = DefaultConfigurationFactory.createHostCircuitBreaker();
+
     private final Map<Integer, String> cacheKeysForImageAwares = Collections
             .synchronizedMap(new HashMap<Integer, String>());
     /**
      * url锁，为每个url分配一个锁，当下载url时，锁住，直到下载url结束才释放锁，以此实现了禁止同时下载同一个url的问题；
+     * 锁被弱引用，没有调用者持有时才会被回收，之后同一url再分配新的锁
      */
-    private final Map<String, ReentrantLock> uriLocks = new WeakHashMap<String, ReentrantLock>();
+    private final Map<String, LockReference> uriLocks = new HashMap<String, LockReference>();
+    private final ReferenceQueue<ReentrantLock> uriLockQueue = new ReferenceQueue<ReentrantLock>();
+    /**
+     * 规范化的uri -> 已提交还未结束的加载请求，用于同一uri不同目标大小的请求合并解码
+     */
+    private final Map<String, List<ImageViewAware>> pendingRequests = new HashMap<String, List<ImageViewAware>>();
 
     private final AtomicBoolean paused = new AtomicBoolean(false);
     private final AtomicBoolean networkDenied = new AtomicBoolean(false);
     private final AtomicBoolean slowNetwork = new AtomicBoolean(false);
+    private final AtomicBoolean hedgeRequests = new AtomicBoolean(false);
 
     private final Object pauseLock = new Object();
 
@@ -66,10 +89,15 @@ public class ImageLoaderEngine {
      * 将任务提交到线程池排队执行
      */
     void submit(final LoadAndDisplayImageTask task) {
+        addPendingRequest(task.getLoadingUriKey(), task.getImageAware());
         executorDistributor.execute(new Runnable() {
             @Override
             public void run() {
-                File image = diskCache.get(task.getLoadingUri());
+                File image = diskCache.peek(task.getLoadingUri());
+                if (image == null) {
+                    // 原图已被淘汰，但还有入库规范化后的文件
+                    image = diskCache.peek(IngestNormalizer.getNormalizedKey(task.getLoadingUri()));
+                }
                 boolean isImageCachedOnDisk = (image != null && image.exists());
                 initExecutorsIfNeed();
                 if (isImageCachedOnDisk) {
@@ -81,6 +109,55 @@ public class ImageLoaderEngine {
         });
     }
 
+    private void addPendingRequest(String uriKey, ImageViewAware imageAware) {
+        synchronized (pendingRequests) {
+            List<ImageViewAware> requests = pendingRequests.get(uriKey);
+            if (requests == null) {
+                requests = new ArrayList<ImageViewAware>(2);
+                pendingRequests.put(uriKey, requests);
+            }
+            requests.add(imageAware);
+        }
+    }
+
+    /**
+     * 加载任务结束（完成、失败或取消）后调用
+     */
+    void removePendingRequest(String uriKey, ImageViewAware imageAware) {
+        synchronized (pendingRequests) {
+            List<ImageViewAware> requests = pendingRequests.get(uriKey);
+            if (requests != null && requests.remove(imageAware) && requests.isEmpty()) {
+                pendingRequests.remove(uriKey);
+            }
+        }
+    }
+
+    /**
+     * @return 同一uri已提交还未结束的加载请求（包括调用者自己）
+     */
+    List<ImageViewAware> getPendingRequests(String uriKey) {
+        synchronized (pendingRequests) {
+            List<ImageViewAware> requests = pendingRequests.get(uriKey);
+            return requests == null ? Collections.<ImageViewAware>emptyList() : new ArrayList<ImageViewAware>(requests);
+        }
+    }
+
+    /**
+     * 在从本地缓存加载（解码）的线程池中执行，如大图的图块解码
+     */
+    void submitDecode(Runnable r) {
+        initExecutorsIfNeed();
+        executorCached.execute(r);
+    }
+
+    /**
+     * 在从网络加载的线程池中执行，如打开需要先下载的大图
+     */
+    void submitLoad(Runnable r) {
+        initExecutorsIfNeed();
+        executorDownload.execute(r);
+    }
+
     /**
      * 获取当前ImageViewAware正在现在的uri
      */
@@ -120,17 +197,107 @@ public class ImageLoaderEngine {
     }
 
     /**
-     * 获得指定uri的锁
+     * 是否对网络请求使用对冲请求
+     *
+     * @param hedgeRequests <b>true</b> - 使用对冲请求; <b>false</b>- 不使用。
+     */
+    void hedgeRequests(boolean hedgeRequests) {
+        this.hedgeRequests.set(hedgeRequests);
+    }
+
+    /**
+     * 获得指定uri的锁，可在任意线程调用；调用者在使用期间持有返回的锁即可，不需要持有uri
      * @param uri
      * @return
      */
     ReentrantLock getLockForUri(String uri) {
-        ReentrantLock lock = uriLocks.get(uri);
-        if (lock == null) {
-            lock = new ReentrantLock();
-            uriLocks.put(uri, lock);
+        synchronized (uriLocks) {
+            LockReference reference;
+            while ((reference = (LockReference) uriLockQueue.poll()) != null) {
+                if (uriLocks.get(reference.uri) == reference) {
+                    uriLocks.remove(reference.uri);
+                }
+            }
+            reference = uriLocks.get(uri);
+            ReentrantLock lock = reference == null ? null : reference.get();
+            if (lock == null) {
+                lock = new ReentrantLock();
+                uriLocks.put(uri, new LockReference(uri, lock, uriLockQueue));
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * uri锁的弱引用，锁被回收后按uri从uriLocks中移除
+     */
+    private static class LockReference extends WeakReference<ReentrantLock> {
+        final String uri;
+
+        LockReference(String uri, ReentrantLock lock, ReferenceQueue<ReentrantLock> queue) {
+            super(lock, queue);
+            this.uri = uri;
+        }
+    }
+
+    /**
+     * 获得加载失败的uri缓存
+     * @return
+     */
+    FailedUriCache getFailedUriCache() {
+        return failedUriCache;
+    }
+
+    /**
+     * 获得按主机划分的熔断器
+     * @return
+     */
+    HostCircuitBreaker getHostCircuitBreaker() {
+        return hostCircuitBreaker;
+    }
+
+    /**
+     * 获取图片数据流，网络请求会先经过主机熔断器检查，并记录主机请求结果
+     * @param imageUri
+     * @param downloader
+     * @return
+     * @throws HostCircuitBreaker.CircuitOpenException 图片所在主机处于熔断状态
+     * @throws IOException
+     */
+    InputStream openImageStream(String imageUri, BaseDownloader downloader) throws IOException {
+        String host = getNetworkHost(imageUri);
+        if (host == null) {
+            return downloader.getStream(imageUri, null);
+        }
+        if (!hostCircuitBreaker.allowRequest(host)) {
+            throw new HostCircuitBreaker.CircuitOpenException(host);
+        }
+        InputStream is;
+        try {
+            is = downloader.getStream(imageUri, null);
+        } catch (FileNotFoundException e) {
+            // 404等，主机可以正常响应
+            hostCircuitBreaker.recordSuccess(host);
+            throw e;
+        } catch (IOException e) {
+            hostCircuitBreaker.recordFailure(host);
+            throw e;
+        }
+        hostCircuitBreaker.recordSuccess(host);
+        return is;
+    }
+
+    /**
+     * @return 网络uri的主机名；非网络uri返回null
+     */
+    static String getNetworkHost(String imageUri) {
+        switch (BaseDownloader.Scheme.ofUri(imageUri)) {
+            case HTTP:
+            case HTTPS:
+                return HostCircuitBreaker.getHost(imageUri);
+            default:
+                return null;
         }
-        return lock;
     }
 
     /**
@@ -165,6 +332,13 @@ public class ImageLoaderEngine {
         return slowNetwork.get();
     }
 
+    /**
+     * 是否对网络请求使用对冲请求
+     */
+    boolean isHedgeRequests() {
+        return hedgeRequests.get();
+    }
+
     /**
      * 暂停加载引擎，所有未执行的任务都会暂停，知道引擎恢复运行；已开始执行的任务会继续执行；
      */
@@ -191,6 +365,9 @@ public class ImageLoaderEngine {
 
         cacheKeysForImageAwares.clear();
         uriLocks.clear();
+        synchronized (pendingRequests) {
+            pendingRequests.clear();
+        }
     }
 
     void fireCallback(Runnable r) {
@@ -0,0 +1,303 @@
+package com.itzs.zimageloader;
+
+import android.util.Log;
+
+import com.itzs.zimageloader.decoder.ImageHeader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 磁盘缓存图片的元数据索引，记录每个缓存文件的宽高、格式、EXIF方向和是否透明
+ * <p/>
+ * 同时记录图片是否有透明像素，用于选择解码的bitmap格式。<br/>
+ * 图片下载保存到磁盘时写入，解码磁盘缓存的图片时可直接根据索引计算inSampleSize，不需要再读取文件头；
+ * 也可以在不做任何IO的情况下查询图片的大小，用于提前布局。<br/>
+ * 索引以追加日志的形式保存在缓存目录下的{@link #INDEX_FILE_NAME}文件中，每条记录只有十几个字节，
+ * 无效记录过多时重写整个文件
+ * @author zhangshuo
+ */
+public class ImageMetadataIndex {
+
+    private static final String TAG = ImageMetadataIndex.class.getSimpleName();
+
+    /** 索引文件名，以.开头，磁盘缓存扫描、清理时会跳过 */
+    public static final String INDEX_FILE_NAME = ".zmeta";
+    private static final String TEMP_POSTFIX = ".tmp";
+
+    private static final int MAGIC = 0x5A4D4554; // "ZMET"
+    private static final int VERSION = 2;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    /** 日志中的无效记录超过这个数量且超过有效记录数时重写索引文件 */
+    private static final int COMPACT_THRESHOLD = 64;
+
+    private final File dir;
+    private final File indexFile;
+
+    private final Map<String, ImageHeader> entries = new HashMap<String, ImageHeader>();
+
+    private DataOutputStream journal;
+    /** 日志文件中的记录数 */
+    private int journalRecords;
+    /** 加载完成后才为true，加载期间{@link #get(File)}不等待，直接返回null */
+    private volatile boolean loaded;
+
+    public ImageMetadataIndex(File dir) {
+        this.dir = dir;
+        this.indexFile = new File(dir, INDEX_FILE_NAME);
+    }
+
+    /**
+     * @param file
+     * @return file是否是索引文件（或重写时的临时文件）
+     */
+    public static boolean isIndexFile(File file) {
+        return file.getName().startsWith(INDEX_FILE_NAME);
+    }
+
+    /**
+     * 从索引文件加载索引，只加载一次；文件末尾不完整的记录会被丢弃。<br/>
+     * 会读取文件，应在后台线程中尽早调用，{@link LruDiskCache}创建时即在后台加载
+     */
+    public synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        try {
+            readIndexFile();
+        } finally {
+            loaded = true;
+        }
+    }
+
+    private void readIndexFile() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        boolean corrupted = false;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), IoUtils.DEFAULT_BUFFER_SIZE));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "load--索引文件版本不匹配，重建索引");
+                corrupted = true;
+                entries.clear();
+            } else {
+                while (true) {
+                    byte op;
+                    try {
+                        op = in.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    String name = in.readUTF();
+                    if (op == OP_PUT) {
+                        int width = in.readInt();
+                        int height = in.readInt();
+                        int format = in.readByte();
+                        int orientation = in.readByte();
+                        boolean hasAlpha = in.readBoolean();
+                        ImageHeader.Format[] formats = ImageHeader.Format.values();
+                        entries.put(name, new ImageHeader(format >= 0 && format < formats.length
+                                ? formats[format] : ImageHeader.Format.UNKNOWN, width, height, orientation, hasAlpha));
+                    } else if (op == OP_REMOVE) {
+                        entries.remove(name);
+                    } else {
+                        corrupted = true;
+                        break;
+                    }
+                    journalRecords++;
+                }
+            }
+        } catch (IOException e) {
+            // 文件末尾的记录没有写完整，之前的记录仍然有效
+            Log.w(TAG, "load--索引文件不完整-->" + e);
+            corrupted = true;
+        } finally {
+            if (in != null) {
+                IoUtils.closeSilently(in);
+            }
+        }
+        if (corrupted) {
+            rewrite();
+        }
+    }
+
+    /**
+     * 去掉缓存目录中已不存在的文件的记录
+     *
+     * @param existingNames 缓存目录中现有的文件名
+     */
+    public synchronized void retain(Set<String> existingNames) {
+        load();
+        Iterator<String> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            if (!existingNames.contains(it.next())) {
+                it.remove();
+            }
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * 只查询内存中的索引，不做IO，可在主线程中调用
+     *
+     * @param file 缓存文件
+     * @return file的元数据，file不在缓存目录中、没有记录或索引还没有加载完时返回null
+     */
+    public ImageHeader get(File file) {
+        if (!loaded || file == null || !dir.equals(file.getParentFile())) {
+            return null;
+        }
+        synchronized (this) {
+            return entries.get(file.getName());
+        }
+    }
+
+    /**
+     * 记录缓存文件的元数据并追加到索引文件
+     *
+     * @param file   缓存文件
+     * @param header
+     */
+    public synchronized void put(File file, ImageHeader header) {
+        load();
+        String name = file.getName();
+        entries.put(name, header);
+        try {
+            DataOutputStream out = openJournal();
+            out.writeByte(OP_PUT);
+            out.writeUTF(name);
+            out.writeInt(header.getWidth());
+            out.writeInt(header.getHeight());
+            out.writeByte(header.getFormat().ordinal());
+            out.writeByte(header.getOrientation());
+            out.writeBoolean(header.hasAlpha());
+            out.flush();
+            journalRecords++;
+        } catch (IOException e) {
+            Log.e(TAG, "put--写入索引失败-->" + name, e);
+            closeJournal();
+        }
+    }
+
+    /**
+     * 缓存文件被删除时去掉其元数据
+     *
+     * @param file
+     */
+    public synchronized void remove(File file) {
+        load();
+        String name = file.getName();
+        if (entries.remove(name) == null) {
+            return;
+        }
+        try {
+            DataOutputStream out = openJournal();
+            out.writeByte(OP_REMOVE);
+            out.writeUTF(name);
+            out.flush();
+            journalRecords++;
+        } catch (IOException e) {
+            Log.e(TAG, "remove--写入索引失败-->" + name, e);
+            closeJournal();
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * 清空索引并删除索引文件
+     */
+    public synchronized void clear() {
+        closeJournal();
+        entries.clear();
+        journalRecords = 0;
+        loaded = true;
+        indexFile.delete();
+    }
+
+    public synchronized int size() {
+        load();
+        return entries.size();
+    }
+
+    private DataOutputStream openJournal() throws IOException {
+        if (journal == null) {
+            boolean exists = indexFile.exists() && indexFile.length() > 0;
+            journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+            if (!exists) {
+                journal.writeInt(MAGIC);
+                journal.writeInt(VERSION);
+                journalRecords = 0;
+            }
+        }
+        return journal;
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            IoUtils.closeSilently(journal);
+            journal = null;
+        }
+    }
+
+    private void compactIfNeeded() {
+        int garbage = journalRecords - entries.size();
+        if (garbage > COMPACT_THRESHOLD && garbage > entries.size()) {
+            rewrite();
+        }
+    }
+
+    /**
+     * 只用有效记录重写索引文件
+     */
+    private void rewrite() {
+        closeJournal();
+        File tmpFile = new File(dir, INDEX_FILE_NAME + TEMP_POSTFIX);
+        DataOutputStream out = null;
+        boolean written = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), IoUtils.DEFAULT_BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<String, ImageHeader> entry : entries.entrySet()) {
+                ImageHeader header = entry.getValue();
+                out.writeByte(OP_PUT);
+                out.writeUTF(entry.getKey());
+                out.writeInt(header.getWidth());
+                out.writeInt(header.getHeight());
+                out.writeByte(header.getFormat().ordinal());
+                out.writeByte(header.getOrientation());
+                out.writeBoolean(header.hasAlpha());
+            }
+            out.close();
+            out = null;
+            written = tmpFile.renameTo(indexFile);
+        } catch (IOException e) {
+            Log.e(TAG, "rewrite--重写索引失败", e);
+        } finally {
+            if (out != null) {
+                IoUtils.closeSilently(out);
+            }
+            if (!written) {
+                tmpFile.delete();
+                indexFile.delete();
+            }
+        }
+        journalRecords = written ? entries.size() : 0;
+    }
+}
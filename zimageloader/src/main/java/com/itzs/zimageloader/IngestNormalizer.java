@@ -0,0 +1,222 @@
+package com.itzs.zimageloader;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapFactory.Options;
+import android.os.Build;
+import android.util.Log;
+
+import com.itzs.zimageloader.decoder.DecodeAdmissionController;
+import com.itzs.zimageloader.decoder.ImageDecoder;
+import com.itzs.zimageloader.decoder.ImageHeader;
+import com.itzs.zimageloader.view.ViewScaleType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 入库规范化
+ * <p/>
+ * 图片下载到磁盘缓存后，在后台把最长边超过上限的原图缩小并按配置的格式、质量重新编码，
+ * 以{@link #getNormalizedKey(String)}保存到磁盘缓存，之后不要求原图的加载都只需解码较小的文件；本次显示不等待规范化。<br/>
+ * 原图仍按原key保存，必须显示原图的请求和大图、动画使用原图。只解码规范化文件时原图不再被访问，会先被LRU淘汰，
+ * 之后要求原图的请求需要重新下载；淘汰之前两份文件都占用磁盘空间。<br/>
+ * 不处理GIF（重新编码会丢失动画），输出JPEG时不处理有透明的图片，重新编码后没有变小时不保存
+ * @author zhangshuo
+ */
+public class IngestNormalizer {
+
+    private static final String TAG = IngestNormalizer.class.getSimpleName();
+
+    private static final String NORMALIZED_KEY_PREFIX = "normalized:";
+
+    private final LruDiskCache diskCache;
+    private final DecodeAdmissionController admissionController;
+    private final Executor executor;
+    private final int maxDimension;
+    private final Bitmap.CompressFormat format;
+    private final int quality;
+
+    /**
+     * 等待或正在规范化的key，避免重复提交
+     */
+    private final Set<String> pendingKeys = Collections.synchronizedSet(new HashSet<String>());
+    private final AtomicInteger normalizedCount = new AtomicInteger();
+    private final AtomicLong savedBytes = new AtomicLong();
+
+    /**
+     * @param diskCache           磁盘缓存
+     * @param admissionController 解码准入控制，与显示的解码共享内存预算，可为null
+     * @param executor            执行规范化的线程池，应为低优先级的线程
+     * @param maxDimension        最长边上限，像素
+     * @param format              重新编码的格式
+     * @param quality             重新编码的质量，0~100
+     */
+    public IngestNormalizer(LruDiskCache diskCache, DecodeAdmissionController admissionController, Executor executor,
+                            int maxDimension, Bitmap.CompressFormat format, int quality) {
+        if (maxDimension <= 0 || quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("maxDimension必须大于0，quality必须在0~100之间");
+        }
+        this.diskCache = diskCache;
+        this.admissionController = admissionController;
+        this.executor = executor;
+        this.maxDimension = maxDimension;
+        this.format = format;
+        this.quality = quality;
+    }
+
+    public int getMaxDimension() {
+        return maxDimension;
+    }
+
+    /**
+     * @param key 原图的磁盘缓存key
+     * @return 规范化后的文件的磁盘缓存key
+     */
+    public static String getNormalizedKey(String key) {
+        return NORMALIZED_KEY_PREFIX + key;
+    }
+
+    /**
+     * 图片保存到磁盘缓存后调用：按元数据索引判断是否超过上限，超过且还没有规范化后的文件时提交到后台规范化
+     *
+     * @param key 原图的磁盘缓存key
+     */
+    public void submit(final String key) {
+        if (!needsNormalization(diskCache.getMetadata(key)) || diskCache.peek(getNormalizedKey(key)) != null
+                || !pendingKeys.add(key)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    normalize(key);
+                } catch (IOException e) {
+                    Log.w(TAG, "normalize-->" + key, e);
+                } catch (OutOfMemoryError e) {
+                    Log.w(TAG, "normalize--OOM-->" + key, e);
+                } finally {
+                    pendingKeys.remove(key);
+                }
+            }
+        });
+    }
+
+    private boolean needsNormalization(ImageHeader header) {
+        if (header == null || header.getFormat() == ImageHeader.Format.GIF
+                || Math.max(header.getWidth(), header.getHeight()) <= maxDimension) {
+            return false;
+        }
+        return format != Bitmap.CompressFormat.JPEG || !header.hasAlpha();
+    }
+
+    private void normalize(String key) throws IOException {
+        File file = diskCache.peek(key);
+        ImageHeader header = diskCache.getMetadata(key);
+        if (file == null || !needsNormalization(header)) {
+            return;
+        }
+        long originalLength = file.length();
+        Bitmap bitmap = decodeScaled(file, header);
+        if (bitmap == null) {
+            return;
+        }
+        //重新编码后没有EXIF信息，先按EXIF方向旋转
+        bitmap = ImageDecoder.applyOrientation(bitmap, header.getOrientation());
+        byte[] encoded;
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            if (!bitmap.compress(format, quality, os)) {
+                return;
+            }
+            encoded = os.toByteArray();
+        } finally {
+            bitmap.recycle();
+        }
+        if (encoded.length >= originalLength) {
+            Log.d(TAG, "重新编码后没有变小，只使用原图-->" + key);
+            return;
+        }
+        // 原图文件不变，正在解码原图的任务不受影响
+        if (diskCache.put(getNormalizedKey(key), new ByteArrayInputStream(encoded), null)) {
+            normalizedCount.incrementAndGet();
+            savedBytes.addAndGet(originalLength - encoded.length);
+            Log.d(TAG, "规范化" + header.getWidth() + "x" + header.getHeight() + " " + originalLength + "->" + encoded.length + "-->" + key);
+        }
+    }
+
+    /**
+     * 把图片解码并缩小到最长边不超过上限：先按2的幂采样，KitKat及以上在解码时按密度缩放到上限，之前的系统解码后再缩放
+     */
+    private Bitmap decodeScaled(File file, ImageHeader header) throws IOException {
+        int width = header.getWidth();
+        int height = header.getHeight();
+        Options options = new Options();
+        options.inSampleSize = ImageDecoder.computeImageSampleSize(width, height, maxDimension, maxDimension,
+                ViewScaleType.FIT_INSIDE, true);
+        float scale = (float) maxDimension / Math.max(width, height);
+        int sampledWidth = width / options.inSampleSize;
+        int exactWidth = Math.max(1, Math.round(width * scale));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && exactWidth < sampledWidth) {
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = exactWidth;
+        }
+        long bytes = DecodeAdmissionController.estimateBytes(width, height, options);
+        if (admissionController != null) {
+            try {
+                admissionController.acquire(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        } finally {
+            if (admissionController != null) {
+                admissionController.release(bytes);
+            }
+        }
+        if (bitmap == null || Math.max(bitmap.getWidth(), bitmap.getHeight()) <= maxDimension) {
+            return bitmap;
+        }
+        float remaining = (float) maxDimension / Math.max(bitmap.getWidth(), bitmap.getHeight());
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * remaining)),
+                Math.max(1, Math.round(bitmap.getHeight() * remaining)), true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * @return 已规范化的图片数
+     */
+    public int getNormalizedCount() {
+        return normalizedCount.get();
+    }
+
+    /**
+     * @return 规范化后的文件比原图小的字节数之和，即从磁盘加载时少读的字节数
+     */
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "IngestNormalizer[max=" + maxDimension + " " + format + "@" + quality
+                + " normalized=" + normalizedCount.get() + " saved=" + savedBytes.get() / 1024 + "KB]";
+    }
+}
@@ -26,6 +26,24 @@ public class IoUtils {
 	 */
 	public static boolean copyStream(InputStream is, OutputStream os, CopyListener listener, int bufferSize)
 			throws IOException {
+		return copyStream(is, os, listener, bufferSize, null);
+	}
+
+	/**
+	 * Copies stream, fires progress events by listener, can be interrupted by listener. Observed throughput is
+	 * reported to <b>estimator</b>.
+	 *
+	 * @param is         Input stream
+	 * @param os         Output stream
+	 * @param listener   null-ok; Listener of copying progress and controller of copying interrupting
+	 * @param bufferSize Buffer size for copying
+	 * @param estimator  null-ok; copy完成后接收本次copy的字节数和耗时，用于估算网络带宽
+	 * @return <b>true</b> - if stream copied successfully; <b>false</b> - if copying was interrupted by listener
+	 * @throws IOException
+	 */
+	public static boolean copyStream(InputStream is, OutputStream os, CopyListener listener, int bufferSize,
+			BandwidthEstimator estimator) throws IOException {
+		long startTime = System.currentTimeMillis();
 		int current = 0;
 		int total = is.available();
 		if (total <= 0) {
@@ -41,6 +59,10 @@ public class IoUtils {
 			if (shouldStopLoading(listener, current, total)) return false;
 		}
 		os.flush();
+		// 只记录完整的下载，被中断或出错的copy耗时不能反映带宽
+		if (estimator != null) {
+			estimator.addSample(current, System.currentTimeMillis() - startTime);
+		}
 		return true;
 	}
 
@@ -1,16 +1,26 @@
 package com.itzs.zimageloader;
 
 import android.graphics.Bitmap;
+import android.os.Build;
 import android.os.Handler;
 import android.util.Log;
 
 import com.itzs.zimageloader.decoder.BaseDecoder;
+import com.itzs.zimageloader.decoder.ImageDecoder;
+import com.itzs.zimageloader.decoder.ImageDecodingInfo;
+import com.itzs.zimageloader.transform.TransformationPipeline;
 import com.itzs.zimageloader.downloader.BaseDownloader;
+import com.itzs.zimageloader.downloader.ImageVariantResolver;
 import com.itzs.zimageloader.view.ImageViewAware;
+import com.itzs.zimageloader.view.ViewScaleType;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -18,6 +28,19 @@ public class LoadAndDisplayImageTask implements Runnable, IoUtils.CopyListener {
 
     private static final String TAG = LoadAndDisplayImageTask.class.getSimpleName();
 
+    /**
+     * 按内容共享的内存缓存key前缀
+     */
+    private static final String CONTENT_KEY_PREFIX = "content:";
+    /**
+     * 变换后图片的磁盘缓存key前缀
+     */
+    private static final String TRANSFORMED_KEY_PREFIX = "transformed:";
+    /**
+     * 变换后的图片保存到磁盘缓存时的压缩质量
+     */
+    private static final int TRANSFORMED_COMPRESS_QUALITY = 90;
+
     private ImageLoader loader;
     private final ImageLoaderEngine engine;
     private final Handler handler;
@@ -27,14 +50,58 @@ public class LoadAndDisplayImageTask implements Runnable, IoUtils.CopyListener {
     private final String memoryCacheKey;
     private final ImageViewAware imageAware;
     private final ImageLoadingListener listener;
+    /**
+     * 规范化的uri，用作加载锁的key
+     */
+    private final String uriKey;
+    /**
+     * 实际加载的uri（原图或低质量版本）规范化后的key，用作失败记录的key
+     */
+    private String sourceUriKey;
     private ReentrantLock loadingUriLock;
     private LruMemoryCache memoryCache;
     private LruDiskCache diskCache;
+    /**
+     * 解码的目标大小，同一uri有其他目标大小的请求在等待时为其中最大的大小
+     */
+    private int[] decodeTargetSize;
+    /**
+     * 合并解码时计算采样率的缩放方式，null则按本任务view的ScaleType
+     */
+    private ViewScaleType decodeScaleType;
+    /**
+     * 本任务是否按decodeTargetSize解码出了bitmap（而不是复用内存缓存中内容相同的bitmap）
+     */
+    private boolean decodedAtTargetSize;
+    /**
+     * 本任务是否在OOM后增大采样率才解码出bitmap；这样的bitmap只显示，不放入内存缓存和磁盘缓存，之后的请求重新按正常大小解码
+     */
+    private boolean decodedDegraded;
+    /**
+     * 获取图片数据流是否失败；只有这种失败记录到负缓存
+     */
+    private boolean downloadFailed;
+    /**
+     * 解码后执行的变换，null则不变换
+     */
+    private final TransformationPipeline transformationPipeline;
+    /**
+     * 是否为网络好转后替换低质量版本的重新加载；失败时保留已显示的低质量版本
+     */
+    private final boolean upgrade;
 
     public LoadAndDisplayImageTask(ImageViewAware imageAware,
                                    ImageLoader loader,
                                    ImageLoadingListener listener) {
+        this(imageAware, loader, listener, false);
+    }
+
+    LoadAndDisplayImageTask(ImageViewAware imageAware,
+                            ImageLoader loader,
+                            ImageLoadingListener listener,
+                            boolean upgrade) {
         this.loader = loader;
+        this.upgrade = upgrade;
         this.imageAware = imageAware;
         this.listener = listener;
 
@@ -47,11 +114,23 @@ public class LoadAndDisplayImageTask implements Runnable, IoUtils.CopyListener {
         this.uri = this.imageAware.getUri();
         this.memoryCacheKey = this.imageAware.getMemoryCacheKey();
 
-        this.loadingUriLock = this.engine.getLockForUri(imageAware.getUri());
+        this.uriKey = FileNameGenerator.canonicalize(this.uri);
+        this.sourceUriKey = this.uriKey;
+        this.decodeTargetSize = this.imageAware.getTargetSize();
+        this.transformationPipeline = this.imageAware.getTransformationPipeline();
+        this.loadingUriLock = this.engine.getLockForUri(uriKey);
     }
 
     @Override
     public void run() {
+        try {
+            loadAndDisplay();
+        } finally {
+            engine.removePendingRequest(uriKey, imageAware);
+        }
+    }
+
+    private void loadAndDisplay() {
         if (waitIfPaused()) return;
 
         Log.d(TAG, "开始执行加载任务-->" + memoryCacheKey);
@@ -60,18 +139,63 @@ public class LoadAndDisplayImageTask implements Runnable, IoUtils.CopyListener {
         }
         loadingUriLock.lock();
         Bitmap bmp;
+        String sourceUri = uri;
         try {
             checkTaskNotActual();
-            bmp = memoryCache.get(memoryCacheKey);
-            if (bmp == null || bmp.isRecycled()) {
-                bmp = tryLoadBitmap();
-                if (bmp == null) return; // listener callback already was fired
-
-                checkTaskNotActual();
-                checkTaskInterrupted();
+            // displayImage已经查询过内存缓存并记录了这次请求，这里只确认其他任务是否刚刚加载完成
+            bmp = memoryCache.peek(memoryCacheKey);
+            if (!imageAware.acceptsCachedBitmap(bmp)) {
+                sourceUri = resolveSourceUri();
+                if (!uri.equals(sourceUri)) {
+                    sourceUriKey = FileNameGenerator.canonicalize(sourceUri);
+                }
+                String sourceMemoryCacheKey = getSourceMemoryCacheKey(sourceUri);
+                if (!memoryCacheKey.equals(sourceMemoryCacheKey)) {
+                    bmp = memoryCache.get(sourceMemoryCacheKey);
+                }
+                if (!imageAware.acceptsCachedBitmap(bmp)) {
+                    // 同一uri的其他任务可能刚刚加载失败
+                    FailReason.FailType failType = engine.getFailedUriCache().get(sourceUriKey);
+                    if (failType != null) {
+                        Log.d(TAG, "图片最近加载失败，不再重复加载-->" + uri);
+                        fireFailEvent(failType, null);
+                        return;
+                    }
+                    bmp = tryLoadRawPixels(sourceUri, sourceMemoryCacheKey);
+                    List<ImageViewAware> siblings = bmp == null && uri.equals(sourceUri)
+                            ? collectSiblingRequests() : Collections.<ImageViewAware>emptyList();
+                    decodeTargetSize = computeDecodeTargetSize(siblings);
+                    decodeScaleType = computeDecodeScaleType(siblings);
+                    if (bmp == null) {
+                        bmp = tryLoadTransformedBitmap(sourceMemoryCacheKey);
+                    }
+                    if (bmp == null) {
+                        bmp = tryLoadBitmap(sourceUri);
+                    }
+                    if (bmp == null) return; // listener callback already was fired
+                    if (decodedAtTargetSize && decodeTargetSize != imageAware.getTargetSize()) {
+                        // 降低分辨率解码的bitmap不缓存给siblings，由它们各自解码
+                        bmp = decodedDegraded ? scaleToTargetSize(bmp, imageAware) : putSiblingVariants(bmp, siblings);
+                    }
 
-                Log.d(TAG, "将图片加载进缓存-->" + memoryCacheKey);
-                memoryCache.put(memoryCacheKey, bmp);
+                    checkTaskNotActual();
+                    checkTaskInterrupted();
+
+                    String contentMemoryCacheKey = getContentMemoryCacheKey(sourceUri);
+                    if (decodedDegraded) {
+                        Log.d(TAG, "OOM后降低分辨率解码，只显示不缓存-->" + sourceMemoryCacheKey);
+                    } else if (contentMemoryCacheKey != null) {
+                        // 内容相同的图片共享同一个bitmap
+                        Log.d(TAG, "将图片加载进缓存-->" + contentMemoryCacheKey);
+                        if (memoryCache.peek(contentMemoryCacheKey) != bmp) {
+                            memoryCache.put(contentMemoryCacheKey, bmp);
+                        }
+                        memoryCache.putAlias(sourceMemoryCacheKey, contentMemoryCacheKey);
+                    } else {
+                        Log.d(TAG, "将图片加载进缓存-->" + sourceMemoryCacheKey);
+                        memoryCache.put(sourceMemoryCacheKey, bmp);
+                    }
+                }
             } else {
                 Log.d(TAG, "图片已存在在缓存中-->" + memoryCacheKey);
             }
@@ -85,6 +209,9 @@ public class LoadAndDisplayImageTask implements Runnable, IoUtils.CopyListener {
             loadingUriLock.unlock();
         }
 
+        if (!uri.equals(sourceUri)) {
+            loader.registerDegradedDisplay(imageAware, listener, sourceUri);
+        }
         DisplayBitmapTask displayBitmapTask = new DisplayBitmapTask(bmp, uri, memoryCacheKey, imageAware, listener, engine);
         runTask(displayBitmapTask, handler, engine);
     }
@@ -111,65 +238,417 @@ public class LoadAndDisplayImageTask implements Runnable, IoUtils.CopyListener {
         return isTaskNotActual();
     }
 
-    private Bitmap tryLoadBitmap() throws TaskCancelledException {
+    /**
+     * 确定实际要加载的uri；网络较差且设置了{@link ImageVariantResolver}时，返回低质量版本的uri，否则返回原图uri
+     */
+    private String resolveSourceUri() {
+        ImageVariantResolver variantResolver = loader.getImageVariantResolver();
+        if (variantResolver == null || imageAware.isFullQualityRequired()) {
+            return uri;
+        }
+        BaseDownloader.Scheme scheme = BaseDownloader.Scheme.ofUri(uri);
+        if (scheme != BaseDownloader.Scheme.HTTP && scheme != BaseDownloader.Scheme.HTTPS) {
+            return uri;
+        }
+        File imageFile = diskCache.peek(getDiskCacheKey(uri));
+        if (imageFile != null && imageFile.exists()) {
+            // 原图（或规范化后的原图）已缓存在磁盘上，无需下载
+            return uri;
+        }
+        BandwidthEstimator.Quality quality = loader.getBandwidthEstimator().getQuality();
+        String variantUri = variantResolver.resolve(uri, imageAware.getTargetSize(), quality);
+        if (variantUri == null || variantUri.length() == 0) {
+            return uri;
+        }
+        if (!uri.equals(variantUri)) {
+            Log.d(TAG, "网络质量" + quality + "，加载低质量版本-->" + variantUri);
+        }
+        return variantUri;
+    }
+
+    /**
+     * 低质量版本使用单独的内存缓存key，避免网络好转后仍命中低质量图片
+     */
+    private String getSourceMemoryCacheKey(String sourceUri) {
+        if (uri.equals(sourceUri)) {
+            return memoryCacheKey;
+        }
+        return FileNameGenerator.generateMemoryCacheKey(sourceUri,
+                imageAware.isShouldCompress() ? imageAware.getTargetSize() : null, getTransformationKey());
+    }
+
+    private Bitmap tryLoadBitmap(String sourceUri) throws TaskCancelledException {
         Bitmap bitmap = null;
         try {
-            File imageFile = diskCache.get(uri);
+            // 每次加载只在这里计入磁盘缓存的命中率，其他地方只用peek检查文件是否存在
+            File imageFile = diskCache.get(getDiskCacheKey(sourceUri));
             if (imageFile != null && imageFile.exists()) {
                 Log.d(TAG, "从本地磁盘加载图片-->" + memoryCacheKey);
                 checkTaskNotActual();
-                bitmap = decodeImage(BaseDownloader.Scheme.FILE.wrap(imageFile.getAbsolutePath()));
+                bitmap = getSharedBitmap(sourceUri);
+                if (bitmap == null) {
+                    String imageUriForDecoding = BaseDownloader.Scheme.FILE.wrap(imageFile.getAbsolutePath());
+                    displayPreviewIfNeeded(imageUriForDecoding);
+                    bitmap = decodeImage(imageUriForDecoding);
+                }
             }
             if (bitmap == null || bitmap.getWidth() <= 0 || bitmap.getHeight() <= 0) {
                 Log.d(TAG, "从网络加载图片-->" + memoryCacheKey);
 
-                String imageUriForDecoding = uri;
-                if (tryCacheImageOnDisk()) {
-                    imageFile = diskCache.get(uri);
+                String imageUriForDecoding = sourceUri;
+                bitmap = null;
+                if (tryCacheImageOnDisk(sourceUri)) {
+                    imageFile = diskCache.peek(sourceUri);
                     if (imageFile != null) {
                         imageUriForDecoding = BaseDownloader.Scheme.FILE.wrap(imageFile.getAbsolutePath());
+                        bitmap = getSharedBitmap(sourceUri);
                     }
                 }
 
-                checkTaskNotActual();
-                bitmap = decodeImage(imageUriForDecoding);
+                if (bitmap == null) {
+                    checkTaskNotActual();
+                    checkHostAvailable(imageUriForDecoding);
+                    displayPreviewIfNeeded(imageUriForDecoding);
+                    bitmap = decodeImage(imageUriForDecoding);
+                }
 
                 if (bitmap == null || bitmap.getWidth() <= 0 || bitmap.getHeight() <= 0) {
-                    fireFailEvent(FailReason.FailType.DECODING_ERROR, null);
+                    recordAndFireFailEvent(FailReason.FailType.DECODING_ERROR, null);
+                } else if (imageFile != null) {
+                    submitIngestNormalization(sourceUri);
                 }
             }
+            if (decodedAtTargetSize && transformationPipeline != null && bitmap != null && bitmap.getWidth() > 0) {
+                bitmap = applyTransformations(bitmap, getSourceMemoryCacheKey(sourceUri));
+            }
         } catch (IllegalStateException e) {
-            fireFailEvent(FailReason.FailType.NETWORK_DENIED, null);
+            recordAndFireFailEvent(FailReason.FailType.NETWORK_DENIED, null);
         } catch (TaskCancelledException e) {
             throw e;
         } catch (IOException e) {
+            if (e instanceof InterruptedIOException && Thread.currentThread().isInterrupted()) {
+                // 等待解码准入时ImageLoader被停止
+                throw new TaskCancelledException();
+            }
             Log.e(TAG, "tryLoadBitmap", e);
-            fireFailEvent(FailReason.FailType.IO_ERROR, e);
+            if (downloadFailed) {
+                recordAndFireFailEvent(FailReason.FailType.IO_ERROR, e);
+            } else {
+                // 读取本地文件或磁盘缓存失败，不是网络的问题，不记录到负缓存
+                fireFailEvent(FailReason.FailType.IO_ERROR, e);
+            }
         } catch (OutOfMemoryError e) {
             Log.e(TAG, "tryLoadBitmap", e);
-            fireFailEvent(FailReason.FailType.OUT_OF_MEMORY, e);
+            recordAndFireFailEvent(FailReason.FailType.OUT_OF_MEMORY, e);
         } catch (Throwable e) {
             Log.e(TAG, "tryLoadBitmap", e);
-            fireFailEvent(FailReason.FailType.UNKNOWN, e);
+            recordAndFireFailEvent(FailReason.FailType.UNKNOWN, e);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 磁盘缓存按内容寻址存储时，内容相同的图片使用同一个内存缓存key
+     *
+     * @return 未按内容寻址存储时返回null
+     */
+    private String getContentMemoryCacheKey(String sourceUri) {
+        String contentKey = diskCache.getContentKey(sourceUri);
+        if (contentKey == null) {
+            return null;
+        }
+        return FileNameGenerator.generateMemoryCacheKey(CONTENT_KEY_PREFIX + contentKey,
+                imageAware.isShouldCompress() ? imageAware.getTargetSize() : null, getTransformationKey());
+    }
+
+    /**
+     * @return 内存缓存中与sourceUri内容相同、目标大小相同的bitmap；没有则返回null
+     */
+    private Bitmap getSharedBitmap(String sourceUri) {
+        String contentMemoryCacheKey = getContentMemoryCacheKey(sourceUri);
+        if (contentMemoryCacheKey == null) {
+            return null;
+        }
+        Bitmap bitmap = memoryCache.get(contentMemoryCacheKey);
+        if (bitmap == null || bitmap.isRecycled()) {
+            return null;
+        }
+        Log.d(TAG, "内存缓存中已有相同内容的图片-->" + contentMemoryCacheKey);
+        return bitmap;
+    }
+
+    private String getTransformationKey() {
+        return imageAware.getTransformationKey();
+    }
+
+    /**
+     * 从解码后像素的磁盘缓存恢复之前被内存缓存淘汰的bitmap，不需要解码；按内容寻址存储时也查找内容key
+     *
+     * @param sourceMemoryCacheKey 包含变换和目标大小的内存缓存key
+     * @return 没有开启该缓存、没有缓存或不能显示在该view上时返回null
+     */
+    private Bitmap tryLoadRawPixels(String sourceUri, String sourceMemoryCacheKey) throws TaskCancelledException {
+        RawPixelCache rawPixelCache = loader.getRawPixelCache();
+        if (rawPixelCache == null) {
+            return null;
+        }
+        checkTaskNotActual();
+        Bitmap bitmap = rawPixelCache.get(sourceMemoryCacheKey);
+        if (bitmap == null) {
+            String contentMemoryCacheKey = getContentMemoryCacheKey(sourceUri);
+            if (contentMemoryCacheKey != null) {
+                bitmap = rawPixelCache.get(contentMemoryCacheKey);
+            }
+        }
+        if (bitmap != null && !imageAware.acceptsCachedBitmap(bitmap)) {
+            loader.getBitmapPool().put(bitmap);
+            return null;
+        }
+        if (bitmap != null) {
+            Log.d(TAG, "从解码后像素的磁盘缓存恢复图片-->" + sourceMemoryCacheKey);
         }
         return bitmap;
     }
 
+    /**
+     * 从磁盘缓存加载之前变换后保存的图片，不需要再解码原图和变换
+     *
+     * @param sourceMemoryCacheKey 包含变换和目标大小的内存缓存key
+     * @return 没有设置变换或磁盘上没有变换后的图片时返回null
+     */
+    private Bitmap tryLoadTransformedBitmap(String sourceMemoryCacheKey) throws TaskCancelledException {
+        if (transformationPipeline == null) {
+            return null;
+        }
+        File imageFile = diskCache.peek(TRANSFORMED_KEY_PREFIX + sourceMemoryCacheKey);
+        if (imageFile == null || !imageFile.exists()) {
+            return null;
+        }
+        Log.d(TAG, "从本地磁盘加载变换后的图片-->" + sourceMemoryCacheKey);
+        checkTaskNotActual();
+        try {
+            Bitmap bitmap = decodeImage(BaseDownloader.Scheme.FILE.wrap(imageFile.getAbsolutePath()));
+            // 已经是变换后的图片
+            decodedAtTargetSize = false;
+            return bitmap;
+        } catch (IOException e) {
+            if (e instanceof InterruptedIOException && Thread.currentThread().isInterrupted()) {
+                throw new TaskCancelledException();
+            }
+            Log.w(TAG, "tryLoadTransformedBitmap", e);
+            return null;
+        }
+    }
+
+    /**
+     * 在解码线程中执行变换，中间结果和解码的bitmap放回bitmap池；变换后的图片保存到磁盘缓存，下次直接加载
+     *
+     * @param decoded              本任务解码得到的bitmap，没有被其他地方引用
+     * @param sourceMemoryCacheKey 包含变换和目标大小的内存缓存key
+     * @return 变换后的bitmap
+     */
+    private Bitmap applyTransformations(Bitmap decoded, String sourceMemoryCacheKey) throws TaskCancelledException {
+        checkTaskNotActual();
+        Bitmap transformed = transformationPipeline.apply(decoded, loader.getBitmapPool());
+        // 变换被中断时结果不完整，不能缓存
+        checkTaskInterrupted();
+        if (transformed != decoded && !decodedDegraded) {
+            // 在磁盘缓存的写入线程中压缩，不延迟显示；内存缓存默认不回收bitmap，写入期间bitmap保持可用
+            diskCache.putAsync(TRANSFORMED_KEY_PREFIX + sourceMemoryCacheKey, transformed,
+                    getTransformedCompressFormat(transformed), TRANSFORMED_COMPRESS_QUALITY);
+        }
+        return transformed;
+    }
+
+    /**
+     * 不透明的变换结果保存为JPEG；有透明（如圆角、圆形）时API 18及以上保存为WebP，之前的系统保存为PNG
+     */
+    private static Bitmap.CompressFormat getTransformedCompressFormat(Bitmap transformed) {
+        if (!transformed.hasAlpha()) {
+            return Bitmap.CompressFormat.JPEG;
+        }
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2 ? Bitmap.CompressFormat.WEBP : Bitmap.CompressFormat.PNG;
+    }
+
+    /**
+     * 同一uri其他目标大小、还在等待的加载请求；这些请求的图片由本任务一次解码后缩小得到，不再各自解码原图
+     * <p/>
+     * 只合并由view缩放显示、且内存缓存中还没有对应大小的请求；本任务使用RGB_565时不合并必须显示原图质量的请求
+     */
+    private List<ImageViewAware> collectSiblingRequests() {
+        if (!imageAware.isShouldCompress() || transformationPipeline != null) {
+            return Collections.emptyList();
+        }
+        List<ImageViewAware> siblings = new ArrayList<ImageViewAware>();
+        for (ImageViewAware request : engine.getPendingRequests(uriKey)) {
+            if (request == imageAware || !request.isShouldCompress() || request.isCollected()
+                    || request.getTransformationPipeline() != null
+                    || !ViewScaleType.isScaledByView(request.getScaleType())
+                    || (request.isFullQualityRequired() && !imageAware.isFullQualityRequired())) {
+                continue;
+            }
+            String key = request.getMemoryCacheKey();
+            if (key.equals(memoryCacheKey) || !key.equals(engine.getLoadingUriForView(request))
+                    || request.acceptsCachedBitmap(memoryCache.peek(key))) {
+                continue;
+            }
+            siblings.add(request);
+        }
+        return siblings;
+    }
+
+    /**
+     * @return 本任务和siblings中最大的目标宽度和高度；没有siblings时为本任务的目标大小
+     */
+    private int[] computeDecodeTargetSize(List<ImageViewAware> siblings) {
+        int[] targetSize = imageAware.getTargetSize();
+        if (siblings.isEmpty()) {
+            return targetSize;
+        }
+        int[] maxSize = {targetSize[0], targetSize[1]};
+        for (ImageViewAware sibling : siblings) {
+            maxSize[0] = Math.max(maxSize[0], sibling.getTargetSize()[0]);
+            maxSize[1] = Math.max(maxSize[1], sibling.getTargetSize()[1]);
+        }
+        Log.d(TAG, "合并" + siblings.size() + "个同一uri的请求解码，目标大小-->" + maxSize[0] + "x" + maxSize[1]);
+        return maxSize;
+    }
+
+    /**
+     * 合并解码时，本任务或任一sibling需要裁剪（图片宽高都不小于目标大小）就按CROP计算采样率，
+     * 否则按FIT_INSIDE；按最大目标大小解码的bitmap缩小后能满足每个请求
+     *
+     * @return 没有siblings时返回null，按本任务view的ScaleType
+     */
+    private ViewScaleType computeDecodeScaleType(List<ImageViewAware> siblings) {
+        if (siblings.isEmpty()) {
+            return null;
+        }
+        if (ViewScaleType.fromScaleType(imageAware.getScaleType()) == ViewScaleType.CROP) {
+            return ViewScaleType.CROP;
+        }
+        for (ImageViewAware sibling : siblings) {
+            if (ViewScaleType.fromScaleType(sibling.getScaleType()) == ViewScaleType.CROP) {
+                return ViewScaleType.CROP;
+            }
+        }
+        return ViewScaleType.FIT_INSIDE;
+    }
+
+    /**
+     * 从按最大目标大小解码的bitmap缩小得到各siblings的bitmap并放入内存缓存，等待加载锁的siblings会直接命中缓存；
+     * 解码的bitmap不比sibling的目标大小大时不缩小，也不放入缓存，由sibling自己加载，同一个bitmap不会放在多个key下
+     *
+     * @param decoded 按decodeTargetSize解码的bitmap
+     * @return 缩小到本任务目标大小的bitmap
+     */
+    private Bitmap putSiblingVariants(Bitmap decoded, List<ImageViewAware> siblings) {
+        for (ImageViewAware sibling : siblings) {
+            Bitmap variant = scaleToTargetSize(decoded, sibling);
+            if (variant == decoded) {
+                continue;
+            }
+            Log.d(TAG, "将缩小的图片加载进缓存-->" + sibling.getMemoryCacheKey());
+            memoryCache.put(sibling.getMemoryCacheKey(), variant);
+        }
+        return scaleToTargetSize(decoded, imageAware);
+    }
+
+    /**
+     * 按view的缩放方式把bitmap缩小到目标大小，不放大
+     *
+     * @return 不需要缩小时返回原bitmap，否则返回新的bitmap
+     */
+    private static Bitmap scaleToTargetSize(Bitmap bitmap, ImageViewAware target) {
+        int[] targetSize = target.getTargetSize();
+        if (targetSize[0] <= 0 || targetSize[1] <= 0) {
+            return bitmap;
+        }
+        float widthScale = (float) targetSize[0] / bitmap.getWidth();
+        float heightScale = (float) targetSize[1] / bitmap.getHeight();
+        float scale = ViewScaleType.fromScaleType(target.getScaleType()) == ViewScaleType.FIT_INSIDE
+                ? Math.min(widthScale, heightScale) : Math.max(widthScale, heightScale);
+        if (scale >= 1f) {
+            return bitmap;
+        }
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        if (width == bitmap.getWidth() && height == bitmap.getHeight()) {
+            // createScaledBitmap大小不变时返回原bitmap
+            return bitmap;
+        }
+        return Bitmap.createScaledBitmap(bitmap, width, height, true);
+    }
+
+    /**
+     * view设置了先显示预览图时，在完整解码前解码并显示低分辨率的预览图；预览图不放入内存缓存
+     *
+     * @param imageUri 要解码的uri，只有磁盘上的文件才生成预览图
+     */
+    private void displayPreviewIfNeeded(String imageUri) throws TaskCancelledException {
+        if (!imageAware.isProgressivePreview() || !imageAware.isShouldCompress() || !(decoder instanceof ImageDecoder)
+                || transformationPipeline != null) {
+            // 预览图没有经过变换，与变换后的图片不一致
+            return;
+        }
+        Bitmap preview;
+        try {
+            preview = ((ImageDecoder) decoder).decodePreview(new ImageDecodingInfo(imageUri, imageAware, getDownloader(), null,
+                    decodeTargetSize, 1));
+        } catch (IOException e) {
+            if (e instanceof InterruptedIOException && Thread.currentThread().isInterrupted()) {
+                throw new TaskCancelledException();
+            }
+            Log.w(TAG, "displayPreviewIfNeeded", e);
+            return;
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "displayPreviewIfNeeded", e);
+            return;
+        }
+        if (preview == null) {
+            return;
+        }
+        checkTaskNotActual();
+        runTask(new DisplayBitmapTask(preview, uri, memoryCacheKey, imageAware, listener, engine, true), handler, engine);
+    }
+
     private Bitmap decodeImage(String imageUri) throws IOException {
         Log.d(TAG, "memoryCacheKey-->" + memoryCacheKey);
         Log.d(TAG, "imageUri-->" + imageUri);
-        return decoder.decode(imageUri, imageAware, getDownloader(), null);
+        OomRecovery oomRecovery = loader.getOomRecovery();
+        int step = 0;
+        while (true) {
+            try {
+                Bitmap bitmap = decoder.decode(new ImageDecodingInfo(imageUri, imageAware, getDownloader(), null,
+                        decodeTargetSize, decodeScaleType, OomRecovery.sampleMultiplier(step)));
+                if (bitmap != null) {
+                    oomRecovery.recordRecovered(step);
+                }
+                decodedAtTargetSize = bitmap != null;
+                decodedDegraded = bitmap != null && step > 0;
+                return bitmap;
+            } catch (OutOfMemoryError e) {
+                if (step >= oomRecovery.getMaxRetries()) {
+                    oomRecovery.recordGiveUp();
+                    throw e;
+                }
+                step++;
+                oomRecovery.trim(step);
+            }
+        }
     }
 
     /**
      * @return <b>true</b> - if image was downloaded successfully; <b>false</b> - otherwise
+     * @throws IOException 无法获取图片数据流（如404、主机无法连接或处于熔断状态），此时不应再次请求网络
      */
-    private boolean tryCacheImageOnDisk() throws TaskCancelledException {
+    private boolean tryCacheImageOnDisk(String sourceUri) throws TaskCancelledException, IOException {
         Log.d(TAG, "将图片缓存到磁盘-->" + memoryCacheKey);
 
+        InputStream is = openImageStream(sourceUri);
         boolean loaded;
         try {
-            loaded = downloadImage();
+            loaded = downloadImage(sourceUri, is);
         } catch (IOException e) {
             Log.e(TAG, "tryCacheImageOnDisk", e);
             loaded = false;
@@ -177,9 +656,66 @@ public class LoadAndDisplayImageTask implements Runnable, IoUtils.CopyListener {
         return loaded;
     }
 
-    private boolean downloadImage() throws IOException {
-        InputStream is = getDownloader().getStream(uri, null);
-        return diskCache.put(uri, is, this);
+    /**
+     * 新下载的图片显示用的解码完成后，提交入库规范化；规范化后的文件另存，不替换原图
+     */
+    private void submitIngestNormalization(String sourceUri) {
+        IngestNormalizer normalizer = loader.getIngestNormalizer();
+        if (normalizer != null) {
+            normalizer.submit(sourceUri);
+        }
+    }
+
+    /**
+     * 开启了入库规范化且不要求显示原图时，有规范化后的文件则使用规范化后的文件
+     *
+     * @return 应从磁盘缓存加载的key
+     */
+    private String getDiskCacheKey(String sourceUri) {
+        if (loader.getIngestNormalizer() != null && !imageAware.isFullQualityRequired()) {
+            String normalizedKey = IngestNormalizer.getNormalizedKey(sourceUri);
+            if (diskCache.peek(normalizedKey) != null) {
+                return normalizedKey;
+            }
+        }
+        return sourceUri;
+    }
+
+    /**
+     * 获取图片数据流，网络请求会先经过主机熔断器检查，并记录主机请求结果
+     */
+    private InputStream openImageStream(String sourceUri) throws IOException {
+        try {
+            return engine.openImageStream(sourceUri, getDownloader());
+        } catch (IOException e) {
+            downloadFailed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * 只检查熔断状态，不占用熔断结束后的探测请求名额
+     *
+     * @throws HostCircuitBreaker.CircuitOpenException 图片所在主机处于熔断状态
+     */
+    private void checkHostAvailable(String imageUri) throws HostCircuitBreaker.CircuitOpenException {
+        String host = ImageLoaderEngine.getNetworkHost(imageUri);
+        if (host != null && engine.getHostCircuitBreaker().isOpen(host)) {
+            throw new HostCircuitBreaker.CircuitOpenException(host);
+        }
+    }
+
+    private boolean downloadImage(String sourceUri, InputStream is) throws IOException {
+        BandwidthEstimator estimator = null;
+        switch (BaseDownloader.Scheme.ofUri(sourceUri)) {
+            case HTTP:
+            case HTTPS:
+                estimator = loader.getBandwidthEstimator();
+                break;
+            default:
+                break;
+        }
+        return diskCache.put(sourceUri, is, this, estimator);
     }
 
     private BaseDownloader getDownloader() {
@@ -187,6 +723,8 @@ public class LoadAndDisplayImageTask implements Runnable, IoUtils.CopyListener {
             return loader.getNetworkDeniedDownloader();
         } else if (engine.isSlowNetwork()) {
             return loader.getSlowNetworkDownloader();
+        } else if (engine.isHedgeRequests()) {
+            return loader.getHedgedDownloader();
         } else {
             return loader.getDownloader();
         }
@@ -218,6 +756,10 @@ public class LoadAndDisplayImageTask implements Runnable, IoUtils.CopyListener {
 
     private void fireFailEvent(final FailReason.FailType failType, final Throwable failCause) {
         if (isTaskInterrupted() || isTaskNotActual()) return;
+        if (upgrade) {
+            Log.d(TAG, "重新加载原图失败，保留低质量版本-->" + memoryCacheKey);
+            return;
+        }
         Runnable r = new Runnable() {
             @Override
             public void run() {
@@ -228,6 +770,16 @@ public class LoadAndDisplayImageTask implements Runnable, IoUtils.CopyListener {
         runTask(r, handler, engine);
     }
 
+    /**
+     * 将失败记录到负缓存后再通知失败，熔断导致的失败不记录（由熔断器负责恢复）
+     */
+    private void recordAndFireFailEvent(FailReason.FailType failType, Throwable failCause) {
+        if (!(failCause instanceof HostCircuitBreaker.CircuitOpenException)) {
+            engine.getFailedUriCache().put(sourceUriKey, failType);
+        }
+        fireFailEvent(failType, failCause);
+    }
+
     private void fireCancelEvent() {
         if (isTaskInterrupted()) return;
         Runnable r = new Runnable() {
@@ -326,6 +878,14 @@ public class LoadAndDisplayImageTask implements Runnable, IoUtils.CopyListener {
         return uri;
     }
 
+    String getLoadingUriKey() {
+        return uriKey;
+    }
+
+    ImageViewAware getImageAware() {
+        return imageAware;
+    }
+
     static void runTask(Runnable r, Handler handler, ImageLoaderEngine engine) {
         if (handler == null) {
             engine.fireCallback(r);
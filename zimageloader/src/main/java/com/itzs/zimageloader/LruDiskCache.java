@@ -1,22 +1,33 @@
 package com.itzs.zimageloader;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import android.graphics.Bitmap;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.itzs.zimageloader.decoder.ImageHeader;
+import com.itzs.zimageloader.decoder.ImageHeaderParser;
+
 /**
  * SDCard缓存
  * @author zhangshuo
@@ -35,6 +46,14 @@ public class LruDiskCache {
 	private final String TEMP_IMAGE_POSTFIX = ".tmp";
 	/** 非法文件大小*/
 	private final int INVALID_SIZE = -1;
+	/** 内容寻址存储时，图片数据文件名的前缀，后接图片内容的MD5*/
+	private final String CONTENT_FILE_PREFIX = "c";
+	/** 内容寻址存储时，key到图片数据文件的引用文件的后缀*/
+	private final String REF_FILE_POSTFIX = ".ref";
+	/** 记录图片元数据时，最多读取的文件头字节数*/
+	private final int METADATA_PARSE_LIMIT = 256 * 1024;
+	/** 异步写入bitmap的队列容量，队列满时放弃新的写入*/
+	private final int WRITE_QUEUE_CAPACITY = 16;
 
 	private final FileNameGenerator fileNameGenerator;
 
@@ -56,6 +75,48 @@ public class LruDiskCache {
 	 */
 	private final Map<File, Long> lastUsageDates;
 
+	/**
+	 * 是否按图片内容寻址存储：图片数据以内容的MD5命名，key只保存一个指向数据文件的引用文件，
+	 * 不同uri下载到相同内容的图片时，磁盘上只保存一份
+	 */
+	private volatile boolean contentAddressed;
+	/**
+	 * 内容寻址存储的索引，引用文件名 -> 图片数据文件名
+	 */
+	private final Map<String, String> contentIndex;
+	/**
+	 * 内容寻址存储时，因内容相同而未重复保存的次数
+	 */
+	private final AtomicInteger dedupCount;
+
+	/**
+	 * 命中和未命中次数，用于统计命中率
+	 */
+	private final AtomicInteger hitCount;
+	private final AtomicInteger missCount;
+
+	/**
+	 * 缓存图片的元数据（宽高、格式、EXIF方向）索引
+	 */
+	private final ImageMetadataIndex metadataIndex;
+
+	/**
+	 * 异步写入bitmap的线程，第一次异步写入时创建
+	 */
+	private ExecutorService writeExecutor;
+	/**
+	 * 等待异步写入的key，同一key不重复排队
+	 */
+	private final Set<String> pendingWrites;
+	/**
+	 * 因写入队列已满而放弃的异步写入次数
+	 */
+	private final AtomicInteger droppedWriteCount;
+	/**
+	 * 因同一key已在等待写入而跳过的异步写入次数
+	 */
+	private final AtomicInteger duplicateWriteCount;
+
 	/**
 	 * 初始化SDCard缓存
 	 * @param cacheDir 缓存路径
@@ -77,6 +138,14 @@ public class LruDiskCache {
 		this.maxSize = maxSize;
 		this.cacheSize = new AtomicInteger();
 		this.lastUsageDates = Collections.synchronizedMap(new HashMap<File, Long>());
+		this.contentIndex = Collections.synchronizedMap(new HashMap<String, String>());
+		this.dedupCount = new AtomicInteger();
+		this.hitCount = new AtomicInteger();
+		this.missCount = new AtomicInteger();
+		this.metadataIndex = new ImageMetadataIndex(cacheDir);
+		this.pendingWrites = Collections.synchronizedSet(new HashSet<String>());
+		this.droppedWriteCount = new AtomicInteger();
+		this.duplicateWriteCount = new AtomicInteger();
 		this.calculateCacheSizeAndFillUsageMap();
 	}
 
@@ -89,15 +158,24 @@ public class LruDiskCache {
 			@Override
 			public void run() {
 				// TODO Auto-generated method stub
+				//先加载元数据索引，解码时尽早可以用索引代替读取文件头
+				metadataIndex.load();
 				int size = 0;
 				File[] cachedFiles  = cacheDir.listFiles();
 				if(null != cachedFiles){
+					Set<String> names = new HashSet<String>();
 					for (int i = 0; i < cachedFiles.length; i++) {
+						if (ImageMetadataIndex.isIndexFile(cachedFiles[i])) {
+							continue;
+						}
 						size = size + getSize(cachedFiles[i]);
 						//将文件的最后修改时间加入到map中
 						lastUsageDates.put(cachedFiles[i], cachedFiles[i].lastModified());
+						names.add(cachedFiles[i].getName());
 					}
 					cacheSize.set(size);
+					//加载元数据索引，并去掉已不存在的文件的记录
+					metadataIndex.retain(names);
 				}
 
 			}
@@ -109,56 +187,167 @@ public class LruDiskCache {
 	 * @param key
 	 * @param imageStream
 	 * @param listener
+	 * @param estimator 不为null时，记录下载吞吐量用于估算网络带宽
 	 * @return true 保存成功，false保存失败
 	 * @throws IOException
 	 */
-	private boolean save(String key, InputStream imageStream, IoUtils.CopyListener listener) throws IOException {
+	private boolean save(String key, InputStream imageStream, IoUtils.CopyListener listener,
+						 BandwidthEstimator estimator) throws IOException {
 		File imageFile = getFile(key);
 		File tmpFile = new File(imageFile.getAbsolutePath() + TEMP_IMAGE_POSTFIX);
 		boolean loaded = false;
 		try {
 			OutputStream os = new BufferedOutputStream(new FileOutputStream(tmpFile), DEFAULT_BUFFER_SIZE);
 			try {
-				loaded = IoUtils.copyStream(imageStream, os, listener, DEFAULT_BUFFER_SIZE);
+				loaded = IoUtils.copyStream(imageStream, os, listener, DEFAULT_BUFFER_SIZE, estimator);
 			} finally {
 				IoUtils.closeSilently(os);
 			}
 		} finally {
 			IoUtils.closeSilently(imageStream);
-			if (loaded && !tmpFile.renameTo(imageFile)) {
-				loaded = false;
+			if (loaded) {
+				//覆盖已缓存的文件时（如重新下载），先减去旧文件的大小
+				forget(imageFile);
+				if (!tmpFile.renameTo(imageFile)) {
+					loaded = false;
+				}
 			}
 			if (!loaded) {
 				tmpFile.delete();
 			}
 		}
+		if (loaded) {
+			recordMetadata(imageFile);
+		}
 		return loaded;
 	}
 
 	/**
-	 * 保存bitmap到SDCard
+	 * 按内容寻址保存bitmap输入流到SDCard，并监听下载进度；
+	 * 相同内容的数据文件已存在时，只保存key到该数据文件的引用
+	 * @param key
+	 * @param imageStream
+	 * @param listener
+	 * @param estimator 不为null时，记录下载吞吐量用于估算网络带宽
+	 * @param digest 计算图片内容摘要
+	 * @return 保存成功返回图片数据文件，否则返回null
+	 * @throws IOException
+	 */
+	private File saveContentAddressed(String key, InputStream imageStream, IoUtils.CopyListener listener,
+									  BandwidthEstimator estimator, MessageDigest digest) throws IOException {
+		File tmpFile = new File(cacheDir, fileNameGenerator.generate(key) + TEMP_IMAGE_POSTFIX);
+		File contentFile = null;
+		boolean loaded = false;
+		try {
+			OutputStream os = new BufferedOutputStream(new DigestOutputStream(new FileOutputStream(tmpFile), digest), DEFAULT_BUFFER_SIZE);
+			try {
+				loaded = IoUtils.copyStream(imageStream, os, listener, DEFAULT_BUFFER_SIZE, estimator);
+			} finally {
+				IoUtils.closeSilently(os);
+			}
+		} finally {
+			IoUtils.closeSilently(imageStream);
+			if (loaded) {
+				contentFile = new File(cacheDir, CONTENT_FILE_PREFIX + toHex(digest.digest()));
+				synchronized (contentIndex) {
+					if (contentFile.exists()) {
+						dedupCount.incrementAndGet();
+						Log.d(TAG, "相同内容的图片已存在--key->" + key);
+						tmpFile.delete();
+						touch(contentFile);
+					} else if (tmpFile.renameTo(contentFile)) {
+						putToMap(contentFile);
+						recordMetadata(contentFile);
+					} else {
+						loaded = false;
+					}
+				}
+				if (loaded && !saveRef(key, contentFile)) {
+					loaded = false;
+				}
+			}
+			if (!loaded) {
+				tmpFile.delete();
+				contentFile = null;
+			}
+		}
+		return contentFile;
+	}
+
+	/**
+	 * 保存key到图片数据文件的引用
+	 * @param key
+	 * @param contentFile
+	 * @return true保存成功，false保存失败
+	 */
+	private boolean saveRef(String key, File contentFile) {
+		File refFile = getRefFile(key);
+		File tmpFile = new File(refFile.getAbsolutePath() + TEMP_IMAGE_POSTFIX);
+		boolean saved = false;
+		OutputStream os = null;
+		try {
+			os = new FileOutputStream(tmpFile);
+			os.write(contentFile.getName().getBytes("US-ASCII"));
+			os.close();
+			os = null;
+			saved = tmpFile.renameTo(refFile);
+		} catch (IOException e) {
+			Log.e(TAG, "saveRef--key->" + key, e);
+		} finally {
+			if (os != null) {
+				IoUtils.closeSilently(os);
+			}
+			if (!saved) {
+				tmpFile.delete();
+			}
+		}
+		if (saved) {
+			contentIndex.put(refFile.getName(), contentFile.getName());
+			if (lastUsageDates.containsKey(refFile)) {
+				touch(refFile);
+			} else {
+				putToMap(refFile);
+			}
+		}
+		return saved;
+	}
+
+	/**
+	 * 按指定格式保存bitmap到SDCard，不回收bitmap（调用者可能还要显示或放入内存缓存）
 	 * @param key
 	 * @param bitmap
+	 * @param format 压缩格式
+	 * @param quality 压缩质量，0~100
 	 * @return true保存成功，false保存失败
 	 * @throws IOException
 	 */
-	private boolean save(String key, Bitmap bitmap) throws IOException {
+	private boolean save(String key, Bitmap bitmap, Bitmap.CompressFormat format, int quality) throws IOException {
 		File imageFile = getFile(key);
 		File tmpFile = new File(imageFile.getAbsolutePath() + TEMP_IMAGE_POSTFIX);
 		OutputStream os = new BufferedOutputStream(new FileOutputStream(tmpFile), DEFAULT_BUFFER_SIZE);
+		ImageHeader.Format headerFormat = format == Bitmap.CompressFormat.JPEG ? ImageHeader.Format.JPEG
+				: format == Bitmap.CompressFormat.WEBP ? ImageHeader.Format.WEBP : ImageHeader.Format.PNG;
+		ImageHeader header = new ImageHeader(headerFormat, bitmap.getWidth(), bitmap.getHeight(), ImageHeader.ORIENTATION_NORMAL,
+				format != Bitmap.CompressFormat.JPEG && bitmap.hasAlpha());
 		boolean savedSuccessfully = false;
 		try {
-			savedSuccessfully = bitmap.compress(DEFAULT_COMPRESS_FORMAT, DEFAULT_COMPRESS_QUALITY, os);
+			savedSuccessfully = bitmap.compress(format, quality, os);
 		} finally {
 			IoUtils.closeSilently(os);
-			if (savedSuccessfully && !tmpFile.renameTo(imageFile)) {
-				savedSuccessfully = false;
+			if (savedSuccessfully) {
+				//覆盖已缓存的文件时（如再次写入变换后的图片），先减去旧文件的大小
+				forget(imageFile);
+				if (!tmpFile.renameTo(imageFile)) {
+					savedSuccessfully = false;
+				}
 			}
 			if (!savedSuccessfully) {
 				tmpFile.delete();
 			}
 		}
-		bitmap.recycle();
+		if (savedSuccessfully) {
+			metadataIndex.put(imageFile, header);
+		}
 		return savedSuccessfully;
 	}
 
@@ -171,40 +360,129 @@ public class LruDiskCache {
 	 * @throws IOException
 	 */
 	public boolean put(String key, InputStream imageStream, IoUtils.CopyListener listener) throws IOException{
-		boolean isSaved = this.save(key, imageStream, listener);
+		return this.put(key, imageStream, listener, null);
+	}
+
+	/**
+	 * 将bitmap输入流保存到SDCard并添加到map记录，同时将下载吞吐量记录到estimator
+	 * @param key
+	 * @param imageStream
+	 * @param listener 不为null时，则回调加载和保存bitmap输入流的进度，并可通过回调返回值，停止加载bitmap输入流
+	 * @param estimator 不为null时，记录下载吞吐量用于估算网络带宽
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean put(String key, InputStream imageStream, IoUtils.CopyListener listener,
+					   BandwidthEstimator estimator) throws IOException{
+		if (contentAddressed && !TextUtils.isEmpty(key)) {
+			MessageDigest digest = null;
+			try {
+				digest = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				Log.e(TAG, "put--MD5不可用，不使用内容寻址存储", e);
+			}
+			if (digest != null) {
+				return null != this.saveContentAddressed(key, imageStream, listener, estimator, digest);
+			}
+		}
+		boolean isSaved = this.save(key, imageStream, listener, estimator);
 		if(isSaved){
-			return this.putToMap(key);
+			return this.putToMap(this.getFile(key));
 		}else{
 			return isSaved;
 		}
 	}
 
 	/**
-	 * 将bitmap保存到SDCard并添加到map记录，必须两个操作都成功，才返回true，否则返回false
+	 * 将bitmap按默认格式（PNG）保存到SDCard并添加到map记录，必须两个操作都成功，才返回true，否则返回false
 	 * @param key
 	 * @param bitmap
 	 * @return
 	 * @throws IOException
 	 */
 	public boolean put(String key, Bitmap bitmap) throws IOException{
-		boolean isSaved = this.save(key, bitmap);
+		return this.put(key, bitmap, DEFAULT_COMPRESS_FORMAT, DEFAULT_COMPRESS_QUALITY);
+	}
+
+	/**
+	 * 将bitmap按指定格式保存到SDCard并添加到map记录，在调用线程中压缩
+	 * @param key
+	 * @param bitmap
+	 * @param format 压缩格式，照片使用JPEG/WebP比PNG快且小得多；有透明的bitmap不能使用JPEG
+	 * @param quality 压缩质量，0~100，PNG忽略
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean put(String key, Bitmap bitmap, Bitmap.CompressFormat format, int quality) throws IOException{
+		boolean isSaved = this.save(key, bitmap, format, quality);
 		if(isSaved){
-			return this.putToMap(key);
+			return this.putToMap(this.getFile(key));
 		}else{
 			return isSaved;
 		}
 	}
 
+	/**
+	 * 在后台写入线程中将bitmap按指定格式保存到SDCard，不阻塞调用线程；
+	 * 同一key已在等待写入或写入队列已满时放弃本次写入（缓存写入失败不影响显示）。<br/>
+	 * 写入线程只读取bitmap，不会回收它；写入完成前调用者不能回收或复用该bitmap，bitmap已被回收时放弃写入
+	 * @param key
+	 * @param bitmap
+	 * @param format 压缩格式，有透明的bitmap不能使用JPEG
+	 * @param quality 压缩质量，0~100，PNG忽略
+	 * @return true已加入写入队列，false放弃写入
+	 */
+	public boolean putAsync(final String key, final Bitmap bitmap, final Bitmap.CompressFormat format, final int quality) {
+		if (TextUtils.isEmpty(key)) {
+			return false;
+		}
+		if (!pendingWrites.add(key)) {
+			duplicateWriteCount.incrementAndGet();
+			Log.d(TAG, "putAsync--已在等待写入--key->" + key);
+			return false;
+		}
+		try {
+			getWriteExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (bitmap.isRecycled()) {
+							Log.w(TAG, "putAsync--bitmap已被回收--key->" + key);
+							return;
+						}
+						put(key, bitmap, format, quality);
+					} catch (IOException e) {
+						Log.e(TAG, "putAsync--key->" + key, e);
+					} finally {
+						pendingWrites.remove(key);
+					}
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			pendingWrites.remove(key);
+			droppedWriteCount.incrementAndGet();
+			Log.w(TAG, "putAsync--写入队列已满--key->" + key);
+			return false;
+		}
+	}
+
+	private synchronized ExecutorService getWriteExecutor() {
+		if (null == writeExecutor) {
+			writeExecutor = DefaultConfigurationFactory.createDiskCacheWriteExecutor(WRITE_QUEUE_CAPACITY);
+		}
+		return writeExecutor;
+	}
+
 	/**
 	 * 将文件添加到Map中，并计算缓存文件的大小是否超过了我们设置的最大缓存数
 	 * 超过了就删除最先加入的那个文件
-	 * @param key
+	 * @param file
 	 * @return true put成功，false put失败
 	 */
-	private boolean putToMap(String key){
-		File file = this.getFile(key);
+	private boolean putToMap(File file){
 		if(null == file || !file.exists()){
-			Log.e(TAG, "putToMap--文件不存在--key->" + key);
+			Log.e(TAG, "putToMap--文件不存在--file->" + file);
 			return false;
 		}
 		int valueSize = getSize(file);
@@ -223,23 +501,259 @@ public class LruDiskCache {
 		return true;
 	}
 
+	/**
+	 * 读取缓存文件的文件头，将图片的宽高、格式和EXIF方向记录到元数据索引
+	 * @param imageFile
+	 */
+	private void recordMetadata(File imageFile) {
+		InputStream is = null;
+		try {
+			is = new BufferedInputStream(new FileInputStream(imageFile), DEFAULT_BUFFER_SIZE);
+			ImageHeader header = ImageHeaderParser.parse(is, METADATA_PARSE_LIMIT);
+			if (null != header && header.getWidth() > 0 && header.getHeight() > 0) {
+				metadataIndex.put(imageFile, header);
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "recordMetadata--file->" + imageFile, e);
+		} finally {
+			if (is != null) {
+				IoUtils.closeSilently(is);
+			}
+		}
+	}
+
+	/**
+	 * 返回key对应缓存图片的元数据，只查询内存中的索引，不更新文件的访问时间，也不计入命中率
+	 * @param key
+	 * @return 图片未缓存或没有记录时返回null
+	 */
+	public ImageHeader getMetadata(String key) {
+		if (TextUtils.isEmpty(key)) {
+			return null;
+		}
+		if (contentAddressed) {
+			String contentName = contentIndex.get(getRefFile(key).getName());
+			if (null != contentName) {
+				return metadataIndex.get(new File(cacheDir, contentName));
+			}
+		}
+		return metadataIndex.get(getFile(key));
+	}
+
+	/**
+	 * @return 缓存图片的元数据索引
+	 */
+	public ImageMetadataIndex getMetadataIndex() {
+		return metadataIndex;
+	}
+
 	/**
 	 * 根据key生成文件 ，并更新文件的访问时间
 	 * @param key
 	 * @return
 	 */
 	public File get(String key) {
+		if (contentAddressed) {
+			File contentFile = this.getContentFile(key);
+			if (null != contentFile) {
+				hitCount.incrementAndGet();
+				touch(contentFile);
+				return contentFile;
+			}
+		}
+
 		File file = this.getFile(key);
+		if(null != file && !file.exists()){
+			this.migrateLegacyFile(key, file);
+		}
 		if(null == file || !file.exists()){
 			Log.e(TAG, "get--文件不存在--key->" + key);
+			missCount.incrementAndGet();
 			return null;
 		}
 
+		hitCount.incrementAndGet();
+		touch(file);
+
+		return file;
+	}
+
+	/**
+	 * 开启uri规范化之前缓存的文件按原uri命名，找到时改为规范化后的文件名，避免升级后整个磁盘缓存失效
+	 * @param key
+	 * @param file 规范化后的文件
+	 */
+	private void migrateLegacyFile(String key, File file) {
+		String legacyName = fileNameGenerator.generateLegacy(key);
+		if (null == legacyName) {
+			return;
+		}
+		File legacyFile = new File(cacheDir, legacyName);
+		if (legacyFile.exists() && legacyFile.renameTo(file)) {
+			Log.d(TAG, "migrateLegacyFile--" + legacyName + "->" + file.getName());
+			Long lastUsage = lastUsageDates.remove(legacyFile);
+			lastUsageDates.put(file, null == lastUsage ? System.currentTimeMillis() : lastUsage);
+		}
+	}
+
+	/**
+	 * 返回key对应的缓存文件，不计入命中率，不更新访问时间；用于检查文件是否已缓存和在后台处理已缓存的文件
+	 * @param key
+	 * @return 未缓存时返回null
+	 */
+	public File peek(String key) {
+		if (contentAddressed) {
+			File contentFile = this.getContentFile(key);
+			if (null != contentFile) {
+				return contentFile;
+			}
+		}
+		File file = this.getFile(key);
+		if(null != file && !file.exists()){
+			this.migrateLegacyFile(key, file);
+		}
+		return null != file && file.exists() ? file : null;
+	}
+
+	/**
+	 * 缓存文件将被覆盖时，从缓存大小中减去旧文件的大小
+	 * @param file
+	 */
+	private void forget(File file) {
+		if (null != lastUsageDates.remove(file)) {
+			cacheSize.addAndGet(-getSize(file));
+		}
+	}
+
+	/**
+	 * 更新文件的访问时间
+	 * @param file
+	 */
+	private void touch(File file) {
 		Long currentTime = System.currentTimeMillis();
 		file.setLastModified(currentTime);
 		lastUsageDates.put(file, currentTime);
+	}
 
-		return file;
+	/**
+	 * 内容寻址存储时，返回key引用的图片数据文件
+	 * @param key
+	 * @return 引用不存在或数据文件已被删除时返回null
+	 */
+	private File getContentFile(String key) {
+		if (TextUtils.isEmpty(key)) {
+			return null;
+		}
+		File refFile = getRefFile(key);
+		String contentName = contentIndex.get(refFile.getName());
+		if (null == contentName) {
+			if (!refFile.exists()) {
+				return null;
+			}
+			contentName = readRef(refFile);
+			if (null == contentName) {
+				return null;
+			}
+			contentIndex.put(refFile.getName(), contentName);
+		}
+		File contentFile = new File(cacheDir, contentName);
+		if (!contentFile.exists()) {
+			// 数据文件已被淘汰，删除失效的引用
+			contentIndex.remove(refFile.getName());
+			lastUsageDates.remove(refFile);
+			refFile.delete();
+			return null;
+		}
+		touch(refFile);
+		return contentFile;
+	}
+
+	/**
+	 * 读取引用文件中保存的图片数据文件名
+	 */
+	private String readRef(File refFile) {
+		InputStream is = null;
+		try {
+			is = new FileInputStream(refFile);
+			byte[] bytes = new byte[(int) refFile.length()];
+			int offset = 0;
+			int count;
+			while (offset < bytes.length && (count = is.read(bytes, offset, bytes.length - offset)) != -1) {
+				offset += count;
+			}
+			return new String(bytes, 0, offset, "US-ASCII");
+		} catch (IOException e) {
+			Log.e(TAG, "readRef--file->" + refFile, e);
+			return null;
+		} finally {
+			if (is != null) {
+				IoUtils.closeSilently(is);
+			}
+		}
+	}
+
+	/**
+	 * 内容寻址存储时，返回key对应图片内容的标识（图片数据文件名），可用于判断不同key的图片内容是否相同
+	 * @param key
+	 * @return 未使用内容寻址存储或key未缓存时返回null
+	 */
+	public String getContentKey(String key) {
+		if (!contentAddressed) {
+			return null;
+		}
+		File contentFile = this.getContentFile(key);
+		return null == contentFile ? null : contentFile.getName();
+	}
+
+	/**
+	 * 设置是否按图片内容寻址存储，开启后不同uri下载到相同内容的图片时，磁盘上只保存一份
+	 * @param contentAddressed
+	 */
+	public void setContentAddressed(boolean contentAddressed) {
+		this.contentAddressed = contentAddressed;
+	}
+
+	public boolean isContentAddressed() {
+		return contentAddressed;
+	}
+
+	/**
+	 * @return 命中次数
+	 */
+	public int hitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return 未命中次数
+	 */
+	public int missCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * 清空命中率统计
+	 */
+	public void resetStats() {
+		hitCount.set(0);
+		missCount.set(0);
+	}
+
+	@Override
+	public String toString() {
+		int hits = hitCount.get();
+		int accesses = hits + missCount.get();
+		int hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+		return String.format("LruDiskCache[maxSize=%d,size=%d,hits=%d,misses=%d,hitRate=%d%%,dedup=%d,droppedWrites=%d,duplicateWrites=%d]",
+				maxSize, cacheSize.get(), hits, accesses - hits, hitPercent, dedupCount.get(), droppedWriteCount.get(),
+				duplicateWriteCount.get());
+	}
+
+	/**
+	 * @return 内容寻址存储时，因内容相同而未重复保存的次数
+	 */
+	public int getDedupCount() {
+		return dedupCount.get();
 	}
 
 	/**
@@ -258,11 +772,22 @@ public class LruDiskCache {
 		return new File(cacheDir, fileName);
 	}
 
+	/**
+	 * 内容寻址存储时，返回key的引用文件
+	 * @param key
+	 * @return
+	 */
+	private File getRefFile(String key) {
+		return new File(cacheDir, fileNameGenerator.generate(key) + REF_FILE_POSTFIX);
+	}
+
 	/**
 	 * 硬盘缓存的清理
 	 */
 	public void clear() {
 		lastUsageDates.clear();
+		contentIndex.clear();
+		metadataIndex.clear();
 		cacheSize.set(0);
 		File[] files = cacheDir.listFiles();
 		if (files != null) {
@@ -307,6 +832,8 @@ public class LruDiskCache {
 				fileSize = getSize(mostLongUsedFile);
 				if (mostLongUsedFile.delete()) {
 					lastUsageDates.remove(mostLongUsedFile);
+					contentIndex.remove(mostLongUsedFile.getName());
+					metadataIndex.remove(mostLongUsedFile);
 				}
 			} else {
 				lastUsageDates.remove(mostLongUsedFile);
@@ -324,4 +851,14 @@ public class LruDiskCache {
 		return (int) file.length();
 	}
 
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			int value = b & 0xFF;
+			if (value < 0x10) sb.append('0');
+			sb.append(Integer.toHexString(value));
+		}
+		return sb.toString();
+	}
+
 }
@@ -1,9 +1,12 @@
 package com.itzs.zimageloader;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import android.app.ActivityManager;
 import android.content.Context;
@@ -19,6 +22,33 @@ import android.util.Log;
  */
 public class LruMemoryCache {
 
+	/**
+	 * bitmap因超出容量被淘汰时的回调（不包括主动移除、替换、清空和内存不足时的裁剪）
+	 */
+	public interface EvictionListener {
+		/**
+		 * 在锁外、put的调用线程中回调，不应执行耗时操作
+		 * @param key
+		 * @param bitmap 被淘汰的bitmap
+		 * @param hits 该bitmap在缓存期间被命中的次数
+		 */
+		void onEvicted(String key, Bitmap bitmap, int hits);
+	}
+
+	/**
+	 * 缓存满时选择淘汰哪个bitmap的策略
+	 */
+	public enum EvictionPolicy {
+		/**
+		 * 淘汰最久未访问的bitmap
+		 */
+		LRU,
+		/**
+		 * W-TinyLFU：按近期的访问频率决定新bitmap能否替换已缓存的bitmap，快速滑动长列表不会挤掉经常复用的bitmap，见{@link TinyLfuPolicy}
+		 */
+		TINY_LFU
+	}
+
 	private final String TAG = LruMemoryCache.class.getSimpleName();
 
 	/**
@@ -31,10 +61,67 @@ public class LruMemoryCache {
 	 */
 	private int size;
 
+	/**
+	 * 命中和未命中次数，用于统计命中率
+	 */
+	private int hitCount;
+	private int missCount;
+
 	private final LinkedHashMap<String, Bitmap> map;
 
+	/**
+	 * 最多保存的别名数量
+	 */
+	private static final int MAX_ALIAS_SIZE = 512;
+
+	/**
+	 * 别名key -> 实际key，用于多个key共享同一个bitmap（如不同uri的图片内容相同），共享的bitmap只计算一次内存占用
+	 */
+	private final LinkedHashMap<String, String> aliases;
+
+	/**
+	 * 与map、aliases内容相同但不按访问排序，用于查询时不改变访问顺序（如查找占位图）
+	 */
+	private final HashMap<String, Bitmap> values = new HashMap<String, Bitmap>();
+	private final HashMap<String, String> aliasTargets = new HashMap<String, String>();
+
+	/**
+	 * 去掉目标大小后的key -> 同一图片不同目标大小的key（包括别名），用于查找同一图片其他大小的bitmap
+	 */
+	private final HashMap<String, Set<String>> variants = new HashMap<String, Set<String>>();
+
+	/**
+	 * 实际key -> 缓存期间被命中的次数，没有命中过的key不记录
+	 */
+	private final HashMap<String, Integer> entryHits = new HashMap<String, Integer>();
+
+	private volatile EvictionListener evictionListener;
+
+	/**
+	 * {@link EvictionPolicy#TINY_LFU}策略的状态，LRU时为null
+	 */
+	private TinyLfuPolicy tinyLfu;
+
 	public LruMemoryCache(Context context, int maxSize){
+		this(maxSize);
 		int memClass = ((ActivityManager)context.getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass();
+
+		Log.e(TAG, "ActivityManager--memClass->" + memClass);
+		Log.e(TAG, "RunTime--maxSize->" + maxSize);
+	}
+
+	/**
+	 * @param maxSize 允许占用内存的总量，不大于0时使用系统分配给本应用的1/8内存
+	 */
+	public LruMemoryCache(int maxSize){
+		this(maxSize, EvictionPolicy.LRU);
+	}
+
+	/**
+	 * @param maxSize 允许占用内存的总量，不大于0时使用系统分配给本应用的1/8内存
+	 * @param policy 淘汰策略
+	 */
+	public LruMemoryCache(int maxSize, EvictionPolicy policy){
 		if(maxSize <= 0){
 			//使用系统分配给本应用的1/8内存大小作为强引用的内存
 			this.maxSize = (int) (Runtime.getRuntime().maxMemory() / 8);
@@ -42,9 +129,6 @@ public class LruMemoryCache {
 			this.maxSize = maxSize;
 		}
 
-		Log.e(TAG, "ActivityManager--memClass->" + memClass);
-		Log.e(TAG, "RunTime--maxSize->" + maxSize);
-
 		/*初始化LinkedHashMap，
 		 * 第一个参数initialCapacity，作用是指定map初始容量；
 		 * 第二个参数loadFactor,作用是指定map的增长因子，即当前map的大小不够用是，增加initialCapacity * loadFactor大小的空间；
@@ -52,6 +136,43 @@ public class LruMemoryCache {
 		 * 注：通过源码可以看到，设置loadFactor已经没有意义了，因为默认只使用值为3/4的增长因子
 		 */
 		map = new LinkedHashMap<String, Bitmap>(0, 0.75f, true);
+		aliases = new LinkedHashMap<String, String>(0, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				if (size() > MAX_ALIAS_SIZE) {
+					aliasTargets.remove(eldest.getKey());
+					unindexVariant(eldest.getKey());
+					return true;
+				}
+				return false;
+			}
+		};
+		setEvictionPolicy(policy);
+	}
+
+	/**
+	 * 设置淘汰策略，应在开始加载图片前设置；切换时已缓存的bitmap按最近访问顺序保留
+	 * @param policy
+	 */
+	public synchronized void setEvictionPolicy(EvictionPolicy policy){
+		if(null == policy){
+			throw new NullPointerException("policy == null");
+		}
+		if(policy == getEvictionPolicy()){
+			return;
+		}
+		if(policy == EvictionPolicy.TINY_LFU){
+			tinyLfu = new TinyLfuPolicy(maxSize);
+			for(Map.Entry<String, Bitmap> entry : map.entrySet()){
+				tinyLfu.onPut(entry.getKey(), sizeOf(entry.getKey(), entry.getValue()));
+			}
+		}else{
+			tinyLfu = null;
+		}
+	}
+
+	public synchronized EvictionPolicy getEvictionPolicy(){
+		return null == tinyLfu ? EvictionPolicy.LRU : EvictionPolicy.TINY_LFU;
 	}
 
 	/**
@@ -67,9 +188,87 @@ public class LruMemoryCache {
 		}
 
 		synchronized (this) {
-			return map.get(key);
+			String entryKey = key;
+			Bitmap value = map.get(key);
+			if (null == value) {
+				String targetKey = aliases.get(key);
+				if (null != targetKey) {
+					entryKey = targetKey;
+					value = map.get(targetKey);
+					if (null == value) {
+						//实际key已被淘汰
+						removeAlias(key);
+						unindexVariant(key);
+					}
+				}
+			}
+			if (null != value) {
+				hitCount++;
+				Integer hits = entryHits.get(entryKey);
+				entryHits.put(entryKey, null == hits ? 1 : hits + 1);
+			} else {
+				missCount++;
+			}
+			if (null != tinyLfu) {
+				//未命中的请求也计入频率，反复请求的图片下次能留在缓存中
+				tinyLfu.recordRequest(entryKey);
+				if (null != value) {
+					tinyLfu.onHit(entryKey);
+				}
+			}
+			return value;
+		}
+
+	}
+
+	/**
+	 * 返回key（或别名）对应的bitmap，不计入命中率和淘汰策略的访问频率，也不改变访问顺序；
+	 * 用于加载流程内部的检查（如加载任务开始时再次确认缓存），避免同一次显示被{@link #get(String)}重复记录
+	 * @param key
+	 * @return 没有缓存时返回null
+	 */
+	public final Bitmap peek(String key){
+		if(TextUtils.isEmpty(key)){
+			throw new NullPointerException("key == null");
+		}
+
+		synchronized (this) {
+			Bitmap value = values.get(key);
+			if (null == value) {
+				String targetKey = aliasTargets.get(key);
+				value = null == targetKey ? null : values.get(targetKey);
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * 为已缓存的key添加别名，通过别名可以get到同一个bitmap，且不重复计算内存占用
+	 * @param aliasKey 别名
+	 * @param key 实际缓存bitmap的key
+	 */
+	public final void putAlias(String aliasKey, String key){
+		if(TextUtils.isEmpty(aliasKey) || TextUtils.isEmpty(key)){
+			throw new NullPointerException("aliasKey == null || key == null");
+		}
+		if (aliasKey.equals(key)) {
+			return;
 		}
 
+		synchronized (this) {
+			Bitmap previous = map.remove(aliasKey);
+			values.remove(aliasKey);
+			if(null != previous){
+				entryHits.remove(aliasKey);
+				if(null != tinyLfu){
+					tinyLfu.onRemove(aliasKey);
+				}
+				this.size = this.size - this.sizeOf(aliasKey, previous);
+			}
+			aliases.put(aliasKey, key);
+			aliasTargets.put(aliasKey, key);
+			indexVariant(aliasKey);
+		}
 	}
 
 	/**
@@ -83,30 +282,58 @@ public class LruMemoryCache {
 			throw new NullPointerException("key == null || value == null");
 		}
 
+		Bitmap previous;
 		synchronized (this) {
 			this.size = this.size + this.sizeOf(key, value);
+			if(null != tinyLfu){
+				tinyLfu.onPut(key, this.sizeOf(key, value));
+			}
 			//如果对应key已存在，则会返回原来key所对应的bitmap对象，不存在则返回null
-			Bitmap previous = map.put(key, value);
+			previous = map.put(key, value);
+			values.put(key, value);
+			removeAlias(key);
+			indexVariant(key);
+			if(null != previous && previous != value){
+				entryHits.remove(key);
+			}
 			if(null != previous){
 				//如果原来缓存中已存在该key，则当前缓存的大小应该是当前大小减去原来key所对应的bitmap的大小
 				//因为新put进去的value（Bitmap）会覆盖掉原来key所对应的bitmap
 				this.size = this.size - this.sizeOf(key, previous);
 			}
 		}
+		if(null != previous && previous != value){
+			this.entryRemoved(key, previous);
+		}
 
-		this.trimToSize(maxSize);
+		this.trimToSize(maxSize, true);
 
 		return true;
 	}
 
 	/**
-	 * 移除最久未访问的bitmap，知道剩下的所有bitmap所占内存不大于maxSize
+	 * 按比例裁剪缓存，按淘汰策略移除bitmap直到剩下的所占内存不大于当前的keepRatio，用于内存不足时释放内存
+	 * @param keepRatio 保留的比例，0则清空所有bitmap
+	 */
+	public void trimToRatio(float keepRatio){
+		int target;
+		synchronized (this) {
+			target = keepRatio <= 0 ? -1 : (int) (this.size * Math.min(keepRatio, 1f));
+		}
+		this.trimToSize(target, false);
+	}
+
+	/**
+	 * 按淘汰策略移除bitmap（LRU时移除最久未访问的），直到剩下的所有bitmap所占内存不大于maxSize
 	 * @param maxSize 最大内存容量，-1则会清空所有缓存
+	 * @param evicting 是否因超出容量而淘汰，是则回调{@link EvictionListener}
 	 */
-	private void trimToSize(int maxSize){
+	private void trimToSize(int maxSize, boolean evicting){
+		EvictionListener listener = evicting ? evictionListener : null;
 		while (true) {
 			String key;
 			Bitmap value;
+			Integer hits;
 			synchronized (this) {
 				if(this.size < 0 || (map.isEmpty() && this.size != 0)){
 					throw new IllegalStateException(getClass().getName() + ".sizeOf() is reporting inconsistent results!");
@@ -115,19 +342,38 @@ public class LruMemoryCache {
 					break;
 				}
 
-				Map.Entry<String, Bitmap> toEvict = map.entrySet().iterator().next();
-				if(null == toEvict){
+				if(null != tinyLfu){
+					key = tinyLfu.evict(maxSize);
+					value = null == key ? null : map.get(key);
+				}else{
+					Map.Entry<String, Bitmap> toEvict = map.entrySet().iterator().next();
+					key = null == toEvict ? null : toEvict.getKey();
+					value = null == toEvict ? null : toEvict.getValue();
+				}
+				if(null == value){
 					break;
 				}
-				key = toEvict.getKey();
-				value = toEvict.getValue();
 				map.remove(key);
+				values.remove(key);
+				unindexVariant(key);
+				hits = entryHits.remove(key);
 				this.size = this.size - this.sizeOf(key, value);
 			}
-
+			if (null != listener) {
+				listener.onEvicted(key, value, null == hits ? 0 : hits);
+			}
+			this.entryRemoved(key, value);
 		}
 	}
 
+	/**
+	 * 设置bitmap因超出容量被淘汰时的回调，如{@link RawPixelCache}
+	 * @param evictionListener null则不回调
+	 */
+	public void setEvictionListener(EvictionListener evictionListener) {
+		this.evictionListener = evictionListener;
+	}
+
 	/**
 	 * 如果缓存中存在key，则移除key及其对应的bitmap
 	 * @param key
@@ -138,15 +384,113 @@ public class LruMemoryCache {
 			throw new NullPointerException("key == null");
 		}
 
+		Bitmap previous;
 		synchronized (this) {
-			Bitmap previous = map.remove(key);
+			removeAlias(key);
+			unindexVariant(key);
+			previous = map.remove(key);
+			values.remove(key);
 			if(null != previous){
+				entryHits.remove(key);
+				if(null != tinyLfu){
+					tinyLfu.onRemove(key);
+				}
 				this.size = this.size - this.sizeOf(key, previous);
 			}
-			return previous;
+		}
+		if(null != previous){
+			this.entryRemoved(key, previous);
+		}
+		return previous;
+	}
+
+	/**
+	 * 查找同一图片其他目标大小的bitmap，用于在加载目标大小的图片时先显示作为占位图；
+	 * 优先返回不小于目标大小的最小bitmap（显示时缩小），没有时返回最大的bitmap（显示时放大）。不计入命中率统计，也不改变访问顺序
+	 * @param key 目标大小的内存缓存key
+	 * @param width 目标宽度
+	 * @param height 目标高度
+	 * @return 没有其他大小的bitmap时返回null
+	 */
+	public final Bitmap getClosestVariant(String key, int width, int height){
+		if(TextUtils.isEmpty(key)){
+			throw new NullPointerException("key == null");
+		}
+
+		synchronized (this) {
+			Set<String> keys = variants.get(FileNameGenerator.getMemoryCacheBaseKey(key));
+			if (null == keys) {
+				return null;
+			}
+			Bitmap larger = null;
+			Bitmap smaller = null;
+			for (Iterator<String> it = keys.iterator(); it.hasNext(); ) {
+				String variantKey = it.next();
+				Bitmap value = values.get(variantKey);
+				if (null == value) {
+					String targetKey = aliasTargets.get(variantKey);
+					value = null == targetKey ? null : values.get(targetKey);
+					if (null == value) {
+						//别名或其实际key已被淘汰
+						removeAlias(variantKey);
+						it.remove();
+						continue;
+					}
+				}
+				if (value.isRecycled()) {
+					continue;
+				}
+				if (value.getWidth() >= width && value.getHeight() >= height) {
+					if (null == larger || pixelsOf(value) < pixelsOf(larger)) {
+						larger = value;
+					}
+				} else if (null == smaller || pixelsOf(value) > pixelsOf(smaller)) {
+					smaller = value;
+				}
+			}
+			if (keys.isEmpty()) {
+				variants.remove(FileNameGenerator.getMemoryCacheBaseKey(key));
+			}
+			return null != larger ? larger : smaller;
+		}
+	}
+
+	private static long pixelsOf(Bitmap bitmap){
+		return (long) bitmap.getWidth() * bitmap.getHeight();
+	}
+
+	private void indexVariant(String key){
+		String baseKey = FileNameGenerator.getMemoryCacheBaseKey(key);
+		Set<String> keys = variants.get(baseKey);
+		if (null == keys) {
+			keys = new HashSet<String>(4);
+			variants.put(baseKey, keys);
+		}
+		keys.add(key);
+	}
+
+	private void removeAlias(String aliasKey){
+		aliases.remove(aliasKey);
+		aliasTargets.remove(aliasKey);
+	}
+
+	private void unindexVariant(String key){
+		String baseKey = FileNameGenerator.getMemoryCacheBaseKey(key);
+		Set<String> keys = variants.get(baseKey);
+		if (null != keys && keys.remove(key) && keys.isEmpty()) {
+			variants.remove(baseKey);
 		}
 	}
 
+	/**
+	 * bitmap被淘汰、移除或被同key的bitmap替换后回调，在锁外调用；默认不做任何处理，
+	 * 子类可以在这里回收不再被引用的bitmap（如交给{@link BitmapPool}复用）
+	 * @param key
+	 * @param oldValue
+	 */
+	protected void entryRemoved(String key, Bitmap oldValue){
+	}
+
 	public Collection<String> keys(){
 		synchronized (this) {
 			return new HashSet<String>(map.keySet());
@@ -157,20 +501,50 @@ public class LruMemoryCache {
 	 * 清空缓存
 	 */
 	public void clear(){
-		this.trimToSize(-1);
+		this.trimToSize(-1, false);
+		synchronized (this) {
+			aliases.clear();
+			aliasTargets.clear();
+			variants.clear();
+		}
+	}
+
+	/**
+	 * @return 命中次数
+	 */
+	public synchronized final int hitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return 未命中次数
+	 */
+	public synchronized final int missCount() {
+		return missCount;
+	}
+
+	/**
+	 * 清空命中率统计
+	 */
+	public synchronized final void resetStats() {
+		hitCount = 0;
+		missCount = 0;
 	}
 
 	/**
-	 * 返回bitamp的大小
+	 * 返回bitamp的大小，同一key的返回值在缓存期间不能改变；子类可以覆盖，如按其他方式计算容量
 	 * @param key
 	 * @param value
 	 * @return
 	 */
-	private int sizeOf(String key, Bitmap value){
+	protected int sizeOf(String key, Bitmap value){
 		return value.getRowBytes() * value.getHeight();
 	}
 
 	public synchronized final String toString(){
-		return String.format("LruMemoryCache[maxSize=%d]", maxSize);
+		int accesses = hitCount + missCount;
+		int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+		return String.format("LruMemoryCache[policy=%s,maxSize=%d,size=%d,hits=%d,misses=%d,hitRate=%d%%]",
+				getEvictionPolicy(), maxSize, size, hitCount, missCount, hitPercent);
 	}
 }
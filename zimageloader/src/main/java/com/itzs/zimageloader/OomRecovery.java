@@ -0,0 +1,117 @@
+package com.itzs.zimageloader;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 解码OOM后的恢复
+ * <p/>
+ * 每次OOM后按比例裁剪内存缓存（并清空瓦片缓存和bitmap池）释放内存，再以加倍的采样率重新解码，
+ * 最多重试{@link #getMaxRetries()}次；记录每一级重试成功的次数和最终放弃的次数，用于评估内存缓存的配置
+ * @author zhangshuo
+ */
+public class OomRecovery {
+
+    private static final String TAG = OomRecovery.class.getSimpleName();
+
+    /**
+     * 默认最多重试次数，采样率最多放大到8倍
+     */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    /**
+     * 每次重试多裁剪的内存缓存比例
+     */
+    private static final float TRIM_RATIO_PER_STEP = 0.25f;
+
+    private final LruMemoryCache memoryCache;
+    private final TileCache tileCache;
+    private final BitmapPool bitmapPool;
+    private final int maxRetries;
+
+    /**
+     * 第i级重试成功的次数，第0级为未发生OOM直接成功（不统计）
+     */
+    private final AtomicIntegerArray recoveredCounts;
+    private final AtomicInteger giveUpCount = new AtomicInteger();
+
+    public OomRecovery(LruMemoryCache memoryCache, TileCache tileCache, BitmapPool bitmapPool) {
+        this(memoryCache, tileCache, bitmapPool, DEFAULT_MAX_RETRIES);
+    }
+
+    public OomRecovery(LruMemoryCache memoryCache, TileCache tileCache, BitmapPool bitmapPool, int maxRetries) {
+        this.memoryCache = memoryCache;
+        this.tileCache = tileCache;
+        this.bitmapPool = bitmapPool;
+        this.maxRetries = maxRetries;
+        this.recoveredCounts = new AtomicIntegerArray(maxRetries + 1);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * 第step次重试前释放内存：瓦片缓存和bitmap池直接清空，内存缓存保留(1 - 0.25 * step)
+     *
+     * @param step 从1开始的重试次数
+     */
+    public void trim(int step) {
+        // 瓦片缓存移除的瓦片会放回bitmap池，必须先清空瓦片缓存再清空池
+        if (tileCache != null) {
+            tileCache.clear();
+        }
+        if (memoryCache != null) {
+            memoryCache.trimToRatio(Math.max(0f, 1f - TRIM_RATIO_PER_STEP * step));
+        }
+        if (bitmapPool != null) {
+            bitmapPool.clear();
+        }
+        Log.w(TAG, "OOM，裁剪缓存后第" + step + "次重试-->" + memoryCache);
+    }
+
+    /**
+     * 第step次重试时的采样率倍数
+     */
+    public static int sampleMultiplier(int step) {
+        return 1 << step;
+    }
+
+    /**
+     * 记录第step次重试后解码成功
+     */
+    public void recordRecovered(int step) {
+        if (step > 0 && step < recoveredCounts.length()) {
+            recoveredCounts.incrementAndGet(step);
+        }
+    }
+
+    /**
+     * 记录重试maxRetries次后仍然OOM
+     */
+    public void recordGiveUp() {
+        giveUpCount.incrementAndGet();
+    }
+
+    /**
+     * @param step 从1开始的重试次数
+     * @return 第step次重试后解码成功的次数
+     */
+    public int getRecoveredCount(int step) {
+        return recoveredCounts.get(step);
+    }
+
+    public int getGiveUpCount() {
+        return giveUpCount.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("OomRecovery[");
+        for (int step = 1; step < recoveredCounts.length(); step++) {
+            sb.append("step").append(step).append('=').append(recoveredCounts.get(step)).append(',');
+        }
+        return sb.append("giveUp=").append(giveUpCount.get()).append(']').toString();
+    }
+}
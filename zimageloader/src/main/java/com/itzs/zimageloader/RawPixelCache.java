@@ -0,0 +1,396 @@
+package com.itzs.zimageloader;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 解码后像素的磁盘缓存
+ * <p/>
+ * 内存缓存中被命中过的bitmap因超出容量被淘汰时，把像素原样（加上宽高、格式的文件头）写入磁盘；
+ * 再次加载时读取文件，用{@link Bitmap#copyPixelsFromBuffer(java.nio.Buffer)}恢复bitmap，不需要再解码JPEG。
+ * 文件比压缩后的图片大得多，使用单独的容量和LRU淘汰，与{@link LruDiskCache}互不影响。<br/>
+ * 作为{@link LruMemoryCache.EvictionListener}注册到内存缓存；淘汰时在调用线程复制像素（淘汰后bitmap可能被复用），写入文件在后台线程执行
+ * @author zhangshuo
+ */
+public class RawPixelCache implements LruMemoryCache.EvictionListener {
+
+    private static final String TAG = RawPixelCache.class.getSimpleName();
+
+    /**
+     * 被淘汰前至少命中的次数，默认1：只保存用户回看过的图片
+     */
+    public static final int DEFAULT_MIN_HITS = 1;
+
+    /** 文件头：magic、宽、高、bitmap格式、标记位 */
+    private static final int MAGIC = 0x5A524157; // "ZRAW"
+    private static final int HEADER_SIZE = 5 * 4;
+    private static final int FLAG_HAS_ALPHA = 1;
+    private static final String TEMP_FILE_POSTFIX = ".tmp";
+
+    private final File cacheDir;
+    private final long maxSize;
+    private final int minHits;
+    private final Executor writeExecutor;
+    private final BitmapPool bitmapPool;
+
+    /**
+     * 文件名 -> 文件大小，按访问顺序排序
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(0, 0.75f, true);
+    private long size;
+    /**
+     * 等待写入的文件名，同一bitmap不重复写入
+     */
+    private final Set<String> pendingWrites = Collections.synchronizedSet(new HashSet<String>());
+
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private final AtomicInteger writeCount = new AtomicInteger();
+    private final AtomicInteger droppedWriteCount = new AtomicInteger();
+    /**
+     * 是否已加载缓存目录中的已有文件
+     */
+    private final AtomicBoolean entriesLoaded = new AtomicBoolean();
+
+    /**
+     * @param cacheDir      缓存目录，不能与{@link LruDiskCache}共用
+     * @param maxSize       文件总大小上限，字节
+     * @param minHits       被淘汰前至少命中的次数
+     * @param writeExecutor 写入文件的线程池，队列应有界，队列满时放弃写入
+     * @param bitmapPool    恢复bitmap时优先复用的bitmap池，可为null
+     */
+    public RawPixelCache(File cacheDir, long maxSize, int minHits, Executor writeExecutor, BitmapPool bitmapPool) {
+        this.cacheDir = cacheDir;
+        this.maxSize = maxSize;
+        this.minHits = minHits;
+        this.writeExecutor = writeExecutor;
+        this.bitmapPool = bitmapPool;
+        if (!cacheDir.exists()) {
+            cacheDir.mkdirs();
+        }
+        loadEntries();
+    }
+
+    /**
+     * 在写入线程中加载已有文件；写入队列已满时，由之后的第一次写入加载
+     */
+    private void loadEntries() {
+        try {
+            writeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    loadEntriesIfNeeded();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "loadEntries--写入队列已满，在第一次写入时加载已有文件");
+        }
+    }
+
+    /**
+     * 按文件的最后修改时间恢复LRU顺序，删除未写完的临时文件，超过上限时淘汰；只在写入线程中调用，只执行一次
+     */
+    private void loadEntriesIfNeeded() {
+        if (!entriesLoaded.compareAndSet(false, true)) {
+            return;
+        }
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        synchronized (this) {
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_FILE_POSTFIX)) {
+                    file.delete();
+                } else if (!entries.containsKey(file.getName())) {
+                    // 先于加载写入的文件已经在entries中且顺序更新
+                    entries.put(file.getName(), file.length());
+                    size += file.length();
+                }
+            }
+        }
+        trimToSize();
+    }
+
+    @Override
+    public void onEvicted(String key, final Bitmap bitmap, int hits) {
+        if (hits < minHits || bitmap.isRecycled() || bitmap.getConfig() == null) {
+            return;
+        }
+        final String name = nameOf(key);
+        synchronized (this) {
+            if (entries.containsKey(name)) {
+                return;
+            }
+        }
+        if (!pendingWrites.add(name)) {
+            return;
+        }
+        //被淘汰的bitmap随后可能被放入bitmap池复用，在这里复制像素，写入线程不再访问bitmap
+        final ByteBuffer pixels;
+        try {
+            pixels = copyPixels(bitmap);
+        } catch (OutOfMemoryError e) {
+            pendingWrites.remove(name);
+            droppedWriteCount.incrementAndGet();
+            return;
+        }
+        try {
+            writeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        loadEntriesIfNeeded();
+                        write(name, pixels);
+                    } catch (IOException e) {
+                        Log.w(TAG, "write-->" + name, e);
+                    } finally {
+                        pendingWrites.remove(name);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingWrites.remove(name);
+            droppedWriteCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 把文件头和像素复制到堆内存中
+     *
+     * @return 可直接写入文件的数据
+     */
+    private static ByteBuffer copyPixels(Bitmap bitmap) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bitmap.getRowBytes() * bitmap.getHeight());
+        buffer.putInt(MAGIC)
+                .putInt(bitmap.getWidth())
+                .putInt(bitmap.getHeight())
+                .putInt(bitmap.getConfig().ordinal())
+                .putInt(bitmap.hasAlpha() ? FLAG_HAS_ALPHA : 0);
+        bitmap.copyPixelsToBuffer(buffer);
+        buffer.rewind();
+        return buffer;
+    }
+
+    /**
+     * 把像素写入临时文件，写完后重命名，读取时不会读到未写完的文件
+     */
+    private void write(String name, ByteBuffer data) throws IOException {
+        File file = new File(cacheDir, name);
+        File tmpFile = new File(cacheDir, name + TEMP_FILE_POSTFIX);
+        long length = data.remaining();
+        boolean written = false;
+        FileOutputStream os = new FileOutputStream(tmpFile);
+        try {
+            FileChannel channel = os.getChannel();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            written = true;
+        } finally {
+            IoUtils.closeSilently(os);
+            if (written && !tmpFile.renameTo(file)) {
+                written = false;
+            }
+            if (!written) {
+                tmpFile.delete();
+            }
+        }
+        if (!written) {
+            throw new IOException("Can't rename " + tmpFile + " to " + file);
+        }
+        synchronized (this) {
+            Long previous = entries.put(name, length);
+            size += length - (previous == null ? 0 : previous);
+        }
+        writeCount.incrementAndGet();
+        trimToSize();
+    }
+
+    /**
+     * 从磁盘恢复内存缓存key对应的bitmap
+     *
+     * @param key 内存缓存key
+     * @return 没有缓存或文件已损坏时返回null
+     */
+    public Bitmap get(String key) {
+        String name = nameOf(key);
+        synchronized (this) {
+            if (entries.get(name) == null) {
+                missCount.incrementAndGet();
+                return null;
+            }
+        }
+        File file = new File(cacheDir, name);
+        FileInputStream is = null;
+        Bitmap bitmap = null;
+        try {
+            is = new FileInputStream(file);
+            bitmap = restore(is.getChannel(), file.length());
+        } catch (IOException e) {
+            Log.w(TAG, "get-->" + key, e);
+        } finally {
+            IoUtils.closeSilently(is);
+        }
+        if (bitmap == null) {
+            remove(name);
+            missCount.incrementAndGet();
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        hitCount.incrementAndGet();
+        return bitmap;
+    }
+
+    /**
+     * 先读取文件头，再把像素读入堆内存恢复bitmap；不使用内存映射，读取后不占用映射的地址空间
+     *
+     * @param length 文件长度
+     * @return 文件头无效或文件不完整时返回null
+     */
+    private Bitmap restore(FileChannel channel, long length) throws IOException {
+        if (length < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (!readFully(channel, header)) {
+            return null;
+        }
+        header.flip();
+        int magic = header.getInt();
+        int width = header.getInt();
+        int height = header.getInt();
+        int configIndex = header.getInt();
+        int flags = header.getInt();
+        Bitmap.Config[] configs = Bitmap.Config.values();
+        long pixelBytes = length - HEADER_SIZE;
+        if (magic != MAGIC || width <= 0 || height <= 0 || configIndex < 0 || configIndex >= configs.length
+                || pixelBytes > Integer.MAX_VALUE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) pixelBytes);
+        if (!readFully(channel, buffer)) {
+            return null;
+        }
+        buffer.flip();
+        Bitmap bitmap = bitmapPool == null ? null : bitmapPool.get(width, height, configs[configIndex]);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, configs[configIndex]);
+        }
+        if ((long) bitmap.getRowBytes() * height > pixelBytes) {
+            bitmap.recycle();
+            return null;
+        }
+        bitmap.copyPixelsFromBuffer(buffer);
+        bitmap.setHasAlpha((flags & FLAG_HAS_ALPHA) != 0);
+        return bitmap;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void remove(String name) {
+        synchronized (this) {
+            Long length = entries.remove(name);
+            if (length != null) {
+                size -= length;
+            }
+        }
+        new File(cacheDir, name).delete();
+    }
+
+    private void trimToSize() {
+        while (true) {
+            String name;
+            synchronized (this) {
+                if (size <= maxSize || entries.isEmpty()) {
+                    return;
+                }
+                Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+                Map.Entry<String, Long> eldest = it.next();
+                name = eldest.getKey();
+                size -= eldest.getValue();
+                it.remove();
+            }
+            new File(cacheDir, name).delete();
+        }
+    }
+
+    /**
+     * 删除所有文件，正在写入的文件写完后仍会保存
+     */
+    public void clear() {
+        synchronized (this) {
+            entries.clear();
+            size = 0;
+        }
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * 内存缓存key可能包含任意字符且较长，使用MD5作为文件名
+     */
+    private static String nameOf(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(key.hashCode());
+        } catch (IOException e) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        int hits = hitCount.get();
+        int accesses = hits + missCount.get();
+        int hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+        return String.format("RawPixelCache[maxSize=%d,size=%d,hits=%d,misses=%d,hitRate=%d%%,writes=%d,droppedWrites=%d]",
+                maxSize, size, hits, accesses - hits, hitPercent, writeCount.get(), droppedWriteCount.get());
+    }
+}
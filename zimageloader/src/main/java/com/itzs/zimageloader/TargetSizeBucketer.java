@@ -0,0 +1,83 @@
+package com.itzs.zimageloader;
+
+/**
+ * 目标大小分档
+ * <p/>
+ * 内存缓存key包含目标大小，大小相近的view（如358x358和360x360）会生成不同的key并各自解码同一张图片；
+ * 生成缓存key之前将目标大小向上取整到档位，大小相近的请求共享同一个缓存的bitmap。
+ * 只向上取整，解码的图片不会小于view的大小
+ * @author zhangshuo
+ */
+public class TargetSizeBucketer {
+
+    /**
+     * 按等比分档时的最小档位
+     */
+    private static final int MIN_GEOMETRIC_BUCKET = 16;
+
+    private final int step;
+    private final float ratio;
+
+    private TargetSizeBucketer(int step, float ratio) {
+        this.step = step;
+        this.ratio = ratio;
+    }
+
+    /**
+     * 按固定步长分档，如step为32时，321~352都取352
+     *
+     * @param step 步长，像素
+     */
+    public static TargetSizeBucketer step(int step) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("step must be positive");
+        }
+        return new TargetSizeBucketer(step, 0);
+    }
+
+    /**
+     * 按等比分档，档位为16、16*ratio、16*ratio^2...，大尺寸的档位间隔更大；
+     * ratio为2时档位即解码采样率的边界
+     *
+     * @param ratio 相邻档位的比例，大于1
+     */
+    public static TargetSizeBucketer geometric(float ratio) {
+        if (ratio <= 1f) {
+            throw new IllegalArgumentException("ratio must be greater than 1");
+        }
+        return new TargetSizeBucketer(0, ratio);
+    }
+
+    /**
+     * @param size 目标宽度或高度
+     * @return 不小于size的档位；size不大于0时原样返回
+     */
+    public int bucket(int size) {
+        if (size <= 0) {
+            return size;
+        }
+        if (step > 0) {
+            return (size + step - 1) / step * step;
+        }
+        float bucket = MIN_GEOMETRIC_BUCKET;
+        while (Math.round(bucket) < size) {
+            bucket *= ratio;
+        }
+        return Math.round(bucket);
+    }
+
+    /**
+     * 将目标大小的宽度和高度分别取整到档位
+     *
+     * @param targetSize 0 width，1 height，会被直接修改
+     */
+    public void bucket(int[] targetSize) {
+        targetSize[0] = bucket(targetSize[0]);
+        targetSize[1] = bucket(targetSize[1]);
+    }
+
+    @Override
+    public String toString() {
+        return step > 0 ? "TargetSizeBucketer[step=" + step + "]" : "TargetSizeBucketer[ratio=" + ratio + "]";
+    }
+}
@@ -0,0 +1,62 @@
+package com.itzs.zimageloader;
+
+import android.graphics.Bitmap;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 大图图块的内存缓存
+ * <p/>
+ * 与显示图片的{@link LruMemoryCache}分开，避免平移、缩放大图时挤掉普通图片；
+ * 被淘汰的图块只被{@link TiledImage}引用，直接放回{@link BitmapPool}供下一个图块复用；
+ * 正在显示的图块被淘汰时不放回，以免被复用后显示错误的内容
+ * @author zhangshuo
+ */
+public class TileCache extends LruMemoryCache {
+
+    private final BitmapPool bitmapPool;
+
+    /**
+     * 正在显示的图块
+     */
+    private final Set<String> pinnedKeys = new HashSet<String>();
+
+    /**
+     * @param maxSize    允许占用内存的总量
+     * @param bitmapPool 被淘汰的图块放入的bitmap池，可为null
+     */
+    public TileCache(int maxSize, BitmapPool bitmapPool) {
+        super(maxSize);
+        this.bitmapPool = bitmapPool;
+    }
+
+    /**
+     * 标记正在显示的图块
+     *
+     * @param unpinKeys 不再显示的图块，可为null
+     * @param pinKeys   正在显示的图块，可为null
+     */
+    void updatePinned(Collection<String> unpinKeys, Collection<String> pinKeys) {
+        synchronized (pinnedKeys) {
+            if (unpinKeys != null) {
+                pinnedKeys.removeAll(unpinKeys);
+            }
+            if (pinKeys != null) {
+                pinnedKeys.addAll(pinKeys);
+            }
+        }
+    }
+
+    @Override
+    protected void entryRemoved(String key, Bitmap oldValue) {
+        boolean pinned;
+        synchronized (pinnedKeys) {
+            pinned = pinnedKeys.contains(key);
+        }
+        if (bitmapPool != null && !pinned) {
+            bitmapPool.put(oldValue);
+        }
+    }
+}
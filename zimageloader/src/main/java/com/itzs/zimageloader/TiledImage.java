@@ -0,0 +1,277 @@
+package com.itzs.zimageloader;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.util.Log;
+
+import com.itzs.zimageloader.decoder.TileDecoder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 按图块显示的大图（长图、全景图、扫描件等）
+ * <p/>
+ * 只解码当前可见区域，根据显示比例选择采样率：图片被缩小显示时用较大的采样率解码较少的像素，放大时用原始分辨率；
+ * 图块缓存在{@link TileCache}中，缺少的图块提交到解码线程池并行解码，解码完成后在主线程回调{@link OnTileLoadedListener}。<br/>
+ * 使用方式：View在onDraw中调用{@link #getTiles(Rect, float, OnTileLoadedListener)}取得可见区域的图块并绘制已解码的图块，
+ * 在onTileLoaded中invalidate；还没解码的图块可以先用{@link ImageLoader#displayImage}显示的整图垫底。
+ * 不再显示时调用{@link #recycle()}
+ * @author zhangshuo
+ */
+public class TiledImage {
+
+    private static final String TAG = TiledImage.class.getSimpleName();
+
+    /** 图块解码后的边长 */
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * 大图打开结果的回调，在主线程调用
+     */
+    public interface OnOpenListener {
+        void onOpened(String imageUri, TiledImage image);
+
+        void onOpenFailed(String imageUri, FailReason failReason);
+    }
+
+    /**
+     * 图块解码完成的回调，在主线程调用
+     */
+    public interface OnTileLoadedListener {
+        void onTileLoaded(TiledImage image, Tile tile);
+    }
+
+    /**
+     * 图块
+     */
+    public static class Tile {
+        private final String key;
+        private final int sampleSize;
+        private final Rect region;
+        private volatile Bitmap bitmap;
+
+        Tile(String key, int sampleSize, Rect region, Bitmap bitmap) {
+            this.key = key;
+            this.sampleSize = sampleSize;
+            this.region = region;
+            this.bitmap = bitmap;
+        }
+
+        public int getSampleSize() {
+            return sampleSize;
+        }
+
+        /**
+         * @return 图块在原图坐标系中的区域
+         */
+        public Rect getRegion() {
+            return region;
+        }
+
+        /**
+         * @return 图块的bitmap，还没解码时为null；只能在取得图块的这一帧中绘制，不能长期持有
+         */
+        public Bitmap getBitmap() {
+            return bitmap;
+        }
+    }
+
+    private final String imageUri;
+    private final TileDecoder decoder;
+    private final TileCache tileCache;
+    private final BitmapPool bitmapPool;
+    private final ImageLoaderEngine engine;
+    private final Handler handler;
+    private final String keyPrefix;
+
+    private volatile Bitmap.Config config = Bitmap.Config.ARGB_8888;
+
+    /**
+     * 当前可见的图块，不在其中的图块解码任务会被跳过
+     */
+    private Set<String> visibleKeys = Collections.emptySet();
+    /**
+     * 正在解码的图块
+     */
+    private final Set<String> pendingKeys = new HashSet<String>();
+    private boolean recycled;
+
+    TiledImage(String imageUri, TileDecoder decoder, TileCache tileCache, BitmapPool bitmapPool,
+               ImageLoaderEngine engine, Handler handler) {
+        this.imageUri = imageUri;
+        this.decoder = decoder;
+        this.tileCache = tileCache;
+        this.bitmapPool = bitmapPool;
+        this.engine = engine;
+        this.handler = handler;
+        this.keyPrefix = "tile:" + System.identityHashCode(this) + ":" + imageUri + "#";
+    }
+
+    public String getImageUri() {
+        return imageUri;
+    }
+
+    public int getWidth() {
+        return decoder.getWidth();
+    }
+
+    public int getHeight() {
+        return decoder.getHeight();
+    }
+
+    /**
+     * 设置图块的bitmap格式，默认ARGB_8888；不透明的图片使用RGB_565可节省一半内存
+     */
+    public void setConfig(Bitmap.Config config) {
+        this.config = config;
+    }
+
+    /**
+     * 根据显示比例计算采样率：不超过1/scale的最大的2的幂
+     *
+     * @param scale 显示大小与原图大小的比例
+     * @return
+     */
+    public static int computeSampleSize(float scale) {
+        int sampleSize = 1;
+        if (scale <= 0) {
+            return sampleSize;
+        }
+        while (sampleSize * 2 * scale <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 返回覆盖可见区域的图块，并提交缺少的图块的解码任务；在主线程调用
+     *
+     * @param visibleRect 可见区域，原图坐标系
+     * @param scale       显示大小与原图大小的比例
+     * @param listener    图块解码完成的回调
+     * @return 可见区域的图块，还没解码的图块bitmap为null
+     */
+    public List<Tile> getTiles(Rect visibleRect, float scale, OnTileLoadedListener listener) {
+        List<Tile> tiles = new ArrayList<Tile>();
+        int width = getWidth();
+        int height = getHeight();
+        int left = Math.max(0, visibleRect.left);
+        int top = Math.max(0, visibleRect.top);
+        int right = Math.min(width, visibleRect.right);
+        int bottom = Math.min(height, visibleRect.bottom);
+        if (left >= right || top >= bottom) {
+            updateVisibleKeys(Collections.<String>emptySet());
+            return tiles;
+        }
+
+        int sampleSize = computeSampleSize(scale);
+        int span = TILE_SIZE * sampleSize;
+        Set<String> keys = new HashSet<String>();
+        List<Tile> missing = new ArrayList<Tile>();
+        for (int y = top / span * span; y < bottom; y += span) {
+            for (int x = left / span * span; x < right; x += span) {
+                String key = keyPrefix + sampleSize + ":" + x + "," + y;
+                Rect region = new Rect(x, y, Math.min(x + span, width), Math.min(y + span, height));
+                Tile tile = new Tile(key, sampleSize, region, tileCache.get(key));
+                tiles.add(tile);
+                keys.add(key);
+                if (tile.bitmap == null) {
+                    missing.add(tile);
+                }
+            }
+        }
+        updateVisibleKeys(keys);
+        for (Tile tile : missing) {
+            submitDecode(tile, listener);
+        }
+        return tiles;
+    }
+
+    private void updateVisibleKeys(Set<String> keys) {
+        Collection<String> previous;
+        synchronized (this) {
+            previous = visibleKeys;
+            visibleKeys = keys;
+        }
+        tileCache.updatePinned(previous, keys);
+    }
+
+    private void submitDecode(final Tile tile, final OnTileLoadedListener listener) {
+        synchronized (this) {
+            if (recycled || !pendingKeys.add(tile.key)) {
+                return;
+            }
+        }
+        engine.submitDecode(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    synchronized (TiledImage.this) {
+                        if (recycled || !visibleKeys.contains(tile.key)) {
+                            //已经平移、缩放到其他区域
+                            return;
+                        }
+                    }
+                    Bitmap bitmap = decoder.decodeRegion(tile.region, tile.sampleSize, config, bitmapPool);
+                    if (bitmap == null) {
+                        return;
+                    }
+                    synchronized (TiledImage.this) {
+                        if (recycled) {
+                            bitmapPool.put(bitmap);
+                            return;
+                        }
+                    }
+                    tileCache.put(tile.key, bitmap);
+                    tile.bitmap = bitmap;
+                    if (listener != null) {
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.onTileLoaded(TiledImage.this, tile);
+                            }
+                        });
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "decodeTile--" + tile.region + "-->" + imageUri, e);
+                } catch (OutOfMemoryError e) {
+                    Log.e(TAG, "decodeTile--OOM-->" + imageUri, e);
+                    bitmapPool.clear();
+                } finally {
+                    synchronized (TiledImage.this) {
+                        pendingKeys.remove(tile.key);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 释放区域解码器，并将该图片的图块放回bitmap池；之后不能再使用
+     */
+    public void recycle() {
+        Collection<String> previous;
+        synchronized (this) {
+            if (recycled) {
+                return;
+            }
+            recycled = true;
+            previous = visibleKeys;
+            visibleKeys = Collections.emptySet();
+        }
+        decoder.recycle();
+        tileCache.updatePinned(previous, null);
+        for (String key : tileCache.keys()) {
+            if (key.startsWith(keyPrefix)) {
+                tileCache.remove(key);
+            }
+        }
+    }
+}
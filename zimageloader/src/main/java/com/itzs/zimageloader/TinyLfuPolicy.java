@@ -0,0 +1,254 @@
+package com.itzs.zimageloader;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * W-TinyLFU淘汰策略，供{@link LruMemoryCache}使用，只记录key和大小，由缓存在持有锁时调用
+ * <p/>
+ * 缓存分为窗口区和主区：新bitmap先进入按LRU淘汰的窗口区，窗口区超出容量时，最久未访问的bitmap作为候选者，
+ * 与主区最久未访问的bitmap比较访问频率（由{@link FrequencySketch}估算，包括未命中的请求），频率高的留下；
+ * 主区分为试用段和保护段，试用段中再次被访问的bitmap进入保护段。<br/>
+ * 快速滑动长列表时每张图片只被访问一次，频率低，只会在窗口区中互相淘汰，不会挤掉每个页面都在用的头像、标题图
+ * @author zhangshuo
+ */
+final class TinyLfuPolicy {
+
+    /**
+     * 窗口区占总容量的比例。bitmap远大于普通缓存的条目，按常用的1%窗口区放不下一张图片，这里取较大的比例
+     */
+    static final float WINDOW_RATIO = 0.1f;
+    /**
+     * 保护段占主区容量的比例
+     */
+    static final float PROTECTED_RATIO = 0.8f;
+    /**
+     * 估算条目数时假设的平均bitmap大小，只影响频率统计表的大小
+     */
+    private static final int ESTIMATED_ENTRY_SIZE = 16 * 1024;
+
+    private final Segment window = new Segment();
+    private final Segment probation = new Segment();
+    private final Segment protect = new Segment();
+
+    private final int windowMaxSize;
+    private final int protectedMaxSize;
+    private final FrequencySketch sketch;
+
+    /**
+     * @param maxSize 缓存的容量，字节
+     */
+    TinyLfuPolicy(int maxSize) {
+        this.windowMaxSize = Math.max(1, (int) (maxSize * WINDOW_RATIO));
+        this.protectedMaxSize = (int) ((maxSize - windowMaxSize) * PROTECTED_RATIO);
+        this.sketch = new FrequencySketch(Math.max(1, maxSize / ESTIMATED_ENTRY_SIZE));
+    }
+
+    /**
+     * 记录一次请求，命中和未命中都要记录
+     *
+     * @param key 命中时为实际key
+     */
+    void recordRequest(String key) {
+        sketch.increment(key);
+    }
+
+    /**
+     * 缓存命中，调整key在所在区段中的位置
+     */
+    void onHit(String key) {
+        Integer size = window.remove(key);
+        if (null != size) {
+            window.put(key, size);
+            return;
+        }
+        size = probation.remove(key);
+        if (null != size) {
+            protect.put(key, size);
+            //保护段超出容量时，最久未访问的退回试用段
+            while (protect.size > protectedMaxSize && protect.map.size() > 1) {
+                Map.Entry<String, Integer> eldest = protect.eldest();
+                protect.remove(eldest.getKey());
+                probation.put(eldest.getKey(), eldest.getValue());
+            }
+            return;
+        }
+        size = protect.remove(key);
+        if (null != size) {
+            protect.put(key, size);
+        }
+    }
+
+    /**
+     * 添加新bitmap或替换已有key的bitmap；新bitmap进入窗口区，替换时保留所在区段
+     */
+    void onPut(String key, int size) {
+        for (Segment segment : new Segment[]{window, probation, protect}) {
+            if (null != segment.remove(key)) {
+                segment.put(key, size);
+                return;
+            }
+        }
+        window.put(key, size);
+    }
+
+    void onRemove(String key) {
+        if (null == window.remove(key) && null == probation.remove(key)) {
+            protect.remove(key);
+        }
+    }
+
+    /**
+     * 选出下一个淘汰的key并从策略中移除，缓存超出容量时调用
+     *
+     * @param maxSize 此次裁剪的目标大小，通常为缓存容量；主区可占用其中窗口区以外的部分
+     * @return 没有任何条目时返回null
+     */
+    String evict(int maxSize) {
+        int mainMaxSize = maxSize - windowMaxSize;
+        while (window.size > windowMaxSize && !window.map.isEmpty()) {
+            Map.Entry<String, Integer> candidate = window.eldest();
+            Map.Entry<String, Integer> victim = mainEldest();
+            if (null == victim || probation.size + protect.size + candidate.getValue() <= mainMaxSize) {
+                //主区还有空间，候选者直接进入试用段
+                window.remove(candidate.getKey());
+                probation.put(candidate.getKey(), candidate.getValue());
+                continue;
+            }
+            if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+                String victimKey = victim.getKey();
+                onRemove(victimKey);
+                window.remove(candidate.getKey());
+                probation.put(candidate.getKey(), candidate.getValue());
+                return victimKey;
+            }
+            String candidateKey = candidate.getKey();
+            window.remove(candidateKey);
+            return candidateKey;
+        }
+        Map.Entry<String, Integer> victim = mainEldest();
+        if (null == victim) {
+            victim = window.eldest();
+        }
+        if (null == victim) {
+            return null;
+        }
+        String victimKey = victim.getKey();
+        onRemove(victimKey);
+        return victimKey;
+    }
+
+    private Map.Entry<String, Integer> mainEldest() {
+        Map.Entry<String, Integer> eldest = probation.eldest();
+        return null != eldest ? eldest : protect.eldest();
+    }
+
+    /**
+     * 按插入顺序排列的key -> 大小，最久未访问的在头部
+     */
+    private static final class Segment {
+        final LinkedHashMap<String, Integer> map = new LinkedHashMap<String, Integer>();
+        int size;
+
+        Integer remove(String key) {
+            Integer value = map.remove(key);
+            if (null != value) {
+                size -= value;
+            }
+            return value;
+        }
+
+        void put(String key, int value) {
+            map.put(key, value);
+            size += value;
+        }
+
+        Map.Entry<String, Integer> eldest() {
+            Iterator<Map.Entry<String, Integer>> it = map.entrySet().iterator();
+            return it.hasNext() ? it.next() : null;
+        }
+    }
+
+    /**
+     * 4位计数的Count-Min Sketch，估算key近期被请求的次数；
+     * 记录次数达到条目数的10倍时所有计数减半，使频率随时间衰减，过去的热门图片不会永远占着缓存
+     */
+    static final class FrequencySketch {
+
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final int MAX_COUNT = 15;
+
+        /** 每个long保存16个4位计数 */
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int additions;
+
+        /**
+         * @param expectedEntries 缓存预计保存的条目数
+         */
+        FrequencySketch(int expectedEntries) {
+            int length = Integer.highestOneBit(Math.max(16, expectedEntries) - 1) << 1;
+            table = new long[length];
+            tableMask = length - 1;
+            sampleSize = 10 * Math.max(16, expectedEntries);
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int start = (hash & 3) << 2;
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private boolean incrementAt(int index, int counter) {
+            int offset = counter << 2;
+            long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
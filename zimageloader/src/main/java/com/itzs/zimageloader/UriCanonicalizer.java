@@ -0,0 +1,217 @@
+package com.itzs.zimageloader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 缓存key的uri规范化
+ * <p/>
+ * 同一张图片的uri可能有多种写法（scheme/host大小写、默认端口、查询参数顺序、统计参数等），直接作为缓存key会导致重复下载和缓存；
+ * 在生成缓存key之前将http/https uri规范化：
+ * <ul>
+ * <li>scheme和host转为小写</li>
+ * <li>去掉默认端口（http:80，https:443）</li>
+ * <li>去掉#之后的片段</li>
+ * <li>去掉配置的查询参数，并按参数名排序</li>
+ * <li>可选：http和https视为同一地址</li>
+ * </ul>
+ * 规范化的结果只用作缓存key，实际下载仍使用原uri
+ * @author zhangshuo
+ */
+public class UriCanonicalizer {
+
+    private static final String HTTP_PREFIX = "http://";
+    private static final String HTTPS_PREFIX = "https://";
+
+    private final Set<String> strippedParams = Collections.synchronizedSet(new HashSet<String>());
+    private final List<String> strippedParamPrefixes = Collections.synchronizedList(new ArrayList<String>());
+    private volatile boolean unifyHttpScheme;
+    private volatile boolean sortQueryParams = true;
+
+    /** 最多记录的规范化uri数量，超出后淘汰最久未出现的 */
+    private static final int MAX_TRACKED_URIS = 512;
+
+    /**
+     * 规范化uri -> 出现过的不同原uri写法，用于统计因规范化而合并的写法数量
+     */
+    private final LinkedHashMap<String, Set<String>> rawForms = new LinkedHashMap<String, Set<String>>(0, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+            return size() > MAX_TRACKED_URIS;
+        }
+    };
+    /** 与已出现的写法规范化为同一uri的新写法数量 */
+    private final AtomicInteger collapsedCount = new AtomicInteger();
+
+    private static final Comparator<String> PARAM_NAME_COMPARATOR = new Comparator<String>() {
+        @Override
+        public int compare(String lhs, String rhs) {
+            return getParamName(lhs).compareTo(getParamName(rhs));
+        }
+    };
+
+    /**
+     * 生成缓存key时去掉的查询参数，如"t"、"token"
+     */
+    public UriCanonicalizer stripParam(String name) {
+        strippedParams.add(name);
+        return this;
+    }
+
+    /**
+     * 生成缓存key时去掉以prefix开头的查询参数，如"utm_"
+     */
+    public UriCanonicalizer stripParamPrefix(String prefix) {
+        strippedParamPrefixes.add(prefix);
+        return this;
+    }
+
+    /**
+     * 是否将http和https视为同一地址，默认false
+     */
+    public UriCanonicalizer setUnifyHttpScheme(boolean unifyHttpScheme) {
+        this.unifyHttpScheme = unifyHttpScheme;
+        return this;
+    }
+
+    /**
+     * 是否按参数名对查询参数排序，默认true
+     */
+    public UriCanonicalizer setSortQueryParams(boolean sortQueryParams) {
+        this.sortQueryParams = sortQueryParams;
+        return this;
+    }
+
+    /**
+     * @return 与之前出现过的写法不同、但规范化为同一uri的写法数量，即因规范化而没有重复下载和缓存的图片数；
+     * 同一写法多次出现只计一次
+     */
+    public int getCollapsedCount() {
+        return collapsedCount.get();
+    }
+
+    /**
+     * 规范化uri，非http/https的uri原样返回
+     * @param uri
+     * @return
+     */
+    public String canonicalize(String uri) {
+        if (uri == null) return null;
+        String lower = uri.length() > HTTPS_PREFIX.length()
+                ? uri.substring(0, HTTPS_PREFIX.length()).toLowerCase(Locale.US) : uri.toLowerCase(Locale.US);
+        String scheme;
+        int authorityStart;
+        if (lower.startsWith(HTTP_PREFIX)) {
+            scheme = unifyHttpScheme ? "https" : "http";
+            authorityStart = HTTP_PREFIX.length();
+        } else if (lower.startsWith(HTTPS_PREFIX)) {
+            scheme = "https";
+            authorityStart = HTTPS_PREFIX.length();
+        } else {
+            return uri;
+        }
+
+        String rest = uri.substring(authorityStart);
+        int fragmentIndex = rest.indexOf('#');
+        if (fragmentIndex >= 0) {
+            rest = rest.substring(0, fragmentIndex);
+        }
+        int authorityEnd = rest.length();
+        for (int i = 0; i < rest.length(); i++) {
+            char c = rest.charAt(i);
+            if (c == '/' || c == '?') {
+                authorityEnd = i;
+                break;
+            }
+        }
+        String authority = rest.substring(0, authorityEnd).toLowerCase(Locale.US);
+        if (authority.endsWith(":80") && (lower.startsWith(HTTP_PREFIX))
+                || authority.endsWith(":443") && lower.startsWith(HTTPS_PREFIX)) {
+            authority = authority.substring(0, authority.lastIndexOf(':'));
+        }
+
+        String pathAndQuery = rest.substring(authorityEnd);
+        String path = pathAndQuery;
+        String query = null;
+        int queryIndex = pathAndQuery.indexOf('?');
+        if (queryIndex >= 0) {
+            path = pathAndQuery.substring(0, queryIndex);
+            query = pathAndQuery.substring(queryIndex + 1);
+        }
+        if (path.length() == 0) {
+            path = "/";
+        }
+
+        StringBuilder sb = new StringBuilder(uri.length());
+        sb.append(scheme).append("://").append(authority).append(path);
+        if (query != null) {
+            String canonicalQuery = canonicalizeQuery(query);
+            if (canonicalQuery.length() > 0) {
+                sb.append('?').append(canonicalQuery);
+            }
+        }
+        String result = sb.toString();
+        recordRawForm(result, uri);
+        return result;
+    }
+
+    private void recordRawForm(String canonical, String raw) {
+        synchronized (rawForms) {
+            Set<String> forms = rawForms.get(canonical);
+            if (forms == null) {
+                forms = new HashSet<String>(2);
+                rawForms.put(canonical, forms);
+            }
+            if (forms.add(raw) && forms.size() > 1) {
+                collapsedCount.incrementAndGet();
+            }
+        }
+    }
+
+    private String canonicalizeQuery(String query) {
+        List<String> params = new ArrayList<String>();
+        for (String param : query.split("&")) {
+            if (param.length() == 0 || isStripped(getParamName(param))) {
+                continue;
+            }
+            params.add(param);
+        }
+        if (sortQueryParams) {
+            // 稳定排序，同名参数保持原有顺序
+            Collections.sort(params, PARAM_NAME_COMPARATOR);
+        }
+        StringBuilder sb = new StringBuilder(query.length());
+        for (int i = 0; i < params.size(); i++) {
+            if (i > 0) sb.append('&');
+            sb.append(params.get(i));
+        }
+        return sb.toString();
+    }
+
+    private boolean isStripped(String name) {
+        if (strippedParams.contains(name)) {
+            return true;
+        }
+        synchronized (strippedParamPrefixes) {
+            for (String prefix : strippedParamPrefixes) {
+                if (name.startsWith(prefix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String getParamName(String param) {
+        int index = param.indexOf('=');
+        return index >= 0 ? param.substring(0, index) : param;
+    }
+}
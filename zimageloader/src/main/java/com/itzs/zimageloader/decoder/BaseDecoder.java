@@ -19,9 +19,6 @@ import java.io.IOException;
 
 import android.graphics.Bitmap;
 
-import com.itzs.zimageloader.view.ImageViewAware;
-import com.itzs.zimageloader.downloader.BaseDownloader;
-
 /**
  * Provide decoding image to result {@link Bitmap}.
  *
@@ -34,9 +31,9 @@ public interface BaseDecoder {
 	/**
 	 * Decodes image to {@link Bitmap} according target size and other parameters.
 	 *
-	 * @param imageDecodingInfo
+	 * @param decodingInfo
 	 * @return
 	 * @throws IOException
 	 */
-	Bitmap decode(String uri, ImageViewAware imageAware, BaseDownloader downloader, Object extraForDownloader) throws IOException;
+	Bitmap decode(ImageDecodingInfo decodingInfo) throws IOException;
 }
@@ -0,0 +1,42 @@
+package com.itzs.zimageloader.decoder;
+
+import android.graphics.Bitmap;
+
+/**
+ * 解码时bitmap格式的选择策略
+ * <p/>
+ * RGB_565每个像素2个字节，是ARGB_8888的一半，但没有透明通道，渐变色会有色带；
+ * 有透明像素的图片总是使用ARGB_8888
+ * @author zhangshuo
+ */
+public enum BitmapConfigPolicy {
+    /**
+     * 总是使用ARGB_8888
+     */
+    QUALITY,
+    /**
+     * 不透明的JPEG使用RGB_565，其他图片使用ARGB_8888；JPEG本身是有损压缩，RGB_565的损失不明显
+     */
+    BALANCED,
+    /**
+     * 所有不透明的图片都使用RGB_565
+     */
+    LOW_MEMORY;
+
+    /**
+     * 根据图片文件头选择bitmap格式
+     *
+     * @param header              图片文件头，为null时按有透明处理
+     * @param fullQualityRequired 是否必须显示原图质量（如放大查看），为true时总是使用ARGB_8888
+     * @return
+     */
+    public Bitmap.Config chooseConfig(ImageHeader header, boolean fullQualityRequired) {
+        if (this == QUALITY || fullQualityRequired || header == null || header.hasAlpha()) {
+            return Bitmap.Config.ARGB_8888;
+        }
+        if (this == BALANCED && header.getFormat() != ImageHeader.Format.JPEG) {
+            return Bitmap.Config.ARGB_8888;
+        }
+        return Bitmap.Config.RGB_565;
+    }
+}
@@ -0,0 +1,45 @@
+package com.itzs.zimageloader.decoder;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapFactory.Options;
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 通过{@link BitmapFactory}解码，不支持区域解码；PNG、WebP、BMP、GIF以及无法识别的格式使用
+ * @author zhangshuo
+ */
+public class BitmapFactoryDecoder implements FormatDecoder {
+
+    private final boolean sampledDecode;
+
+    /**
+     * @param sampledDecode 该格式是否在解码过程中采样，见{@link #supportsSampledDecode()}
+     */
+    public BitmapFactoryDecoder(boolean sampledDecode) {
+        this.sampledDecode = sampledDecode;
+    }
+
+    @Override
+    public boolean supportsSampledDecode() {
+        return sampledDecode;
+    }
+
+    @Override
+    public boolean supportsRegionDecode() {
+        return false;
+    }
+
+    @Override
+    public Bitmap decode(InputStream imageStream, Options decodingOptions) throws IOException {
+        return BitmapFactory.decodeStream(imageStream, null, decodingOptions);
+    }
+
+    @Override
+    public Bitmap decodeRegion(InputStream imageStream, Rect region, Options decodingOptions) throws IOException {
+        throw new UnsupportedOperationException("Region decoding is not supported by " + getClass().getSimpleName());
+    }
+}
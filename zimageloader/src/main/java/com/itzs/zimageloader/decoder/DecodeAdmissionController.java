@@ -0,0 +1,134 @@
+package com.itzs.zimageloader.decoder;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory.Options;
+
+import java.util.LinkedList;
+
+/**
+ * 解码准入控制
+ * <p/>
+ * 下载线程和缓存线程可能同时解码多张大图，瞬间分配的内存超出可用内存而OOM。
+ * 每次解码前根据图片大小和解码参数估算bitmap占用的内存，只有正在解码的总量不超过预算时才允许开始解码，
+ * 否则按先来先到的顺序排队等待；单张超过预算的图片在没有其他解码时单独解码
+ * @author zhangshuo
+ */
+public class DecodeAdmissionController {
+
+    private final long budget;
+
+    /**
+     * 正在解码的bitmap估算内存总量
+     */
+    private long inFlight;
+    /**
+     * 等待准入的解码，按先来先到排序
+     */
+    private final LinkedList<Object> waiting = new LinkedList<Object>();
+
+    private int admittedCount;
+    private int queuedCount;
+    private long peakInFlight;
+
+    /**
+     * @param budget 同时解码的bitmap估算内存总量上限，字节
+     */
+    public DecodeAdmissionController(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * 估算按解码参数解码后bitmap占用的内存
+     *
+     * @param imageWidth  图片原始宽度
+     * @param imageHeight 图片原始高度
+     * @param options     解码参数，可为null
+     * @return 字节数
+     */
+    public static long estimateBytes(int imageWidth, int imageHeight, Options options) {
+        long width = imageWidth;
+        long height = imageHeight;
+        int bytesPerPixel = 4;
+        if (options != null) {
+            int sampleSize = Math.max(1, options.inSampleSize);
+            width = (width + sampleSize - 1) / sampleSize;
+            height = (height + sampleSize - 1) / sampleSize;
+            if (options.inDensity > 0 && options.inTargetDensity > 0 && options.inTargetDensity < options.inDensity) {
+                width = width * options.inTargetDensity / options.inDensity + 1;
+                height = height * options.inTargetDensity / options.inDensity + 1;
+            }
+            // 解码器不使用已废弃的ARGB_4444，按4字节估算偏大，不会超出预算
+            if (options.inPreferredConfig == Bitmap.Config.RGB_565) {
+                bytesPerPixel = 2;
+            } else if (options.inPreferredConfig == Bitmap.Config.ALPHA_8) {
+                bytesPerPixel = 1;
+            }
+        }
+        return width * height * bytesPerPixel;
+    }
+
+    /**
+     * 申请解码，正在解码的总量加上bytes超过预算时阻塞，直到前面的解码结束；
+     * 准入后必须在解码结束时调用{@link #release(long)}
+     *
+     * @param bytes 估算的bitmap内存
+     * @throws InterruptedException 等待时线程被中断（如ImageLoader被停止）
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        Object ticket = new Object();
+        waiting.addLast(ticket);
+        boolean queued = false;
+        try {
+            while (waiting.getFirst() != ticket || !fits(bytes)) {
+                queued = true;
+                wait();
+            }
+        } catch (InterruptedException e) {
+            waiting.remove(ticket);
+            notifyAll();
+            throw e;
+        }
+        waiting.removeFirst();
+        inFlight += bytes;
+        admittedCount++;
+        if (queued) {
+            queuedCount++;
+        }
+        if (inFlight > peakInFlight) {
+            peakInFlight = inFlight;
+        }
+        // 后面排队的解码可能也放得下
+        notifyAll();
+    }
+
+    /**
+     * 解码结束，释放申请的内存
+     *
+     * @param bytes 与{@link #acquire(long)}时相同
+     */
+    public synchronized void release(long bytes) {
+        inFlight -= bytes;
+        if (inFlight < 0) {
+            inFlight = 0;
+        }
+        notifyAll();
+    }
+
+    private boolean fits(long bytes) {
+        return inFlight == 0 || inFlight + bytes <= budget;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public synchronized long getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("DecodeAdmissionController[budget=%d,inFlight=%d,peak=%d,admitted=%d,queued=%d,waiting=%d]",
+                budget, inFlight, peakInFlight, admittedCount, queuedCount, waiting.size());
+    }
+}
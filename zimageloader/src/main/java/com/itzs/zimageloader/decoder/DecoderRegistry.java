@@ -0,0 +1,65 @@
+package com.itzs.zimageloader.decoder;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 按图片格式选择解码器
+ * <p/>
+ * 格式由{@link ImageHeaderParser}从数据流开头的magic bytes识别，识别后的数据流reset到开头交给对应的{@link FormatDecoder}；
+ * 没有注册的格式使用默认解码器。可以为某种格式注册专门的解码器替换默认实现
+ * @author zhangshuo
+ */
+public class DecoderRegistry {
+
+    private final Map<ImageHeader.Format, FormatDecoder> decoders =
+            new EnumMap<ImageHeader.Format, FormatDecoder>(ImageHeader.Format.class);
+    private final FormatDecoder defaultDecoder;
+
+    /**
+     * @param defaultDecoder 没有注册的格式及无法识别格式时使用的解码器
+     */
+    public DecoderRegistry(FormatDecoder defaultDecoder) {
+        if (defaultDecoder == null) {
+            throw new IllegalArgumentException("defaultDecoder 不可为 null");
+        }
+        this.defaultDecoder = defaultDecoder;
+    }
+
+    /**
+     * 默认配置：JPEG支持采样解码和区域解码；PNG、WebP、BMP由BitmapFactory采样解码；
+     * GIF在较老的系统上先解码完整的帧再采样，声明为不支持采样解码
+     */
+    public static DecoderRegistry createDefault() {
+        FormatDecoder sampled = new BitmapFactoryDecoder(true);
+        DecoderRegistry registry = new DecoderRegistry(sampled);
+        registry.register(ImageHeader.Format.JPEG, new JpegDecoder());
+        registry.register(ImageHeader.Format.PNG, sampled);
+        registry.register(ImageHeader.Format.WEBP, sampled);
+        registry.register(ImageHeader.Format.BMP, sampled);
+        registry.register(ImageHeader.Format.GIF, new BitmapFactoryDecoder(false));
+        return registry;
+    }
+
+    /**
+     * 注册某种格式的解码器，替换之前注册的解码器
+     *
+     * @param format
+     * @param decoder
+     */
+    public synchronized void register(ImageHeader.Format format, FormatDecoder decoder) {
+        if (format == null || decoder == null) {
+            throw new IllegalArgumentException("format和decoder不可为null");
+        }
+        decoders.put(format, decoder);
+    }
+
+    /**
+     * @param format 图片格式，无法识别时为null
+     * @return 该格式的解码器，没有注册时返回默认解码器
+     */
+    public synchronized FormatDecoder get(ImageHeader.Format format) {
+        FormatDecoder decoder = format == null ? null : decoders.get(format);
+        return decoder == null ? defaultDecoder : decoder;
+    }
+}
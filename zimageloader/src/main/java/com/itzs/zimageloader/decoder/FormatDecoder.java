@@ -0,0 +1,49 @@
+package com.itzs.zimageloader.decoder;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory.Options;
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 某一种图片格式的解码器，由{@link DecoderRegistry}按文件头识别出的格式选择
+ * <p/>
+ * 每种格式声明自己能低成本完成的操作，{@link ImageDecoder}据此为每张图片选择解码方式
+ * @author zhangshuo
+ */
+public interface FormatDecoder {
+
+    /**
+     * 是否在解码过程中按inSampleSize采样（如JPEG的DCT缩放），内存和耗时随采样率下降；
+     * 不支持时采样解码的耗时与完整解码相当
+     */
+    boolean supportsSampledDecode();
+
+    /**
+     * 是否可以只解码图片中的一个区域，不需要解码完整图片
+     */
+    boolean supportsRegionDecode();
+
+    /**
+     * 解码完整图片
+     *
+     * @param imageStream
+     * @param decodingOptions 解码参数，可为null
+     * @return 无法解码时返回null
+     * @throws IOException
+     */
+    Bitmap decode(InputStream imageStream, Options decodingOptions) throws IOException;
+
+    /**
+     * 只解码图片中的一个区域，只在{@link #supportsRegionDecode()}为true时调用
+     *
+     * @param imageStream
+     * @param region          图片坐标系中的区域
+     * @param decodingOptions 解码参数，只使用inSampleSize和inPreferredConfig
+     * @return 无法解码时返回null
+     * @throws IOException
+     */
+    Bitmap decodeRegion(InputStream imageStream, Rect region, Options decodingOptions) throws IOException;
+}
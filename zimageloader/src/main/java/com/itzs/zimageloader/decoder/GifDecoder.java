@@ -0,0 +1,447 @@
+package com.itzs.zimageloader.decoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * GIF动画解码器，纯Java实现，不依赖Android
+ * <p/>
+ * 创建时只解析文件头和各帧的描述（位置、大小、延时、处置方式及压缩数据的位置），不解码像素；
+ * 每次调用{@link #advance(int[])}时才按顺序LZW解码下一帧并合成到画布上，内存中只保留压缩数据和一张画布。
+ * 文件被截断时只使用完整的帧
+ * @author zhangshuo
+ */
+public class GifDecoder {
+
+    /** 不处置，下一帧直接画在当前画面上 */
+    public static final int DISPOSAL_NONE = 1;
+    /** 恢复为背景（透明） */
+    public static final int DISPOSAL_BACKGROUND = 2;
+    /** 恢复为绘制该帧之前的画面 */
+    public static final int DISPOSAL_PREVIOUS = 3;
+
+    /**
+     * 帧延时过短时使用的延时，与浏览器一致
+     */
+    static final int DEFAULT_DELAY = 100;
+    /**
+     * 小于该值的延时按{@link #DEFAULT_DELAY}处理
+     */
+    static final int MIN_DELAY = 20;
+
+    private static final int MAX_STACK_SIZE = 4096;
+
+    /**
+     * 帧的描述
+     */
+    static class Frame {
+        int x, y, width, height;
+        boolean interlace;
+        boolean transparency;
+        int transparentIndex;
+        int disposal;
+        /** 延时，毫秒 */
+        int delay;
+        /** 局部颜色表，null则使用全局颜色表 */
+        int[] colorTable;
+        /** LZW最小码长所在的位置，之后为压缩数据子块 */
+        int dataOffset;
+    }
+
+    private final byte[] data;
+    private int width;
+    private int height;
+    private int[] globalColorTable;
+    /** NETSCAPE2.0扩展中的循环次数，0为无限循环，-1为没有该扩展（只播放一次） */
+    private int loopCount = -1;
+    private final List<Frame> frames = new ArrayList<Frame>();
+
+    /** 当前画面 */
+    private int[] canvas;
+    /** 处置方式为{@link #DISPOSAL_PREVIOUS}的帧绘制前的画面 */
+    private int[] savedCanvas;
+    private int currentIndex = -1;
+
+    /** LZW解码用的缓冲区，各帧复用 */
+    private byte[] indices;
+    private final short[] prefix = new short[MAX_STACK_SIZE];
+    private final byte[] suffix = new byte[MAX_STACK_SIZE];
+    private final byte[] pixelStack = new byte[MAX_STACK_SIZE + 1];
+
+    private int pos;
+
+    /**
+     * @param data GIF文件的全部数据
+     * @throws IllegalArgumentException 不是GIF文件或没有完整的帧
+     */
+    public GifDecoder(byte[] data) {
+        this.data = data;
+        parse();
+        if (frames.isEmpty()) {
+            throw new IllegalArgumentException("No complete frame in GIF");
+        }
+        canvas = new int[width * height];
+    }
+
+    /**
+     * @return 数据是否以GIF文件头开始
+     */
+    public static boolean isGif(byte[] data) {
+        return data != null && data.length >= 6 && data[0] == 'G' && data[1] == 'I' && data[2] == 'F';
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    /**
+     * @return 循环次数，0为无限循环，-1为没有设置（只播放一次）
+     */
+    public int getLoopCount() {
+        return loopCount;
+    }
+
+    /**
+     * @return 第index帧的延时，毫秒
+     */
+    public int getDelay(int index) {
+        return frames.get(index).delay;
+    }
+
+    /**
+     * @return 最近一次{@link #advance(int[])}解码的帧序号，还没解码时为-1
+     */
+    public int getCurrentIndex() {
+        return currentIndex;
+    }
+
+    /**
+     * 解码下一帧，最后一帧之后回到第一帧
+     *
+     * @param dest 合成后的画面，ARGB，长度至少为宽*高，可为null
+     * @return 解码的帧序号
+     */
+    public int advance(int[] dest) {
+        if (currentIndex >= 0) {
+            dispose(frames.get(currentIndex));
+        }
+        currentIndex = (currentIndex + 1) % frames.size();
+        if (currentIndex == 0) {
+            // 新的一轮从透明画布开始
+            Arrays.fill(canvas, 0);
+        }
+        Frame frame = frames.get(currentIndex);
+        if (frame.disposal == DISPOSAL_PREVIOUS) {
+            if (savedCanvas == null) {
+                savedCanvas = new int[canvas.length];
+            }
+            System.arraycopy(canvas, 0, savedCanvas, 0, canvas.length);
+        }
+        draw(frame);
+        if (dest != null) {
+            System.arraycopy(canvas, 0, dest, 0, canvas.length);
+        }
+        return currentIndex;
+    }
+
+    /**
+     * 回到第一帧之前
+     */
+    public void reset() {
+        currentIndex = -1;
+    }
+
+    private void dispose(Frame frame) {
+        if (frame.disposal == DISPOSAL_BACKGROUND) {
+            int right = Math.min(frame.x + frame.width, width);
+            int bottom = Math.min(frame.y + frame.height, height);
+            for (int y = frame.y; y < bottom; y++) {
+                Arrays.fill(canvas, y * width + frame.x, y * width + right, 0);
+            }
+        } else if (frame.disposal == DISPOSAL_PREVIOUS && savedCanvas != null) {
+            System.arraycopy(savedCanvas, 0, canvas, 0, canvas.length);
+        }
+    }
+
+    private void draw(Frame frame) {
+        int pixelCount = frame.width * frame.height;
+        if (indices == null || indices.length < pixelCount) {
+            indices = new byte[pixelCount];
+        }
+        decodeImageData(frame, pixelCount);
+        int[] colorTable = frame.colorTable != null ? frame.colorTable : globalColorTable;
+        if (colorTable == null) {
+            return;
+        }
+        int pass = 1;
+        int increment = 8;
+        int line = 0;
+        for (int row = 0; row < frame.height; row++) {
+            int y = row;
+            if (frame.interlace) {
+                while (line >= frame.height && pass < 4) {
+                    pass++;
+                    switch (pass) {
+                        case 2:
+                            line = 4;
+                            break;
+                        case 3:
+                            line = 2;
+                            increment = 4;
+                            break;
+                        case 4:
+                            line = 1;
+                            increment = 2;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                y = line;
+                line += increment;
+            }
+            y += frame.y;
+            if (y >= height) {
+                continue;
+            }
+            int canvasOffset = y * width;
+            int indexOffset = row * frame.width;
+            int right = Math.min(frame.x + frame.width, width);
+            for (int x = frame.x; x < right; x++) {
+                int index = indices[indexOffset + x - frame.x] & 0xff;
+                if (frame.transparency && index == frame.transparentIndex) {
+                    continue;
+                }
+                canvas[canvasOffset + x] = index < colorTable.length ? colorTable[index] : 0;
+            }
+        }
+    }
+
+    /**
+     * LZW解码一帧的颜色索引到indices，数据不完整时剩余的像素为0
+     */
+    private void decodeImageData(Frame frame, int pixelCount) {
+        int p = frame.dataOffset;
+        int dataSize = data[p++] & 0xff;
+        if (dataSize > 11) {
+            Arrays.fill(indices, 0, pixelCount, (byte) 0);
+            return;
+        }
+        int clear = 1 << dataSize;
+        int endOfInformation = clear + 1;
+        int available = clear + 2;
+        int oldCode = -1;
+        int codeSize = dataSize + 1;
+        int codeMask = (1 << codeSize) - 1;
+        for (int code = 0; code < clear; code++) {
+            prefix[code] = 0;
+            suffix[code] = (byte) code;
+        }
+
+        int datum = 0;
+        int bits = 0;
+        int first = 0;
+        int top = 0;
+        int pi = 0;
+        int blockRemaining = 0;
+        while (pi < pixelCount) {
+            if (top == 0) {
+                if (bits < codeSize) {
+                    if (blockRemaining == 0) {
+                        if (p >= data.length) {
+                            break;
+                        }
+                        blockRemaining = data[p++] & 0xff;
+                        if (blockRemaining == 0) {
+                            break;
+                        }
+                    }
+                    if (p >= data.length) {
+                        break;
+                    }
+                    datum += (data[p++] & 0xff) << bits;
+                    bits += 8;
+                    blockRemaining--;
+                    continue;
+                }
+                int code = datum & codeMask;
+                datum >>= codeSize;
+                bits -= codeSize;
+
+                if (code > available || code == endOfInformation) {
+                    break;
+                }
+                if (code == clear) {
+                    codeSize = dataSize + 1;
+                    codeMask = (1 << codeSize) - 1;
+                    available = clear + 2;
+                    oldCode = -1;
+                    continue;
+                }
+                if (oldCode == -1) {
+                    pixelStack[top++] = suffix[code];
+                    oldCode = code;
+                    first = code;
+                    continue;
+                }
+                int inCode = code;
+                if (code == available) {
+                    pixelStack[top++] = (byte) first;
+                    code = oldCode;
+                }
+                while (code > clear && top < MAX_STACK_SIZE) {
+                    pixelStack[top++] = suffix[code];
+                    code = prefix[code];
+                }
+                first = suffix[code] & 0xff;
+                pixelStack[top++] = (byte) first;
+                if (available < MAX_STACK_SIZE) {
+                    prefix[available] = (short) oldCode;
+                    suffix[available] = (byte) first;
+                    available++;
+                    if ((available & codeMask) == 0 && available < MAX_STACK_SIZE) {
+                        codeSize++;
+                        codeMask += available;
+                    }
+                }
+                oldCode = inCode;
+            }
+            top--;
+            indices[pi++] = pixelStack[top];
+        }
+        if (pi < pixelCount) {
+            Arrays.fill(indices, pi, pixelCount, (byte) 0);
+        }
+    }
+
+    /**
+     * 解析文件头和各帧的描述，跳过压缩数据
+     */
+    private void parse() {
+        if (!isGif(data) || data.length < 13) {
+            throw new IllegalArgumentException("Not a GIF");
+        }
+        pos = 6;
+        width = readShort();
+        height = readShort();
+        int packed = readByte();
+        pos += 2; // 背景色索引、像素宽高比
+        if ((packed & 0x80) != 0) {
+            globalColorTable = readColorTable(2 << (packed & 7));
+        }
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid GIF size " + width + "x" + height);
+        }
+
+        Frame pending = new Frame();
+        try {
+            while (pos < data.length) {
+                int code = readByte();
+                if (code == 0x2C) {
+                    if (!readFrame(pending)) {
+                        break;
+                    }
+                    frames.add(pending);
+                    pending = new Frame();
+                } else if (code == 0x21) {
+                    readExtension(pending);
+                } else {
+                    // 0x3B结束符或无法识别的数据
+                    break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // 文件被截断，使用已解析的完整帧
+        }
+    }
+
+    private void readExtension(Frame pending) {
+        int label = readByte();
+        if (label == 0xF9) {
+            readByte(); // 块大小，固定为4
+            int packed = readByte();
+            pending.disposal = (packed & 0x1C) >> 2;
+            pending.transparency = (packed & 1) != 0;
+            int delay = readShort() * 10;
+            pending.delay = delay < MIN_DELAY ? DEFAULT_DELAY : delay;
+            pending.transparentIndex = readByte();
+            readByte(); // 块结束
+        } else if (label == 0xFF) {
+            int blockSize = readByte();
+            String app = new String(data, pos, blockSize);
+            pos += blockSize;
+            if ("NETSCAPE2.0".equals(app)) {
+                int subBlockSize;
+                while ((subBlockSize = readByte()) > 0) {
+                    if (data[pos] == 1 && subBlockSize >= 3) {
+                        loopCount = (data[pos + 1] & 0xff) | ((data[pos + 2] & 0xff) << 8);
+                    }
+                    pos += subBlockSize;
+                }
+            } else {
+                skipSubBlocks();
+            }
+        } else {
+            skipSubBlocks();
+        }
+    }
+
+    /**
+     * 数据被截断时抛出ArrayIndexOutOfBoundsException
+     *
+     * @return 帧大小是否有效
+     */
+    private boolean readFrame(Frame frame) {
+        frame.x = readShort();
+        frame.y = readShort();
+        frame.width = readShort();
+        frame.height = readShort();
+        int packed = readByte();
+        frame.interlace = (packed & 0x40) != 0;
+        if ((packed & 0x80) != 0) {
+            frame.colorTable = readColorTable(2 << (packed & 7));
+        }
+        if (frame.delay == 0) {
+            frame.delay = DEFAULT_DELAY;
+        }
+        frame.dataOffset = pos;
+        pos++; // LZW最小码长
+        skipSubBlocks();
+        return frame.width > 0 && frame.height > 0;
+    }
+
+    private int[] readColorTable(int size) {
+        int[] table = new int[256];
+        for (int i = 0; i < size; i++) {
+            int r = data[pos++] & 0xff;
+            int g = data[pos++] & 0xff;
+            int b = data[pos++] & 0xff;
+            table[i] = 0xff000000 | (r << 16) | (g << 8) | b;
+        }
+        return table;
+    }
+
+    private void skipSubBlocks() {
+        int blockSize;
+        while ((blockSize = readByte()) > 0) {
+            pos += blockSize;
+        }
+    }
+
+    private int readByte() {
+        return data[pos++] & 0xff;
+    }
+
+    private int readShort() {
+        return readByte() | (readByte() << 8);
+    }
+}
@@ -15,17 +15,29 @@
  *******************************************************************************/
 package com.itzs.zimageloader.decoder;
 
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.os.Build;
 import android.util.Log;
 
+import com.itzs.zimageloader.EncodedMemoryCache;
+import com.itzs.zimageloader.ImageMetadataIndex;
 import com.itzs.zimageloader.IoUtils;
 import com.itzs.zimageloader.downloader.BaseDownloader;
+import com.itzs.zimageloader.stream.LimitedInputStream;
 import com.itzs.zimageloader.view.ImageViewAware;
+import com.itzs.zimageloader.view.ViewScaleType;
 
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 
 
 public class ImageDecoder implements BaseDecoder {
@@ -38,25 +50,156 @@ public class ImageDecoder implements BaseDecoder {
     protected static final String LOG_FLIP_IMAGE = "Flip image horizontally [%s]";
     protected static final String ERROR_CANT_DECODE_IMAGE = "Image can't be decoded [%s]";
 
+    /**
+     * 读取图片大小时最多读取的字节数，也是数据流mark的范围；
+     * 图片大小在这个范围内确定后，reset数据流即可继续解码，不需要再次打开数据流（对网络图片即重复下载）
+     */
+    protected static final int HEADER_MARK_LIMIT = 256 * 1024;
+
+    /**
+     * 像素数不小于该值的图片才生成预览图，小图完整解码已经足够快
+     */
+    protected static final long PREVIEW_MIN_PIXELS = 2 * 1024 * 1024;
+    /**
+     * 预览图的边长为目标大小的1/PREVIEW_SCALE，显示时由view放大
+     */
+    protected static final int PREVIEW_SCALE = 8;
+    /**
+     * CENTER_CROP显示的区域不超过整张图片的该比例时才按区域解码，区域接近整张图片时区域解码没有收益
+     */
+    protected static final float CROP_REGION_MAX_RATIO = 0.75f;
+
+    /**
+     * 磁盘缓存图片的元数据索引，解码磁盘缓存的图片时直接从索引获取图片大小
+     */
+    private final ImageMetadataIndex metadataIndex;
+
+    /**
+     * bitmap格式的选择策略
+     */
+    private volatile BitmapConfigPolicy configPolicy = BitmapConfigPolicy.BALANCED;
+
+    /**
+     * 解码准入控制，限制同时解码的bitmap内存总量
+     */
+    private final DecodeAdmissionController admissionController;
+
+    /**
+     * 按图片格式选择解码器
+     */
+    private final DecoderRegistry decoderRegistry = DecoderRegistry.createDefault();
+
+    /**
+     * 编码图片数据的内存缓存，本地文件先从这里读取，可为null
+     */
+    private volatile EncodedMemoryCache encodedMemoryCache;
+
+    public ImageDecoder() {
+        this(null, null);
+    }
+
+    /**
+     * @param metadataIndex 磁盘缓存图片的元数据索引，可为null
+     */
+    public ImageDecoder(ImageMetadataIndex metadataIndex) {
+        this(metadataIndex, null);
+    }
+
+    /**
+     * @param metadataIndex       磁盘缓存图片的元数据索引，可为null
+     * @param admissionController 解码准入控制，可为null
+     */
+    public ImageDecoder(ImageMetadataIndex metadataIndex, DecodeAdmissionController admissionController) {
+        this.metadataIndex = metadataIndex;
+        this.admissionController = admissionController;
+    }
+
+    public DecodeAdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * 设置bitmap格式的选择策略，默认{@link BitmapConfigPolicy#BALANCED}
+     */
+    public void setConfigPolicy(BitmapConfigPolicy configPolicy) {
+        this.configPolicy = configPolicy;
+    }
+
+    public BitmapConfigPolicy getConfigPolicy() {
+        return configPolicy;
+    }
+
+    /**
+     * 设置编码图片数据的内存缓存，解码本地文件时不再读取磁盘；为null时直接读取文件
+     */
+    public void setEncodedMemoryCache(EncodedMemoryCache encodedMemoryCache) {
+        this.encodedMemoryCache = encodedMemoryCache;
+    }
+
+    public EncodedMemoryCache getEncodedMemoryCache() {
+        return encodedMemoryCache;
+    }
+
+    /**
+     * 返回按图片格式选择解码器的注册表，可以为某种格式注册专门的解码器
+     */
+    public DecoderRegistry getDecoderRegistry() {
+        return decoderRegistry;
+    }
 
     @Override
-    public Bitmap decode(String uri, ImageViewAware imageAware, BaseDownloader downloader, Object extraForDownloader) throws IOException {
+    public Bitmap decode(ImageDecodingInfo decodingInfo) throws IOException {
+        String uri = decodingInfo.getImageUri();
+        ImageViewAware imageAware = decodingInfo.getImageAware();
         Bitmap decodedBitmap;
+        ImageHeader header;
 
-        InputStream imageStream = getImageStream(uri, downloader, extraForDownloader);
+        InputStream imageStream = getImageStream(uri, decodingInfo.getDownloader(), decodingInfo.getExtraForDownloader());
         try {
             Log.d(TAG, "decode-uri-->" + uri);
+            header = getIndexedImageHeader(uri);
+            if (header == null && (imageAware.isShouldCompress() || admissionController != null)) {
+                if (!imageStream.markSupported()) {
+                    imageStream = new BufferedInputStream(imageStream, IoUtils.DEFAULT_BUFFER_SIZE);
+                }
+                header = defineImageHeader(imageStream);
+            }
+            FormatDecoder formatDecoder = decoderRegistry.get(header == null ? null : header.getFormat());
+            Options decodingOptions = null;
+            Rect cropRegion = null;
             if (imageAware.isShouldCompress()) {
                 /*允许压缩图片*/
-                int[] imageSize = defineImageSize(imageStream);
-                Log.d(TAG, "decode-imageSize-->width:" + imageSize[0] + " height:" + imageSize[1]);
-                imageStream = resetStream(imageStream, uri, downloader, extraForDownloader);
-                Log.d(TAG, "decode-targetSize-->width:" + imageAware.getTargetSize()[0] + " height:" + imageAware.getTargetSize()[1]);
-                Options decodingOptions = prepareDecodingOptions(imageSize, imageAware.getTargetSize());
-                Log.d(TAG, "decode-scale-->" + decodingOptions.inSampleSize);
-                decodedBitmap = BitmapFactory.decodeStream(imageStream, null, decodingOptions);
-            } else {
-                decodedBitmap = BitmapFactory.decodeStream(imageStream, null, null);
+                if (header != null) {
+                    int[] imageSize = {header.getWidth(), header.getHeight()};
+                    Log.d(TAG, "decode-imageSize-->width:" + imageSize[0] + " height:" + imageSize[1]);
+                    int[] targetSize = decodingInfo.getTargetSize();
+                    Log.d(TAG, "decode-targetSize-->width:" + targetSize[0] + " height:" + targetSize[1]);
+                    if (header.isTransposed()) {
+                        //解码后再旋转90°，按旋转前的方向计算采样率
+                        targetSize = new int[]{targetSize[1], targetSize[0]};
+                    }
+                    cropRegion = header.isTransposed() ? null : computeCropRegion(formatDecoder, header, decodingInfo);
+                    if (cropRegion != null) {
+                        //BitmapRegionDecoder不支持按密度缩放，只按2的幂采样
+                        decodingOptions = new Options();
+                        decodingOptions.inSampleSize = computeImageSampleSize(cropRegion.width(), cropRegion.height(),
+                                targetSize[0], targetSize[1], ViewScaleType.CROP, true);
+                        Log.d(TAG, "decode-cropRegion-->" + cropRegion.width() + "x" + cropRegion.height());
+                    } else {
+                        decodingOptions = prepareDecodingOptions(imageSize, targetSize, decodingInfo.getScaleType(),
+                                ViewScaleType.isScaledByView(imageAware.getScaleType()));
+                    }
+                    decodingOptions.inPreferredConfig = configPolicy.chooseConfig(header, imageAware.isFullQualityRequired());
+                    Log.d(TAG, "decode-scale-->" + decodingOptions.inSampleSize + " config-->" + decodingOptions.inPreferredConfig);
+                } else {
+                    Log.w(TAG, "decode-无法获取图片大小，不压缩-->" + uri);
+                }
+            }
+            decodingOptions = applySampleMultiplier(decodingOptions, decodingInfo.getSampleMultiplier());
+            decodedBitmap = decodeAdmitted(formatDecoder, imageStream, header, cropRegion, decodingOptions);
+            if (decodedBitmap != null && decodingOptions != null && decodingOptions.inDensity > 0) {
+                //按密度缩放解码后bitmap的密度为inTargetDensity，恢复为屏幕密度，避免显示时再被缩放
+                decodedBitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
             }
 //			imageInfo = defineImageSizeAndRotation(imageStream, decodingInfo);
 //			imageStream = resetStream(imageStream, decodingInfo);
@@ -67,62 +210,384 @@ public class ImageDecoder implements BaseDecoder {
 
         if (decodedBitmap == null) {
             Log.e(TAG, ERROR_CANT_DECODE_IMAGE + "-->" + uri);
-        } else {
-//			decodedBitmap = considerExactScaleAndOrientatiton(decodedBitmap, decodingInfo, imageInfo.exif.rotation,
-//					imageInfo.exif.flipHorizontal);
+        } else if (header != null) {
+            decodedBitmap = applyOrientation(decodedBitmap, header.getOrientation());
         }
         return decodedBitmap;
     }
 
+    /**
+     * 解码低分辨率的预览图，在完整解码结束前先显示：优先使用JPEG的EXIF缩略图，没有缩略图时按目标大小的1/{@link #PREVIEW_SCALE}大幅采样解码
+     *
+     * @param decodingInfo 图片uri必须是本地文件
+     * @return 不是本地文件、图片较小不需要预览或无法获取图片大小时返回null
+     * @throws IOException
+     */
+    public Bitmap decodePreview(ImageDecodingInfo decodingInfo) throws IOException {
+        String uri = decodingInfo.getImageUri();
+        int[] targetSize = decodingInfo.getTargetSize();
+        if (BaseDownloader.Scheme.ofUri(uri) != BaseDownloader.Scheme.FILE || targetSize[0] <= 0 || targetSize[1] <= 0) {
+            return null;
+        }
+        InputStream imageStream = null;
+        try {
+            ImageHeader header = getIndexedImageHeader(uri);
+            if (header == null) {
+                imageStream = new BufferedInputStream(getImageStream(uri, decodingInfo.getDownloader(), decodingInfo.getExtraForDownloader()),
+                        IoUtils.DEFAULT_BUFFER_SIZE);
+                header = defineImageHeader(imageStream);
+            }
+            if (header == null || (long) header.getWidth() * header.getHeight() < PREVIEW_MIN_PIXELS) {
+                return null;
+            }
+            FormatDecoder formatDecoder = decoderRegistry.get(header.getFormat());
+            if (header.getFormat() == ImageHeader.Format.JPEG) {
+                Bitmap thumbnail = decodeExifThumbnail(BaseDownloader.Scheme.FILE.crop(uri));
+                if (thumbnail != null) {
+                    Log.d(TAG, "decodePreview-EXIF缩略图-->" + uri);
+                    return applyOrientation(thumbnail, header.getOrientation());
+                }
+            }
+            if (!formatDecoder.supportsSampledDecode()) {
+                //不支持采样解码的格式生成预览图与完整解码耗时相当
+                return null;
+            }
+            if (imageStream == null) {
+                imageStream = getImageStream(uri, decodingInfo.getDownloader(), decodingInfo.getExtraForDownloader());
+            }
+            int previewWidth = Math.max(1, (header.isTransposed() ? targetSize[1] : targetSize[0]) / PREVIEW_SCALE);
+            int previewHeight = Math.max(1, (header.isTransposed() ? targetSize[0] : targetSize[1]) / PREVIEW_SCALE);
+            Options decodingOptions = new Options();
+            decodingOptions.inSampleSize = computeImageSampleSize(header.getWidth(), header.getHeight(),
+                    previewWidth, previewHeight, ViewScaleType.FIT_INSIDE, true);
+            decodingOptions.inPreferredConfig = header.hasAlpha() ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+            Log.d(TAG, "decodePreview-scale-->" + decodingOptions.inSampleSize + " uri-->" + uri);
+            Bitmap preview = decodeAdmitted(formatDecoder, imageStream, header, null, decodingOptions);
+            return preview == null ? null : applyOrientation(preview, header.getOrientation());
+        } finally {
+            IoUtils.closeSilently(imageStream);
+        }
+    }
+
+    /**
+     * @param path JPEG文件路径
+     * @return 没有EXIF缩略图时返回null
+     */
+    protected Bitmap decodeExifThumbnail(String path) {
+        try {
+            byte[] thumbnail = new ExifInterface(path).getThumbnail();
+            if (thumbnail == null) {
+                return null;
+            }
+            Options decodingOptions = new Options();
+            decodingOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+            return BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, decodingOptions);
+        } catch (IOException e) {
+            Log.w(TAG, "decodeExifThumbnail", e);
+            return null;
+        }
+    }
+
+    /**
+     * 按EXIF方向旋转、翻转bitmap，使图片按拍摄时的方向显示
+     *
+     * @param bitmap      按文件中的方向解码出的bitmap
+     * @param orientation EXIF方向，见{@link ImageHeader#getOrientation()}
+     * @return 不需要旋转时返回原bitmap；否则返回新的bitmap，原bitmap被回收
+     */
+    public static Bitmap applyOrientation(Bitmap bitmap, int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                return bitmap;
+        }
+        Bitmap oriented = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (oriented != bitmap) {
+            bitmap.recycle();
+        }
+        return oriented;
+    }
+
+    /**
+     * OOM后重试时在计算出的采样率基础上再增大采样率，并放弃按密度精确缩放（精确缩放会再分配一次内存）
+     *
+     * @param decodingOptions 解码参数，可为null
+     * @param multiplier      采样率倍数
+     * @return
+     */
+    static Options applySampleMultiplier(Options decodingOptions, int multiplier) {
+        if (multiplier <= 1) {
+            return decodingOptions;
+        }
+        if (decodingOptions == null) {
+            decodingOptions = new Options();
+        }
+        decodingOptions.inSampleSize = Math.max(1, decodingOptions.inSampleSize) * multiplier;
+        decodingOptions.inScaled = false;
+        decodingOptions.inDensity = 0;
+        decodingOptions.inTargetDensity = 0;
+        return decodingOptions;
+    }
+
+    /**
+     * 经过准入控制后解码：估算的bitmap内存放不进预算时等待前面的解码结束
+     *
+     * @param formatDecoder   图片格式对应的解码器
+     * @param imageStream
+     * @param header          图片文件头，无法获取时为null，此时按占满预算估算
+     * @param region          只解码的区域，null则解码完整图片
+     * @param decodingOptions 解码参数，可为null
+     * @return
+     * @throws IOException 等待时线程被中断
+     */
+    protected Bitmap decodeAdmitted(FormatDecoder formatDecoder, InputStream imageStream, ImageHeader header, Rect region,
+                                    Options decodingOptions) throws IOException {
+        if (admissionController == null) {
+            return decodeWith(formatDecoder, imageStream, region, decodingOptions);
+        }
+        long bytes;
+        if (header == null) {
+            bytes = admissionController.getBudget();
+        } else if (region != null) {
+            bytes = DecodeAdmissionController.estimateBytes(region.width(), region.height(), decodingOptions);
+        } else {
+            bytes = DecodeAdmissionController.estimateBytes(header.getWidth(), header.getHeight(), decodingOptions);
+            if (!formatDecoder.supportsSampledDecode() && decodingOptions != null && decodingOptions.inSampleSize > 1) {
+                //先解码完整图片再采样，同时占用两份内存
+                bytes += DecodeAdmissionController.estimateBytes(header.getWidth(), header.getHeight(), null);
+            }
+        }
+        try {
+            admissionController.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Decode admission interrupted");
+        }
+        try {
+            return decodeWith(formatDecoder, imageStream, region, decodingOptions);
+        } finally {
+            admissionController.release(bytes);
+        }
+    }
+
+    private static Bitmap decodeWith(FormatDecoder formatDecoder, InputStream imageStream, Rect region, Options decodingOptions)
+            throws IOException {
+        return region == null ? formatDecoder.decode(imageStream, decodingOptions)
+                : formatDecoder.decodeRegion(imageStream, region, decodingOptions);
+    }
+
+    /**
+     * CENTER_CROP时view只显示图片中间与view宽高比相同的区域，格式支持区域解码且该区域明显小于整张图片时只解码该区域，
+     * 解码出的bitmap在view中的显示效果不变
+     *
+     * @param formatDecoder 图片格式对应的解码器
+     * @param header        图片文件头
+     * @param decodingInfo
+     * @return 不按区域解码时返回null
+     */
+    protected Rect computeCropRegion(FormatDecoder formatDecoder, ImageHeader header, ImageDecodingInfo decodingInfo) {
+        ImageViewAware imageAware = decodingInfo.getImageAware();
+        int[] targetSize = decodingInfo.getTargetSize();
+        //合并解码同一uri的多个请求时（解码目标大小不是view自己的目标大小），解码的bitmap还要缩放给其他view，不能裁剪
+        if (!formatDecoder.supportsRegionDecode() || !imageAware.isCropRegionDecode()
+                || targetSize != imageAware.getTargetSize() || targetSize[0] <= 0 || targetSize[1] <= 0) {
+            return null;
+        }
+        int width = header.getWidth();
+        int height = header.getHeight();
+        float scale = Math.max((float) targetSize[0] / width, (float) targetSize[1] / height);
+        int regionWidth = Math.max(1, Math.min(width, Math.round(targetSize[0] / scale)));
+        int regionHeight = Math.max(1, Math.min(height, Math.round(targetSize[1] / scale)));
+        if ((long) regionWidth * regionHeight > (long) width * height * CROP_REGION_MAX_RATIO) {
+            return null;
+        }
+        int left = (width - regionWidth) / 2;
+        int top = (height - regionHeight) / 2;
+        return new Rect(left, top, left + regionWidth, top + regionHeight);
+    }
+
     protected InputStream getImageStream(String uri, BaseDownloader downloader, Object extraForDownloader) throws IOException {
+        EncodedMemoryCache encodedMemoryCache = this.encodedMemoryCache;
+        if (encodedMemoryCache != null && BaseDownloader.Scheme.ofUri(uri) == BaseDownloader.Scheme.FILE) {
+            File file = new File(BaseDownloader.Scheme.FILE.crop(uri));
+            //文件被替换后长度或修改时间不同，旧数据失效
+            InputStream cached = encodedMemoryCache.open(uri, file.length(), file.lastModified());
+            if (cached == null) {
+                cached = encodedMemoryCache.put(uri, file);
+            }
+            if (cached != null) {
+                return cached;
+            }
+        }
         return downloader.getStream(uri, extraForDownloader);
     }
 
     /**
-     * 计算并返回图片的实际宽高
+     * 从元数据索引获取磁盘缓存图片的文件头信息，不需要读取文件头
      *
-     * @param imageStream
-     * @return int[] imageSize；imageSize[0]宽，imageSize[1]高
+     * @param uri
+     * @return uri不是磁盘缓存文件或索引中没有记录时返回null
+     */
+    protected ImageHeader getIndexedImageHeader(String uri) {
+        if (metadataIndex == null || BaseDownloader.Scheme.ofUri(uri) != BaseDownloader.Scheme.FILE) {
+            return null;
+        }
+        ImageHeader header = metadataIndex.get(new File(BaseDownloader.Scheme.FILE.crop(uri)));
+        if (header == null || header.getWidth() <= 0 || header.getHeight() <= 0) {
+            return null;
+        }
+        return header;
+    }
+
+    /**
+     * 读取图片的文件头信息（宽高、格式、是否透明）
+     * <p/>
+     * 只在{@link #HEADER_MARK_LIMIT}范围内读取数据流，读取后数据流会被reset到开头，可以继续用于解码
+     *
+     * @param imageStream 支持mark的数据流
+     * @return 无法获取图片宽高时返回null
      * @throws IOException
      */
-    protected int[] defineImageSize(InputStream imageStream)
+    protected ImageHeader defineImageHeader(InputStream imageStream)
             throws IOException {
+        imageStream.mark(HEADER_MARK_LIMIT);
+        ImageHeader header = ImageHeaderParser.parse(imageStream, HEADER_MARK_LIMIT);
+        imageStream.reset();
+        if (header != null && header.getWidth() > 0 && header.getHeight() > 0) {
+            return header;
+        }
+
+        //文件头解析器不支持的格式，在mark范围内交给BitmapFactory获取大小
+        imageStream.mark(HEADER_MARK_LIMIT);
         Options options = new Options();
         options.inJustDecodeBounds = true;
-        BitmapFactory.decodeStream(imageStream, null, options);
-        int[] imageSize = {options.outWidth, options.outHeight};
-        return imageSize;
+        BitmapFactory.decodeStream(new LimitedInputStream(imageStream, HEADER_MARK_LIMIT), null, options);
+        imageStream.reset();
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        ImageHeader.Format format = ImageHeader.Format.fromMimeType(options.outMimeType);
+        if (format == ImageHeader.Format.JPEG) {
+            return new ImageHeader(ImageHeader.Format.JPEG, options.outWidth, options.outHeight, ImageHeader.ORIENTATION_UNKNOWN, false);
+        }
+        //不知道是否透明，按有透明处理
+        return new ImageHeader(format, options.outWidth, options.outHeight);
     }
 
-    protected Options prepareDecodingOptions(int[] imageSize, int[] targetSize) {
+    /**
+     * 计算解码参数：先用2的幂的inSampleSize采样，再按缩放方式用inDensity/inTargetDensity在解码时缩放到目标大小
+     *
+     * @param imageSize  图片原始大小
+     * @param targetSize 目标大小
+     * @param scaleType  缩放方式
+     * @param exactScale 是否缩放到目标大小；view按原始像素显示图片时（如CENTER）为false
+     * @return
+     */
+    protected Options prepareDecodingOptions(int[] imageSize, int[] targetSize, ViewScaleType scaleType, boolean exactScale) {
 
-        int scale = computeImageSampleSize(imageSize[0], imageSize[1], targetSize[0], targetSize[1], true, true);
+        //Android 7.0之前BitmapFactory会将inSampleSize向下取整为2的幂
+        boolean powerOf2Scale = Build.VERSION.SDK_INT < Build.VERSION_CODES.N;
+        int scale = computeImageSampleSize(imageSize[0], imageSize[1], targetSize[0], targetSize[1], scaleType, powerOf2Scale);
 
         Options decodingOptions = new Options();
         decodingOptions.inSampleSize = scale;
+        if (exactScale) {
+            considerExactScale(decodingOptions, imageSize, targetSize, scaleType);
+        }
         return decodingOptions;
     }
 
-    protected InputStream resetStream(InputStream imageStream, String uri, BaseDownloader downloader, Object extraForDownloader) throws IOException {
-        try {
-            imageStream.reset();
-        } catch (IOException e) {
-            IoUtils.closeSilently(imageStream);
-            imageStream = getImageStream(uri, downloader, extraForDownloader);
+    /**
+     * 采样后的图片仍大于目标大小时，设置inDensity/inTargetDensity，由BitmapFactory在解码时一次缩放到目标大小，
+     * 不需要先解码出较大的bitmap再缩放；KitKat之前的系统在解码后另建bitmap缩放，不使用
+     *
+     * @param decodingOptions 已设置inSampleSize的解码参数
+     * @param imageSize       图片原始大小
+     * @param targetSize      目标大小
+     * @param scaleType       缩放方式
+     */
+    protected void considerExactScale(Options decodingOptions, int[] imageSize, int[] targetSize, ViewScaleType scaleType) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT || targetSize[0] <= 0 || targetSize[1] <= 0) {
+            return;
+        }
+        float widthScale = (float) targetSize[0] / imageSize[0];
+        float heightScale = (float) targetSize[1] / imageSize[1];
+        float exactScale = scaleType == ViewScaleType.FIT_INSIDE ? Math.min(widthScale, heightScale) : Math.max(widthScale, heightScale);
+        if (exactScale >= 1) {
+            //不放大图片
+            return;
+        }
+        int sampledWidth = imageSize[0] / decodingOptions.inSampleSize;
+        int exactWidth = Math.max(1, Math.round(imageSize[0] * exactScale));
+        if (exactWidth >= sampledWidth) {
+            return;
         }
-        return imageStream;
+        decodingOptions.inScaled = true;
+        decodingOptions.inDensity = sampledWidth;
+        decodingOptions.inTargetDensity = exactWidth;
+        Log.d(TAG, String.format(LOG_SCALE_IMAGE, sampledWidth + "x" + imageSize[1] / decodingOptions.inSampleSize,
+                exactWidth + "x" + Math.round(imageSize[1] * exactScale), (float) exactWidth / sampledWidth, scaleType));
     }
 
+    /**
+     * 按图片在view中的缩放方式计算采样率，采样后的图片不小于显示出来的大小：<br/>
+     * CROP：图片填满view，按宽高比例中较小的一个采样，采样后宽高都不小于目标大小；<br/>
+     * FIT_INSIDE：整张图片显示在view内，按宽高比例中较大的一个采样，采样后至少一条边不小于目标大小
+     *
+     * @param srcWidth      图片原始宽度
+     * @param srcHeight     图片原始高度
+     * @param targetWidth   目标宽度
+     * @param targetHeight  目标高度
+     * @param scaleType     缩放方式
+     * @param powerOf2Scale 采样率是否取2的幂
+     * @return 采样率，不小于1
+     */
+    public static int computeImageSampleSize(int srcWidth, int srcHeight, int targetWidth, int targetHeight,
+                                             ViewScaleType scaleType, boolean powerOf2Scale) {
+        return computeImageSampleSize(srcWidth, srcHeight, targetWidth, targetHeight,
+                scaleType != ViewScaleType.FIT_INSIDE, powerOf2Scale);
+    }
+
+    /**
+     * @param isQualityPriority true按CROP计算（宽高都不小于目标大小），false按FIT_INSIDE计算
+     * @see #computeImageSampleSize(int, int, int, int, ViewScaleType, boolean)
+     */
     public static int computeImageSampleSize(int srcWidth, int srcHeight, int targetWidth, int targetHeight,
                                              boolean isQualityPriority,
                                              boolean powerOf2Scale) {
         int scale = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return scale;
+        }
 
         if (isQualityPriority) {
             if (powerOf2Scale) {
                 final int halfWidth = srcWidth / 2;
                 final int halfHeight = srcHeight / 2;
-                while ((halfWidth / scale) > targetWidth && (halfHeight / scale) > targetHeight) { // &&
+                while ((halfWidth / scale) >= targetWidth && (halfHeight / scale) >= targetHeight) { // &&
                     scale *= 2;
                 }
             } else {
@@ -132,7 +597,7 @@ public class ImageDecoder implements BaseDecoder {
             if (powerOf2Scale) {
                 final int halfWidth = srcWidth / 2;
                 final int halfHeight = srcHeight / 2;
-                while ((halfWidth / scale) > targetWidth || (halfHeight / scale) > targetHeight) { // ||
+                while ((halfWidth / scale) >= targetWidth || (halfHeight / scale) >= targetHeight) { // ||
                     scale *= 2;
                 }
             } else {
@@ -0,0 +1,85 @@
+package com.itzs.zimageloader.decoder;
+
+import com.itzs.zimageloader.downloader.BaseDownloader;
+import com.itzs.zimageloader.view.ImageViewAware;
+import com.itzs.zimageloader.view.ViewScaleType;
+
+/**
+ * 解码一张图片需要的信息
+ * @author zhangshuo
+ */
+public class ImageDecodingInfo {
+
+    private final String imageUri;
+    private final ImageViewAware imageAware;
+    private final BaseDownloader downloader;
+    private final Object extraForDownloader;
+    /**
+     * 解码的目标大小，通常为view的目标大小；同一uri的多个请求合并解码时为其中最大的大小
+     */
+    private final int[] targetSize;
+    /**
+     * 在按目标大小计算的采样率基础上再乘的倍数，OOM后重试解码时用更大的采样率
+     */
+    private final int sampleMultiplier;
+    /**
+     * 计算采样率的缩放方式，null则按view的ScaleType；合并解码时有一个请求需要裁剪就按{@link ViewScaleType#CROP}
+     */
+    private final ViewScaleType scaleType;
+
+    public ImageDecodingInfo(String imageUri, ImageViewAware imageAware, BaseDownloader downloader, Object extraForDownloader) {
+        this(imageUri, imageAware, downloader, extraForDownloader, 1);
+    }
+
+    public ImageDecodingInfo(String imageUri, ImageViewAware imageAware, BaseDownloader downloader, Object extraForDownloader,
+                             int sampleMultiplier) {
+        this(imageUri, imageAware, downloader, extraForDownloader, imageAware.getTargetSize(), sampleMultiplier);
+    }
+
+    public ImageDecodingInfo(String imageUri, ImageViewAware imageAware, BaseDownloader downloader, Object extraForDownloader,
+                             int[] targetSize, int sampleMultiplier) {
+        this(imageUri, imageAware, downloader, extraForDownloader, targetSize, null, sampleMultiplier);
+    }
+
+    public ImageDecodingInfo(String imageUri, ImageViewAware imageAware, BaseDownloader downloader, Object extraForDownloader,
+                             int[] targetSize, ViewScaleType scaleType, int sampleMultiplier) {
+        this.imageUri = imageUri;
+        this.imageAware = imageAware;
+        this.downloader = downloader;
+        this.extraForDownloader = extraForDownloader;
+        this.targetSize = targetSize;
+        this.sampleMultiplier = Math.max(1, sampleMultiplier);
+        this.scaleType = scaleType;
+    }
+
+    public String getImageUri() {
+        return imageUri;
+    }
+
+    public ImageViewAware getImageAware() {
+        return imageAware;
+    }
+
+    public BaseDownloader getDownloader() {
+        return downloader;
+    }
+
+    public Object getExtraForDownloader() {
+        return extraForDownloader;
+    }
+
+    public int[] getTargetSize() {
+        return targetSize;
+    }
+
+    public int getSampleMultiplier() {
+        return sampleMultiplier;
+    }
+
+    /**
+     * @return 计算采样率的缩放方式，没有指定时按view的ScaleType
+     */
+    public ViewScaleType getScaleType() {
+        return scaleType != null ? scaleType : ViewScaleType.fromScaleType(imageAware.getScaleType());
+    }
+}
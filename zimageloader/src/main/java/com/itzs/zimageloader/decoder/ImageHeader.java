@@ -0,0 +1,106 @@
+package com.itzs.zimageloader.decoder;
+
+/**
+ * 从图片文件头解析出的图片信息
+ * @author zhangshuo
+ */
+public class ImageHeader {
+
+    /** 图片格式 */
+    public enum Format {
+        JPEG("image/jpeg"), PNG("image/png"), GIF("image/gif"), WEBP("image/webp"), BMP("image/bmp"), UNKNOWN(null);
+
+        private final String mimeType;
+
+        Format(String mimeType) {
+            this.mimeType = mimeType;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * @param mimeType 如{@link android.graphics.BitmapFactory.Options#outMimeType}
+         * @return 不认识的mimeType返回{@link #UNKNOWN}
+         */
+        public static Format fromMimeType(String mimeType) {
+            if (mimeType != null) {
+                for (Format format : values()) {
+                    if (mimeType.equalsIgnoreCase(format.mimeType)) {
+                        return format;
+                    }
+                }
+            }
+            return UNKNOWN;
+        }
+    }
+
+    /** 未知的EXIF方向 */
+    public static final int ORIENTATION_UNKNOWN = 0;
+    /** 正常的EXIF方向，同{@link android.media.ExifInterface#ORIENTATION_NORMAL} */
+    public static final int ORIENTATION_NORMAL = 1;
+
+    private final Format format;
+    private final int width;
+    private final int height;
+    private final int orientation;
+    private final boolean hasAlpha;
+
+    public ImageHeader(Format format, int width, int height) {
+        this(format, width, height, ORIENTATION_UNKNOWN);
+    }
+
+    public ImageHeader(Format format, int width, int height, int orientation) {
+        this(format, width, height, orientation, true);
+    }
+
+    /**
+     * @param hasAlpha 图片是否可能有透明像素，无法确定时应为true
+     */
+    public ImageHeader(Format format, int width, int height, int orientation, boolean hasAlpha) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.orientation = orientation;
+        this.hasAlpha = hasAlpha;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return EXIF方向，取值同{@link android.media.ExifInterface#TAG_ORIENTATION}；没有EXIF信息时为{@link #ORIENTATION_UNKNOWN}
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * @return 按EXIF方向显示时是否旋转了90°或270°，此时显示出来的宽高与文件中的宽高相反
+     */
+    public boolean isTransposed() {
+        return orientation >= 5 && orientation <= 8;
+    }
+
+    /**
+     * @return 图片是否可能有透明像素；为false时可以用不带透明通道的RGB_565解码
+     */
+    public boolean hasAlpha() {
+        return hasAlpha;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ImageHeader[%s %dx%d orientation=%d alpha=%b]", format, width, height, orientation, hasAlpha);
+    }
+}
@@ -0,0 +1,349 @@
+package com.itzs.zimageloader.decoder;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 图片文件头解析器
+ * <p/>
+ * 只读取文件头（JPEG读到SOF段，PNG读IHDR，GIF读逻辑屏幕描述，WebP读VP8/VP8L/VP8X块）即可得到图片格式和宽高，
+ * 不需要像{@link android.graphics.BitmapFactory.Options#inJustDecodeBounds}那样交给BitmapFactory处理数据流；
+ * 最多读取limit个字节，配合{@link InputStream#mark(int)}/{@link InputStream#reset()}使用，解析后数据流可以继续用于解码
+ * @author zhangshuo
+ */
+public class ImageHeaderParser {
+
+    private static final int JPEG_MARKER_SOI = 0xD8;
+    private static final int JPEG_MARKER_EOI = 0xD9;
+    private static final int JPEG_MARKER_SOS = 0xDA;
+    private static final int JPEG_MARKER_TEM = 0x01;
+    private static final int JPEG_MARKER_RST0 = 0xD0;
+    private static final int JPEG_MARKER_RST7 = 0xD7;
+    private static final int JPEG_MARKER_APP1 = 0xE1;
+
+    private static final int EXIF_TAG_ORIENTATION = 0x0112;
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private static final int RIFF = 0x52494646; // "RIFF"
+    private static final int WEBP = 0x57454250; // "WEBP"
+    private static final int VP8_ = 0x56503820; // "VP8 "
+    private static final int VP8L = 0x5650384C; // "VP8L"
+    private static final int VP8X = 0x56503858; // "VP8X"
+    private static final int VP8X_ALPHA_FLAG = 0x10;
+
+    private static final int PNG_IDAT = 0x49444154; // "IDAT"
+    private static final int PNG_IEND = 0x49454E44; // "IEND"
+    private static final int PNG_TRNS = 0x74524E53; // "tRNS"
+    private static final int PNG_COLOR_TYPE_GRAY_ALPHA = 4;
+    private static final int PNG_COLOR_TYPE_RGBA = 6;
+
+    private final InputStream is;
+    private final int limit;
+    private int position;
+
+    private ImageHeaderParser(InputStream is, int limit) {
+        this.is = is;
+        this.limit = limit;
+    }
+
+    /**
+     * 解析图片文件头，最多读取limit个字节，不会关闭数据流
+     *
+     * @param is    图片数据流，从文件开头读取
+     * @param limit 最多读取的字节数
+     * @return 无法识别格式或在limit内没有找到图片大小时返回null
+     * @throws IOException
+     */
+    public static ImageHeader parse(InputStream is, int limit) throws IOException {
+        try {
+            return new ImageHeaderParser(is, limit).parse();
+        } catch (EOFException e) {
+            // 数据流结束或超过读取上限
+            return null;
+        }
+    }
+
+    private ImageHeader parse() throws IOException {
+        int b0 = readByte();
+        int b1 = readByte();
+        if (b0 == 0xFF && b1 == JPEG_MARKER_SOI) {
+            return parseJpeg();
+        }
+        if (b0 == 0x89 && b1 == 'P') {
+            return parsePng();
+        }
+        if (b0 == 'G' && b1 == 'I') {
+            return parseGif();
+        }
+        if (b0 == 'R' && b1 == 'I') {
+            return parseWebp();
+        }
+        if (b0 == 'B' && b1 == 'M') {
+            return parseBmp();
+        }
+        return null;
+    }
+
+    private ImageHeader parseJpeg() throws IOException {
+        int orientation = ImageHeader.ORIENTATION_UNKNOWN;
+        while (true) {
+            int b = readByte();
+            if (b != 0xFF) {
+                // 段之间的无效数据
+                continue;
+            }
+            int marker = readByte();
+            while (marker == 0xFF) {
+                marker = readByte(); // 填充字节
+            }
+            if (marker == JPEG_MARKER_SOI || marker == JPEG_MARKER_TEM
+                    || (marker >= JPEG_MARKER_RST0 && marker <= JPEG_MARKER_RST7) || marker == 0) {
+                continue; // 没有长度的段
+            }
+            if (marker == JPEG_MARKER_EOI || marker == JPEG_MARKER_SOS) {
+                return null; // 在图像数据之前没有找到SOF
+            }
+            int length = readUInt16BE();
+            if (length < 2) {
+                return null;
+            }
+            if (isJpegSof(marker)) {
+                skip(1); // precision
+                int height = readUInt16BE();
+                int width = readUInt16BE();
+                return new ImageHeader(ImageHeader.Format.JPEG, width, height, orientation, false);
+            }
+            if (marker == JPEG_MARKER_APP1 && orientation == ImageHeader.ORIENTATION_UNKNOWN) {
+                byte[] segment = readBytes(length - 2);
+                orientation = parseExifOrientation(segment);
+                continue;
+            }
+            skip(length - 2);
+        }
+    }
+
+    /**
+     * 从APP1段解析EXIF方向
+     *
+     * @param segment APP1段的数据（不含长度）
+     * @return 不是EXIF段或没有方向信息时返回{@link ImageHeader#ORIENTATION_UNKNOWN}
+     */
+    private static int parseExifOrientation(byte[] segment) {
+        if (segment.length < EXIF_HEADER.length + 8) {
+            return ImageHeader.ORIENTATION_UNKNOWN;
+        }
+        for (int i = 0; i < EXIF_HEADER.length; i++) {
+            if (segment[i] != EXIF_HEADER[i]) {
+                return ImageHeader.ORIENTATION_UNKNOWN;
+            }
+        }
+        int tiff = EXIF_HEADER.length;
+        boolean littleEndian;
+        if (segment[tiff] == 'I' && segment[tiff + 1] == 'I') {
+            littleEndian = true;
+        } else if (segment[tiff] == 'M' && segment[tiff + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return ImageHeader.ORIENTATION_UNKNOWN;
+        }
+        int ifdOffset = tiff + getInt32(segment, tiff + 4, littleEndian);
+        if (ifdOffset < tiff || ifdOffset + 2 > segment.length) {
+            return ImageHeader.ORIENTATION_UNKNOWN;
+        }
+        int entryCount = getUInt16(segment, ifdOffset, littleEndian);
+        for (int i = 0; i < entryCount; i++) {
+            int entry = ifdOffset + 2 + i * 12;
+            if (entry + 12 > segment.length) {
+                break;
+            }
+            if (getUInt16(segment, entry, littleEndian) == EXIF_TAG_ORIENTATION) {
+                int orientation = getUInt16(segment, entry + 8, littleEndian);
+                return orientation >= 1 && orientation <= 8 ? orientation : ImageHeader.ORIENTATION_UNKNOWN;
+            }
+        }
+        return ImageHeader.ORIENTATION_UNKNOWN;
+    }
+
+    private static int getUInt16(byte[] bytes, int offset, boolean littleEndian) {
+        int b0 = bytes[offset] & 0xFF;
+        int b1 = bytes[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int getInt32(byte[] bytes, int offset, boolean littleEndian) {
+        int b0 = bytes[offset] & 0xFF;
+        int b1 = bytes[offset + 1] & 0xFF;
+        int b2 = bytes[offset + 2] & 0xFF;
+        int b3 = bytes[offset + 3] & 0xFF;
+        return littleEndian ? (b3 << 24) | (b2 << 16) | (b1 << 8) | b0 : (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+    }
+
+    private static boolean isJpegSof(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private ImageHeader parsePng() throws IOException {
+        // 签名剩余的6个字节 + IHDR块长度 + "IHDR"
+        skip(6 + 4 + 4);
+        int width = readInt32BE();
+        int height = readInt32BE();
+        skip(1); // bit depth
+        int colorType = readByte();
+        boolean hasAlpha = colorType == PNG_COLOR_TYPE_GRAY_ALPHA || colorType == PNG_COLOR_TYPE_RGBA
+                || hasPngTransparency();
+        return new ImageHeader(ImageHeader.Format.PNG, width, height, ImageHeader.ORIENTATION_UNKNOWN, hasAlpha);
+    }
+
+    /**
+     * 在图像数据之前查找tRNS块（调色板或灰度、RGB图片的透明色）
+     *
+     * @return 有tRNS块或在读取上限内无法确定时返回true
+     */
+    private boolean hasPngTransparency() {
+        try {
+            skip(3 + 4); // compression + filter + interlace + IHDR CRC
+            while (true) {
+                int length = readInt32BE();
+                int type = readInt32BE();
+                if (type == PNG_TRNS) {
+                    return true;
+                }
+                if (type == PNG_IDAT || type == PNG_IEND || length < 0) {
+                    return false;
+                }
+                skip(length + 4); // 块数据 + CRC
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private ImageHeader parseGif() throws IOException {
+        // "F8" + "7a"/"9a"
+        if (readByte() != 'F' || readByte() != '8') {
+            return null;
+        }
+        skip(2);
+        int width = readUInt16LE();
+        int height = readUInt16LE();
+        // 透明色在各帧的图形控制扩展中，不逐帧查找，按有透明处理
+        return new ImageHeader(ImageHeader.Format.GIF, width, height, ImageHeader.ORIENTATION_UNKNOWN, true);
+    }
+
+    private ImageHeader parseWebp() throws IOException {
+        if ((('R' << 24) | ('I' << 16) | (readByte() << 8) | readByte()) != RIFF) {
+            return null;
+        }
+        skip(4); // RIFF size
+        if (readInt32BE() != WEBP) {
+            return null;
+        }
+        int chunk = readInt32BE();
+        skip(4); // chunk size
+        int width;
+        int height;
+        boolean hasAlpha;
+        if (chunk == VP8_) {
+            skip(3); // frame tag
+            if (readByte() != 0x9D || readByte() != 0x01 || readByte() != 0x2A) {
+                return null;
+            }
+            width = readUInt16LE() & 0x3FFF;
+            height = readUInt16LE() & 0x3FFF;
+            hasAlpha = false;
+        } else if (chunk == VP8L) {
+            if (readByte() != 0x2F) {
+                return null;
+            }
+            int bits = readByte() | (readByte() << 8) | (readByte() << 16) | (readByte() << 24);
+            width = (bits & 0x3FFF) + 1;
+            height = ((bits >>> 14) & 0x3FFF) + 1;
+            hasAlpha = ((bits >>> 28) & 1) != 0;
+        } else if (chunk == VP8X) {
+            int flags = readByte();
+            skip(3); // reserved
+            width = readUInt24LE() + 1;
+            height = readUInt24LE() + 1;
+            hasAlpha = (flags & VP8X_ALPHA_FLAG) != 0;
+        } else {
+            return null;
+        }
+        return new ImageHeader(ImageHeader.Format.WEBP, width, height, ImageHeader.ORIENTATION_UNKNOWN, hasAlpha);
+    }
+
+    private ImageHeader parseBmp() throws IOException {
+        skip(16); // 文件头剩余部分 + 信息头大小
+        int width = readInt32LE();
+        int height = Math.abs(readInt32LE());
+        skip(2); // planes
+        int bitCount = readUInt16LE();
+        return new ImageHeader(ImageHeader.Format.BMP, width, height, ImageHeader.ORIENTATION_UNKNOWN, bitCount == 32);
+    }
+
+    private int readByte() throws IOException {
+        if (position >= limit) {
+            throw new EOFException();
+        }
+        int b = is.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        position++;
+        return b;
+    }
+
+    private byte[] readBytes(int count) throws IOException {
+        if (position + count > limit) {
+            throw new EOFException();
+        }
+        byte[] bytes = new byte[count];
+        int offset = 0;
+        while (offset < count) {
+            int read = is.read(bytes, offset, count - offset);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+        position += count;
+        return bytes;
+    }
+
+    private void skip(int count) throws IOException {
+        if (position + count > limit) {
+            throw new EOFException();
+        }
+        while (count > 0) {
+            long skipped = is.skip(count);
+            if (skipped <= 0) {
+                // skip不保证跳过，逐字节读取
+                readByte();
+                count--;
+            } else {
+                position += skipped;
+                count -= skipped;
+            }
+        }
+    }
+
+    private int readUInt16BE() throws IOException {
+        return (readByte() << 8) | readByte();
+    }
+
+    private int readUInt16LE() throws IOException {
+        return readByte() | (readByte() << 8);
+    }
+
+    private int readUInt24LE() throws IOException {
+        return readByte() | (readByte() << 8) | (readByte() << 16);
+    }
+
+    private int readInt32BE() throws IOException {
+        return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+    }
+
+    private int readInt32LE() throws IOException {
+        return readByte() | (readByte() << 8) | (readByte() << 16) | (readByte() << 24);
+    }
+}
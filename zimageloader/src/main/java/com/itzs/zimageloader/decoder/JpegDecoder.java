@@ -0,0 +1,39 @@
+package com.itzs.zimageloader.decoder;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory.Options;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * JPEG解码器：inSampleSize由libjpeg在反DCT时直接缩放（1/2、1/4、1/8），不需要先解码完整图片；
+ * 区域解码通过{@link BitmapRegionDecoder}只解码区域覆盖的MCU
+ * @author zhangshuo
+ */
+public class JpegDecoder extends BitmapFactoryDecoder {
+
+    public JpegDecoder() {
+        super(true);
+    }
+
+    @Override
+    public boolean supportsRegionDecode() {
+        return true;
+    }
+
+    @Override
+    public Bitmap decodeRegion(InputStream imageStream, Rect region, Options decodingOptions) throws IOException {
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(imageStream, false);
+        if (decoder == null) {
+            throw new IOException("BitmapRegionDecoder can't be created");
+        }
+        try {
+            return decoder.decodeRegion(region, decodingOptions);
+        } finally {
+            decoder.recycle();
+        }
+    }
+}
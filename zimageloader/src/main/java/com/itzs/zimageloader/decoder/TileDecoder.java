@@ -0,0 +1,165 @@
+package com.itzs.zimageloader.decoder;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.Log;
+
+import com.itzs.zimageloader.BitmapPool;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+/**
+ * 大图区域解码器，基于{@link BitmapRegionDecoder}只解码图片的一部分
+ * <p/>
+ * 单个BitmapRegionDecoder的解码是串行的，为了并行解码多个图块，按需创建多个解码器实例（最多maxDecoders个），
+ * 解码时从空闲的解码器中取一个；解码的bitmap尽量复用{@link BitmapPool}中相同规格的bitmap
+ * @author zhangshuo
+ */
+public class TileDecoder {
+
+    private static final String TAG = TileDecoder.class.getSimpleName();
+
+    private final String filePath;
+    private final int maxDecoders;
+    private final int width;
+    private final int height;
+
+    private final LinkedList<BitmapRegionDecoder> idleDecoders = new LinkedList<BitmapRegionDecoder>();
+    /** 已创建的解码器数量 */
+    private int decoderCount;
+    private boolean recycled;
+
+    /**
+     * @param filePath    本地图片文件路径
+     * @param maxDecoders 最多同时解码的图块数
+     * @throws IOException 图片格式不支持区域解码（只支持JPEG、PNG，API 14以上支持WebP）
+     */
+    public TileDecoder(String filePath, int maxDecoders) throws IOException {
+        this.filePath = filePath;
+        this.maxDecoders = Math.max(1, maxDecoders);
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(filePath, false);
+        if (decoder == null) {
+            throw new IOException("BitmapRegionDecoder can't be created [" + filePath + "]");
+        }
+        this.width = decoder.getWidth();
+        this.height = decoder.getHeight();
+        idleDecoders.add(decoder);
+        decoderCount = 1;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 解码图片的一个区域
+     *
+     * @param region     图片坐标系中的区域
+     * @param sampleSize 采样率
+     * @param config     bitmap格式
+     * @param pool       可复用bitmap池，可为null
+     * @return 解码器已回收或解码失败时返回null
+     * @throws IOException
+     */
+    public Bitmap decodeRegion(Rect region, int sampleSize, Bitmap.Config config, BitmapPool pool) throws IOException {
+        BitmapRegionDecoder decoder = acquire();
+        if (decoder == null) {
+            return null;
+        }
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = config;
+            Bitmap reusable = null;
+            //BitmapRegionDecoder从API 16开始支持inBitmap
+            if (pool != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                int tileWidth = (region.width() + sampleSize - 1) / sampleSize;
+                int tileHeight = (region.height() + sampleSize - 1) / sampleSize;
+                reusable = pool.get(tileWidth, tileHeight, config);
+                options.inBitmap = reusable;
+            }
+            try {
+                return decoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                if (reusable == null) {
+                    throw e;
+                }
+                //复用的bitmap规格不符合要求，不复用再解码一次
+                Log.w(TAG, "decodeRegion--inBitmap不可用-->" + e);
+                pool.put(reusable);
+                options.inBitmap = null;
+                return decoder.decodeRegion(region, options);
+            }
+        } finally {
+            release(decoder);
+        }
+    }
+
+    private BitmapRegionDecoder acquire() throws IOException {
+        synchronized (this) {
+            while (!recycled && idleDecoders.isEmpty() && decoderCount >= maxDecoders) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            if (recycled) {
+                return null;
+            }
+            if (!idleDecoders.isEmpty()) {
+                return idleDecoders.removeFirst();
+            }
+            decoderCount++;
+        }
+        BitmapRegionDecoder decoder = null;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(filePath, false);
+        } finally {
+            if (decoder == null) {
+                synchronized (this) {
+                    decoderCount--;
+                    notifyAll();
+                }
+            }
+        }
+        return decoder;
+    }
+
+    private synchronized void release(BitmapRegionDecoder decoder) {
+        if (recycled) {
+            decoder.recycle();
+        } else {
+            idleDecoders.add(decoder);
+        }
+        notifyAll();
+    }
+
+    /**
+     * 回收所有解码器，正在解码的解码器在解码结束后回收
+     */
+    public synchronized void recycle() {
+        if (recycled) {
+            return;
+        }
+        recycled = true;
+        for (BitmapRegionDecoder decoder : idleDecoders) {
+            decoder.recycle();
+        }
+        idleDecoders.clear();
+        notifyAll();
+    }
+
+    public synchronized boolean isRecycled() {
+        return recycled;
+    }
+}
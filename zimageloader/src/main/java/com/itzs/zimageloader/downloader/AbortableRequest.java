@@ -0,0 +1,87 @@
+package com.itzs.zimageloader.downloader;
+
+import com.itzs.zimageloader.IoUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * 可以从其他线程中止的一次请求。中断线程不能打断HttpURLConnection的连接和读取，
+ * 中止时断开当前线程登记的连接并关闭已返回的数据流，使阻塞的请求立即以IOException结束。
+ * <p/>
+ * downloader在创建连接后调用{@link #track(HttpURLConnection)}登记连接，当前线程没有可中止的请求时不做任何事。
+ * @author zhangshuo
+ */
+public final class AbortableRequest {
+
+    private static final ThreadLocal<AbortableRequest> CURRENT = new ThreadLocal<AbortableRequest>();
+
+    private HttpURLConnection connection;
+    private InputStream stream;
+    private boolean aborted;
+
+    /**
+     * 登记当前线程的请求创建的连接，重定向时登记新的连接
+     *
+     * @throws IOException 请求已被中止，此时连接已被断开
+     */
+    public static void track(HttpURLConnection connection) throws IOException {
+        AbortableRequest request = CURRENT.get();
+        if (request != null) {
+            request.setConnection(connection);
+        }
+    }
+
+    /**
+     * 在当前线程执行请求前调用，与{@link #detach()}成对使用
+     */
+    void attach() {
+        CURRENT.set(this);
+    }
+
+    void detach() {
+        CURRENT.remove();
+    }
+
+    private void setConnection(HttpURLConnection connection) throws IOException {
+        synchronized (this) {
+            if (!aborted) {
+                this.connection = connection;
+                return;
+            }
+        }
+        connection.disconnect();
+        throw new IOException("Request was aborted");
+    }
+
+    /**
+     * 登记请求返回的数据流，等待首字节时被中止也能关闭
+     *
+     * @throws IOException 请求已被中止，调用者负责关闭数据流
+     */
+    synchronized void setStream(InputStream stream) throws IOException {
+        if (aborted) throw new IOException("Request was aborted");
+        this.stream = stream;
+    }
+
+    /**
+     * 中止请求；之后登记的连接会被立即断开，登记数据流时抛出IOException
+     */
+    void abort() {
+        HttpURLConnection connection;
+        InputStream stream;
+        synchronized (this) {
+            if (aborted) return;
+            aborted = true;
+            connection = this.connection;
+            stream = this.stream;
+        }
+        if (connection != null) {
+            connection.disconnect();
+        }
+        if (stream != null) {
+            IoUtils.closeSilently(stream);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.itzs.zimageloader.downloader;
+
+import android.util.Log;
+
+import com.itzs.zimageloader.IoUtils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decorator. 对冲请求：网络请求在指定延迟内还没有收到首字节时，再发起一次相同（或镜像主机）的请求，
+ * 使用先返回数据的请求，并中止另一个请求，以此降低慢速图片服务器造成的长尾延迟。
+ * <p/>
+ * 中断不能打断HttpURLConnection的连接和读取，落败的请求通过{@link AbortableRequest}断开连接，立即释放线程；
+ * 自定义的downloader应在创建连接后调用{@link AbortableRequest#track(java.net.HttpURLConnection)}。
+ * <p/>
+ * 对冲延迟取最近请求首字节延迟的{@link #DEFAULT_HEDGE_PERCENTILE}百分位数，样本不足时使用{@link #DEFAULT_HEDGE_DELAY}。
+ * @author zhangshuo
+ */
+public class HedgedImageDownloader implements BaseDownloader {
+
+    private static final String TAG = HedgedImageDownloader.class.getSimpleName();
+
+    /** 计算对冲延迟使用的百分位数 */
+    public static final int DEFAULT_HEDGE_PERCENTILE = 95;
+    /** 样本不足时的默认对冲延迟，毫秒 */
+    public static final long DEFAULT_HEDGE_DELAY = 1000;
+    /** 对冲延迟的下限，避免网络很好时几乎所有请求都被对冲，毫秒 */
+    public static final long MIN_HEDGE_DELAY = 100;
+    /** 使用百分位数计算对冲延迟所需的最少样本数 */
+    public static final int MIN_SAMPLE_COUNT = 20;
+
+    /** 镜像主机选择器 */
+    public interface MirrorResolver {
+        /**
+         * @param imageUri 原请求uri
+         * @return 对冲请求使用的uri，返回null则使用原uri
+         */
+        String getMirrorUri(String imageUri);
+    }
+
+    private final BaseDownloader wrappedDownloader;
+    private final ExecutorService executor;
+    private final LatencyTracker latencyTracker = new LatencyTracker();
+    private volatile MirrorResolver mirrorResolver;
+    private volatile int hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+
+    /** 总请求数 */
+    private final AtomicInteger requestCount = new AtomicInteger();
+    /** 发出对冲请求的次数 */
+    private final AtomicInteger hedgeCount = new AtomicInteger();
+    /** 对冲请求先返回的次数 */
+    private final AtomicInteger hedgeWinCount = new AtomicInteger();
+
+    /**
+     * @param wrappedDownloader 实际执行下载的downloader
+     * @param executor          用于执行原请求和对冲请求的线程池，所有请求共享，应有上限
+     */
+    public HedgedImageDownloader(BaseDownloader wrappedDownloader, ExecutorService executor) {
+        this.wrappedDownloader = wrappedDownloader;
+        this.executor = executor;
+    }
+
+    public void setMirrorResolver(MirrorResolver mirrorResolver) {
+        this.mirrorResolver = mirrorResolver;
+    }
+
+    /**
+     * @param hedgePercentile 计算对冲延迟使用的百分位数，1-100
+     */
+    public void setHedgePercentile(int hedgePercentile) {
+        if (hedgePercentile < 1 || hedgePercentile > 100) {
+            throw new IllegalArgumentException("hedgePercentile must be in [1, 100]");
+        }
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * @return 请求首字节延迟的统计，可用于查看p50/p99
+     */
+    public LatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    public int getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    public int getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    @Override
+    public InputStream getStream(String imageUri, Object extra) throws IOException {
+        switch (Scheme.ofUri(imageUri)) {
+            case HTTP:
+            case HTTPS:
+                return getStreamHedged(imageUri, extra);
+            default:
+                return wrappedDownloader.getStream(imageUri, extra);
+        }
+    }
+
+    /**
+     * @return 当前的对冲延迟，毫秒
+     */
+    public long getHedgeDelay() {
+        if (latencyTracker.getCount() < MIN_SAMPLE_COUNT) {
+            return DEFAULT_HEDGE_DELAY;
+        }
+        return Math.max(MIN_HEDGE_DELAY, latencyTracker.getPercentile(hedgePercentile));
+    }
+
+    private InputStream getStreamHedged(String imageUri, Object extra) throws IOException {
+        requestCount.incrementAndGet();
+        Race race = new Race();
+        List<Attempt> attempts = new ArrayList<Attempt>(2);
+        List<Future<?>> futures = new ArrayList<Future<?>>(2);
+        try {
+            Attempt primary = new Attempt(race, imageUri, extra, false);
+            attempts.add(primary);
+            futures.add(executor.submit(primary));
+            InputStream stream = race.await(getHedgeDelay());
+            if (stream == null) {
+                String hedgeUri = imageUri;
+                MirrorResolver resolver = mirrorResolver;
+                if (resolver != null) {
+                    String mirrorUri = resolver.getMirrorUri(imageUri);
+                    if (mirrorUri != null) hedgeUri = mirrorUri;
+                }
+                Log.d(TAG, "首字节超时，发起对冲请求-->" + hedgeUri);
+                hedgeCount.incrementAndGet();
+                race.launched();
+                Attempt hedge = new Attempt(race, hedgeUri, extra, true);
+                attempts.add(hedge);
+                futures.add(executor.submit(hedge));
+                stream = race.await(0);
+            }
+            return stream;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Hedged request was interrupted");
+        } finally {
+            // 关闭没有被取走的胜者，之后返回的数据流在offer中关闭；中止其他请求，取消还在排队的请求
+            Attempt taken = race.finish();
+            for (Attempt attempt : attempts) {
+                if (attempt != taken) attempt.request.abort();
+            }
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * 一次原请求及其对冲请求的竞争状态
+     */
+    private static class Race {
+        private InputStream winner;
+        private Attempt winnerAttempt;
+        /** 胜者的数据流是否已返回给调用者 */
+        private boolean taken;
+        private IOException lastError;
+        private int launchedCount = 1;
+        private int failedCount;
+        private boolean finished;
+
+        synchronized void launched() {
+            launchedCount++;
+        }
+
+        /**
+         * @return true - 成为胜者；false - 已有胜者或竞争已结束，stream已被关闭
+         */
+        boolean offer(Attempt attempt, InputStream stream) {
+            synchronized (this) {
+                if (winner == null && !finished) {
+                    winner = stream;
+                    winnerAttempt = attempt;
+                    notifyAll();
+                    return true;
+                }
+            }
+            IoUtils.closeSilently(stream);
+            return false;
+        }
+
+        synchronized void fail(IOException e) {
+            lastError = e;
+            failedCount++;
+            notifyAll();
+        }
+
+        /**
+         * 结束竞争；胜者没有被取走（如等待时被中断）时关闭其数据流
+         *
+         * @return 数据流已返回给调用者的请求，没有则返回null
+         */
+        Attempt finish() {
+            InputStream untaken;
+            Attempt takenAttempt;
+            synchronized (this) {
+                finished = true;
+                untaken = taken ? null : winner;
+                takenAttempt = taken ? winnerAttempt : null;
+                winner = null;
+            }
+            if (untaken != null) {
+                IoUtils.closeSilently(untaken);
+            }
+            return takenAttempt;
+        }
+
+        /**
+         * @param timeoutMillis 0表示一直等待
+         * @return 胜者的数据流；超时返回null
+         * @throws IOException 所有已发出的请求都失败
+         */
+        synchronized InputStream await(long timeoutMillis) throws IOException, InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (winner == null && failedCount < launchedCount) {
+                if (timeoutMillis > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) return null;
+                    wait(remaining);
+                } else {
+                    wait();
+                }
+            }
+            if (winner == null) throw lastError;
+            taken = true;
+            return winner;
+        }
+    }
+
+    private class Attempt implements Runnable {
+        private final Race race;
+        private final String imageUri;
+        private final Object extra;
+        private final boolean hedge;
+        private final AbortableRequest request = new AbortableRequest();
+
+        Attempt(Race race, String imageUri, Object extra, boolean hedge) {
+            this.race = race;
+            this.imageUri = imageUri;
+            this.extra = extra;
+            this.hedge = hedge;
+        }
+
+        @Override
+        public void run() {
+            long startTime = System.currentTimeMillis();
+            InputStream stream = null;
+            request.attach();
+            try {
+                stream = wrappedDownloader.getStream(imageUri, extra);
+                if (!stream.markSupported()) {
+                    stream = new BufferedInputStream(stream, IoUtils.DEFAULT_BUFFER_SIZE);
+                }
+                request.setStream(stream);
+                // 等待首字节到达
+                stream.mark(1);
+                stream.read();
+                stream.reset();
+                latencyTracker.add(System.currentTimeMillis() - startTime);
+                if (race.offer(this, stream) && hedge) {
+                    hedgeWinCount.incrementAndGet();
+                }
+            } catch (IOException e) {
+                if (stream != null) IoUtils.closeSilently(stream);
+                race.fail(e);
+            } catch (RuntimeException e) {
+                if (stream != null) IoUtils.closeSilently(stream);
+                race.fail(new IOException(e));
+            } finally {
+                request.detach();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HedgedImageDownloader[requests=%d,hedged=%d,hedgeWins=%d,%s]",
+                getRequestCount(), getHedgeCount(), getHedgeWinCount(), latencyTracker);
+    }
+}
@@ -118,10 +118,12 @@ public class ImageDownloader implements BaseDownloader {
      */
     protected InputStream getStreamFromNetwork(String imageUri, Object extra) throws IOException {
         HttpURLConnection conn = createConnection(imageUri, extra);
+        AbortableRequest.track(conn);
 
         int redirectCount = 0;
         while (conn.getResponseCode() / 100 == 3 && redirectCount < MAX_REDIRECT_COUNT) {
             conn = createConnection(conn.getHeaderField("Location"), extra);
+            AbortableRequest.track(conn);
             redirectCount++;
         }
 
@@ -0,0 +1,22 @@
+package com.itzs.zimageloader.downloader;
+
+import com.itzs.zimageloader.BandwidthEstimator;
+
+/**
+ * 图片版本选择器，用于在网络较差时下载低分辨率或高压缩率的图片版本
+ * <p/>
+ * 一般根据图片服务器的参数规则改写uri，如在uri后追加尺寸或质量参数
+ * @author zhangshuo
+ */
+public interface ImageVariantResolver {
+
+    /**
+     * 根据网络质量返回实际要下载的图片uri
+     *
+     * @param imageUri   原图uri
+     * @param targetSize 图片显示的目标大小，0 width， 1 height
+     * @param quality    当前估算的网络质量
+     * @return 实际要下载的uri；返回imageUri本身或null表示下载原图
+     */
+    String resolve(String imageUri, int[] targetSize, BandwidthEstimator.Quality quality);
+}
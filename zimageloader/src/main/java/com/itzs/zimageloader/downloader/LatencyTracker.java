@@ -0,0 +1,75 @@
+package com.itzs.zimageloader.downloader;
+
+import java.util.Arrays;
+
+/**
+ * 记录最近若干次请求的延迟（毫秒），并计算百分位数
+ * <p/>
+ * 使用固定大小的环形数组保存样本，只反映最近的网络状况
+ * @author zhangshuo
+ */
+public class LatencyTracker {
+
+    /** 默认保存的样本数 */
+    public static final int DEFAULT_CAPACITY = 128;
+
+    private final long[] samples;
+    /** 下一个样本的写入位置 */
+    private int next;
+    /** 当前样本数 */
+    private int count;
+
+    public LatencyTracker() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LatencyTracker(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.samples = new long[capacity];
+    }
+
+    /**
+     * 记录一个延迟样本
+     * @param latencyMillis 延迟，毫秒
+     */
+    public synchronized void add(long latencyMillis) {
+        samples[next] = latencyMillis;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) count++;
+    }
+
+    /**
+     * @return 当前样本数
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * 计算百分位数
+     * @param percentile 0-100
+     * @return 对应的延迟，毫秒；没有样本时返回-1
+     */
+    public synchronized long getPercentile(int percentile) {
+        if (count == 0) return -1;
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        if (index < 0) index = 0;
+        if (index >= count) index = count - 1;
+        return sorted[index];
+    }
+
+    /**
+     * 清空所有样本
+     */
+    public synchronized void clear() {
+        next = 0;
+        count = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LatencyTracker[count=%d,p50=%d,p99=%d]", getCount(), getPercentile(50), getPercentile(99));
+    }
+}
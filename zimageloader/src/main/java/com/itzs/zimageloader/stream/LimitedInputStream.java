@@ -0,0 +1,66 @@
+package com.itzs.zimageloader.stream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 最多只能读取limit个字节的数据流，超过后表现为数据流结束；关闭时不关闭被包装的数据流。<br/>
+ * 用于在{@link InputStream#mark(int)}的范围内读取，保证之后可以{@link InputStream#reset()}
+ */
+public class LimitedInputStream extends FilterInputStream {
+
+	private long remaining;
+
+	public LimitedInputStream(InputStream inputStream, long limit) {
+		super(inputStream);
+		this.remaining = limit;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(in.available(), remaining);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (remaining <= 0) return -1;
+		int b = in.read();
+		if (b >= 0) remaining--;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int byteOffset, int byteCount) throws IOException {
+		if (remaining <= 0) return -1;
+		int count = in.read(buffer, byteOffset, (int) Math.min(byteCount, remaining));
+		if (count > 0) remaining -= count;
+		return count;
+	}
+
+	@Override
+	public long skip(long byteCount) throws IOException {
+		long skipped = in.skip(Math.min(byteCount, remaining));
+		if (skipped > 0) remaining -= skipped;
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void mark(int readLimit) {
+	}
+
+	@Override
+	public void reset() throws IOException {
+		throw new IOException("mark/reset not supported");
+	}
+
+	@Override
+	public void close() throws IOException {
+		// 不关闭被包装的数据流
+	}
+}
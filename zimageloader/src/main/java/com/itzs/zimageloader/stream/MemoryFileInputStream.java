@@ -0,0 +1,66 @@
+package com.itzs.zimageloader.stream;
+
+import android.os.MemoryFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 读取{@link MemoryFile}（匿名共享内存）前length个字节的数据流，支持mark/reset；关闭时不关闭MemoryFile。<br/>
+ * 与{@link MemoryFile#getInputStream()}不同，mark没有范围限制，不需要再包装{@link java.io.BufferedInputStream}
+ */
+public class MemoryFileInputStream extends InputStream {
+
+    private final MemoryFile memoryFile;
+    private final int length;
+    private int position;
+    private int mark;
+    private final byte[] single = new byte[1];
+
+    public MemoryFileInputStream(MemoryFile memoryFile, int length) {
+        this.memoryFile = memoryFile;
+        this.length = length;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return length - position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int byteOffset, int byteCount) throws IOException {
+        if (position >= length) return -1;
+        int count = Math.min(byteCount, length - position);
+        if (count <= 0) return 0;
+        count = memoryFile.readBytes(buffer, position, byteOffset, count);
+        if (count > 0) position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long skipped = Math.max(0, Math.min(byteCount, length - position));
+        position += (int) skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+        mark = position;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        position = mark;
+    }
+}
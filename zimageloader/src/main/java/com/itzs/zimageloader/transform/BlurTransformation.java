@@ -0,0 +1,182 @@
+package com.itzs.zimageloader.transform;
+
+import android.graphics.Bitmap;
+
+import com.itzs.zimageloader.BitmapPool;
+import com.itzs.zimageloader.DefaultConfigurationFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 模糊，多次盒式模糊近似高斯模糊
+ * <p/>
+ * 大图的模糊计算量较大，按行（水平方向）和按列（垂直方向）分块在多个线程中并行计算，调用线程也计算其中一块
+ * @author zhangshuo
+ */
+public class BlurTransformation implements Transformation {
+
+    /**
+     * 盒式模糊的次数，3次与高斯模糊已很接近
+     */
+    private static final int PASSES = 3;
+    /**
+     * 像素数小于该值时不并行计算，线程切换的开销大于计算量
+     */
+    private static final int PARALLEL_MIN_PIXELS = 64 * 1024;
+
+    private final int radius;
+    private final ExecutorService executor;
+
+    /**
+     * @param radius 模糊半径，像素
+     */
+    public BlurTransformation(int radius) {
+        this(radius, DefaultExecutorHolder.EXECUTOR);
+    }
+
+    /**
+     * @param radius   模糊半径，像素
+     * @param executor 并行计算用的线程池，null则只在调用线程中计算
+     */
+    public BlurTransformation(int radius, ExecutorService executor) {
+        this.radius = radius;
+        this.executor = executor;
+    }
+
+    @Override
+    public Bitmap transform(Bitmap source, BitmapPool pool) {
+        if (radius <= 0) {
+            return source;
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] pixels = new int[width * height];
+        source.getPixels(pixels, 0, width, 0, 0, width, height);
+        try {
+            blur(pixels, width, height, radius, PASSES, width * height >= PARALLEL_MIN_PIXELS ? executor : null);
+        } catch (InterruptedException e) {
+            // 任务被取消，不返回只模糊了一部分的结果
+            Thread.currentThread().interrupt();
+            return source;
+        }
+        Bitmap result = TransformationPipeline.obtainBitmap(pool, width, height, Bitmap.Config.ARGB_8888);
+        result.setPixels(pixels, 0, width, 0, 0, width, height);
+        return result;
+    }
+
+    @Override
+    public String getKey() {
+        return "blur(" + radius + ")";
+    }
+
+    /**
+     * 对ARGB像素做passes次盒式模糊，结果写回pixels
+     *
+     * @param executor 并行计算用的线程池，null则只在调用线程中计算
+     * @throws InterruptedException 等待其他线程计算时被中断
+     */
+    static void blur(final int[] pixels, final int width, final int height, final int radius, int passes,
+                     ExecutorService executor) throws InterruptedException {
+        final int[] buffer = new int[pixels.length];
+        for (int pass = 0; pass < passes; pass++) {
+            runInChunks(height, executor, new Chunk() {
+                @Override
+                public void run(int from, int to) {
+                    for (int y = from; y < to; y++) {
+                        blurLine(pixels, buffer, y * width, 1, width, radius);
+                    }
+                }
+            });
+            runInChunks(width, executor, new Chunk() {
+                @Override
+                public void run(int from, int to) {
+                    for (int x = from; x < to; x++) {
+                        blurLine(buffer, pixels, x, width, height, radius);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 对一行或一列像素做一维盒式模糊，边缘外的像素按边缘像素计算
+     *
+     * @param offset 第一个像素的下标
+     * @param stride 相邻像素下标的差，行为1，列为宽度
+     * @param length 像素个数
+     */
+    static void blurLine(int[] src, int[] dst, int offset, int stride, int length, int radius) {
+        int divisor = radius * 2 + 1;
+        int a = 0, r = 0, g = 0, b = 0;
+        for (int i = -radius; i <= radius; i++) {
+            int p = src[offset + clamp(i, length) * stride];
+            a += p >>> 24;
+            r += (p >> 16) & 0xff;
+            g += (p >> 8) & 0xff;
+            b += p & 0xff;
+        }
+        for (int i = 0; i < length; i++) {
+            dst[offset + i * stride] = ((a / divisor) << 24) | ((r / divisor) << 16) | ((g / divisor) << 8) | (b / divisor);
+            int out = src[offset + clamp(i - radius, length) * stride];
+            int in = src[offset + clamp(i + radius + 1, length) * stride];
+            a += (in >>> 24) - (out >>> 24);
+            r += ((in >> 16) & 0xff) - ((out >> 16) & 0xff);
+            g += ((in >> 8) & 0xff) - ((out >> 8) & 0xff);
+            b += (in & 0xff) - (out & 0xff);
+        }
+    }
+
+    private static int clamp(int index, int length) {
+        return index < 0 ? 0 : (index >= length ? length - 1 : index);
+    }
+
+    private interface Chunk {
+        void run(int from, int to);
+    }
+
+    /**
+     * 将[0, count)分成若干块，除最后一块外提交到线程池，最后一块在调用线程中计算，等待所有块结束
+     */
+    private static void runInChunks(int count, ExecutorService executor, final Chunk chunk) throws InterruptedException {
+        int chunks = executor == null ? 1 : Math.min(count, Runtime.getRuntime().availableProcessors());
+        if (chunks <= 1) {
+            chunk.run(0, count);
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<Future<?>>(chunks - 1);
+        int chunkSize = (count + chunks - 1) / chunks;
+        int from = 0;
+        for (int i = 0; i < chunks - 1 && from + chunkSize < count; i++, from += chunkSize) {
+            final int start = from;
+            final int end = from + chunkSize;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    chunk.run(start, end);
+                    return null;
+                }
+            }));
+        }
+        try {
+            chunk.run(from, count);
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static class DefaultExecutorHolder {
+        static final ExecutorService EXECUTOR = DefaultConfigurationFactory.createTransformExecutor();
+    }
+}
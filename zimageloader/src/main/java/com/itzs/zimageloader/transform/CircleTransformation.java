@@ -0,0 +1,37 @@
+package com.itzs.zimageloader.transform;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
+
+import com.itzs.zimageloader.BitmapPool;
+
+/**
+ * 居中裁剪为圆形，直径为宽高中较小的一边，圆以外的部分透明
+ * @author zhangshuo
+ */
+public class CircleTransformation implements Transformation {
+
+    @Override
+    public Bitmap transform(Bitmap source, BitmapPool pool) {
+        int size = Math.min(source.getWidth(), source.getHeight());
+        Bitmap result = TransformationPipeline.obtainBitmap(pool, size, size, Bitmap.Config.ARGB_8888);
+        BitmapShader shader = new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        Matrix matrix = new Matrix();
+        matrix.postTranslate(-(source.getWidth() - size) / 2f, -(source.getHeight() - size) / 2f);
+        shader.setLocalMatrix(matrix);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        paint.setShader(shader);
+        float radius = size / 2f;
+        new Canvas(result).drawCircle(radius, radius, radius, paint);
+        return result;
+    }
+
+    @Override
+    public String getKey() {
+        return "circle";
+    }
+}
@@ -0,0 +1,59 @@
+package com.itzs.zimageloader.transform;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import com.itzs.zimageloader.BitmapPool;
+
+/**
+ * 居中裁剪为指定的宽高比，保留原图分辨率
+ * @author zhangshuo
+ */
+public class CropTransformation implements Transformation {
+
+    private final int aspectWidth;
+    private final int aspectHeight;
+
+    /**
+     * @param aspectWidth  宽高比的宽
+     * @param aspectHeight 宽高比的高
+     */
+    public CropTransformation(int aspectWidth, int aspectHeight) {
+        if (aspectWidth <= 0 || aspectHeight <= 0) {
+            throw new IllegalArgumentException("aspect ratio must be positive");
+        }
+        this.aspectWidth = aspectWidth;
+        this.aspectHeight = aspectHeight;
+    }
+
+    @Override
+    public Bitmap transform(Bitmap source, BitmapPool pool) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int cropWidth = width;
+        int cropHeight = (int) ((long) width * aspectHeight / aspectWidth);
+        if (cropHeight > height) {
+            cropHeight = height;
+            cropWidth = (int) ((long) height * aspectWidth / aspectHeight);
+        }
+        cropWidth = Math.max(1, cropWidth);
+        cropHeight = Math.max(1, cropHeight);
+        if (cropWidth == width && cropHeight == height) {
+            return source;
+        }
+        int left = (width - cropWidth) / 2;
+        int top = (height - cropHeight) / 2;
+        Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap result = TransformationPipeline.obtainBitmap(pool, cropWidth, cropHeight, config);
+        new Canvas(result).drawBitmap(source, new Rect(left, top, left + cropWidth, top + cropHeight),
+                new Rect(0, 0, cropWidth, cropHeight), new Paint(Paint.FILTER_BITMAP_FLAG));
+        return result;
+    }
+
+    @Override
+    public String getKey() {
+        return "crop(" + aspectWidth + ":" + aspectHeight + ")";
+    }
+}
@@ -0,0 +1,43 @@
+package com.itzs.zimageloader.transform;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+import com.itzs.zimageloader.BitmapPool;
+
+/**
+ * 圆角，圆角以外的部分透明
+ * @author zhangshuo
+ */
+public class RoundedCornersTransformation implements Transformation {
+
+    private final int radius;
+
+    /**
+     * @param radius 圆角半径，像素
+     */
+    public RoundedCornersTransformation(int radius) {
+        this.radius = radius;
+    }
+
+    @Override
+    public Bitmap transform(Bitmap source, BitmapPool pool) {
+        if (radius <= 0) {
+            return source;
+        }
+        Bitmap result = TransformationPipeline.obtainBitmap(pool, source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        paint.setShader(new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+        new Canvas(result).drawRoundRect(new RectF(0, 0, source.getWidth(), source.getHeight()), radius, radius, paint);
+        return result;
+    }
+
+    @Override
+    public String getKey() {
+        return "round(" + radius + ")";
+    }
+}
@@ -0,0 +1,28 @@
+package com.itzs.zimageloader.transform;
+
+import android.graphics.Bitmap;
+
+import com.itzs.zimageloader.BitmapPool;
+
+/**
+ * bitmap变换，如裁剪、圆角、圆形、模糊，在解码线程中解码后执行
+ * <p/>
+ * 变换后的bitmap按{@link #getKey()}区分缓存，相同key的变换必须得到相同的结果
+ * @author zhangshuo
+ */
+public interface Transformation {
+
+    /**
+     * 变换bitmap
+     *
+     * @param source 解码得到的bitmap，不能修改，也不能回收（由调用者放回bitmap池）
+     * @param pool   输出bitmap优先从池中取得，可为null
+     * @return 变换后的bitmap；不需要变换时直接返回source
+     */
+    Bitmap transform(Bitmap source, BitmapPool pool);
+
+    /**
+     * @return 变换的唯一标识，包括所有影响结果的参数，会拼接到内存缓存和磁盘缓存的key中
+     */
+    String getKey();
+}
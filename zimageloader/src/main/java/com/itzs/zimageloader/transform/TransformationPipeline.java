@@ -0,0 +1,91 @@
+package com.itzs.zimageloader.transform;
+
+import android.graphics.Bitmap;
+
+import com.itzs.zimageloader.BitmapPool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按顺序执行的一组变换，中间结果用完后放回bitmap池
+ * @author zhangshuo
+ */
+public final class TransformationPipeline {
+
+    private static final String KEY_SEPARATOR = ",";
+
+    private final List<Transformation> transformations;
+    private final String key;
+
+    public TransformationPipeline(Transformation... transformations) {
+        this(Arrays.asList(transformations));
+    }
+
+    public TransformationPipeline(List<Transformation> transformations) {
+        this.transformations = Collections.unmodifiableList(new ArrayList<Transformation>(transformations));
+        StringBuilder sb = new StringBuilder();
+        for (Transformation transformation : this.transformations) {
+            if (sb.length() > 0) {
+                sb.append(KEY_SEPARATOR);
+            }
+            sb.append(transformation.getKey());
+        }
+        this.key = sb.toString();
+    }
+
+    public boolean isEmpty() {
+        return transformations.isEmpty();
+    }
+
+    public List<Transformation> getTransformations() {
+        return transformations;
+    }
+
+    /**
+     * @return 所有变换key按顺序拼接的结果
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * 依次执行所有变换
+     *
+     * @param source 解码得到的bitmap，变换结束后放回bitmap池，调用者不能再使用
+     * @param pool   可为null，为null时不复用bitmap
+     * @return 变换后的bitmap
+     */
+    public Bitmap apply(Bitmap source, BitmapPool pool) {
+        Bitmap current = source;
+        for (Transformation transformation : transformations) {
+            Bitmap result = transformation.transform(current, pool);
+            if (result != current && pool != null) {
+                pool.put(current);
+            }
+            current = result;
+        }
+        return current;
+    }
+
+    /**
+     * 取得变换输出用的bitmap，优先复用池中相同规格的bitmap
+     *
+     * @return 透明的可变bitmap
+     */
+    public static Bitmap obtainBitmap(BitmapPool pool, int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = pool != null ? pool.get(width, height, config) : null;
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(0);
+        return bitmap;
+    }
+
+    @Override
+    public String toString() {
+        return "TransformationPipeline[" + key + "]";
+    }
+}
@@ -25,6 +25,8 @@ import android.widget.ImageView.ScaleType;
 
 import com.itzs.zimageloader.FileNameGenerator;
 import com.itzs.zimageloader.ImageLoader;
+import com.itzs.zimageloader.transform.Transformation;
+import com.itzs.zimageloader.transform.TransformationPipeline;
 
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
@@ -41,6 +43,10 @@ public abstract class ViewAware {
 
     public static final String WARN_CANT_SET_DRAWABLE = "Can't set a drawable into view. You should call ImageLoader on UI thread for it.";
     public static final String WARN_CANT_SET_BITMAP = "Can't set a bitmap into view. You should call ImageLoader on UI thread for it.";
+    /**
+     * 按区域解码时缓存key中代替变换key的标记，区域解码的bitmap只能用于CENTER_CROP显示
+     */
+    public static final String CROP_REGION_KEY = "cropRegion";
 
     protected Reference<View> viewRef;
     protected String uri;
@@ -54,6 +60,22 @@ public abstract class ViewAware {
      * 记录要压缩图片的目标大小，0 width， 1 height
      */
     protected int[] targetSize = new int[2];
+    /**
+     * 标记是否必须加载原图（如用户放大查看时），为true时不会因网络较差而加载低质量版本
+     */
+    protected boolean fullQualityRequired;
+    /**
+     * 是否在完整解码前先显示低分辨率的预览图
+     */
+    protected boolean progressivePreview;
+    /**
+     * 解码后执行的变换，null则不变换
+     */
+    protected TransformationPipeline transformationPipeline;
+    /**
+     * 是否允许CENTER_CROP时只解码view中显示出来的区域
+     */
+    protected boolean cropRegionDecode;
 
 
     public ViewAware(View view, String uri) {
@@ -96,12 +118,13 @@ public abstract class ViewAware {
 
     public String getMemoryCacheKey() {
         if (null == memoryCacheKey) {
-            //默认情况下memoryCacheKey = uri；
-            memoryCacheKey = uri;
+            //默认情况下memoryCacheKey = 规范化的uri；有变换时拼接变换的key
+            String transformationKey = getTransformationKey();
+            memoryCacheKey = FileNameGenerator.generateMemoryCacheKey(uri, null, transformationKey);
             if (shouldCompress) {
                 //是否压缩图片，如果压缩图片则memoryCacheKey的值为uri_width X heigth;
                 initTagetSize();
-                memoryCacheKey = FileNameGenerator.generateMemoryCacheKey(uri, targetSize);
+                memoryCacheKey = FileNameGenerator.generateMemoryCacheKey(uri, targetSize, transformationKey);
             }
         }
         return memoryCacheKey;
@@ -142,6 +165,104 @@ public abstract class ViewAware {
         return shouldCompress;
     }
 
+    /**
+     * 设置是否必须加载原图，如用户放大查看图片时设置为true，以替换网络较差时加载的低质量版本
+     *
+     * @param fullQualityRequired
+     */
+    public void setFullQualityRequired(boolean fullQualityRequired) {
+        this.fullQualityRequired = fullQualityRequired;
+    }
+
+    /**
+     * 是否必须加载原图
+     *
+     * @return
+     */
+    public boolean isFullQualityRequired() {
+        return fullQualityRequired;
+    }
+
+    /**
+     * 设置是否先显示预览图：大图需要从磁盘完整解码时，先显示EXIF缩略图或大幅采样的预览图，完整解码后再替换，
+     * 适合查看大图等用户需要等待较久的场景
+     *
+     * @param progressivePreview
+     */
+    public void setProgressivePreview(boolean progressivePreview) {
+        this.progressivePreview = progressivePreview;
+    }
+
+    /**
+     * 是否先显示预览图
+     *
+     * @return
+     */
+    public boolean isProgressivePreview() {
+        return progressivePreview;
+    }
+
+    /**
+     * 设置解码后按顺序执行的变换（如圆角、圆形、模糊），变换在解码线程中执行，变换后的bitmap缓存到内存和磁盘；
+     * 变换是缓存key的一部分，应在显示图片之前设置
+     *
+     * @param transformations 不传则不变换
+     */
+    public void setTransformations(Transformation... transformations) {
+        this.transformationPipeline = transformations.length == 0 ? null : new TransformationPipeline(transformations);
+        this.memoryCacheKey = null;
+    }
+
+    /**
+     * @return 解码后执行的变换，没有设置变换时返回null
+     */
+    public TransformationPipeline getTransformationPipeline() {
+        return transformationPipeline;
+    }
+
+    /**
+     * 设置CENTER_CROP时是否只解码view中显示出来的区域（图片格式支持区域解码时），宽高比与view相差较大的大图可以少解码很多像素；
+     * 区域解码的bitmap不能用于其他缩放方式，因此使用单独的缓存key，应在显示图片之前设置
+     *
+     * @param cropRegionDecode
+     */
+    public void setCropRegionDecode(boolean cropRegionDecode) {
+        this.cropRegionDecode = cropRegionDecode;
+        this.memoryCacheKey = null;
+    }
+
+    /**
+     * 是否按区域解码：设置了区域解码、允许压缩、缩放方式为CENTER_CROP且没有设置变换（变换需要完整的图片）
+     *
+     * @return
+     */
+    public boolean isCropRegionDecode() {
+        return cropRegionDecode && shouldCompress && transformationPipeline == null && getScaleType() == ScaleType.CENTER_CROP;
+    }
+
+    /**
+     * @return 缓存key中的变换部分：变换的key；按区域解码时为{@link #CROP_REGION_KEY}；都没有时返回null
+     */
+    public String getTransformationKey() {
+        if (transformationPipeline != null) {
+            return transformationPipeline.getKey();
+        }
+        return isCropRegionDecode() ? CROP_REGION_KEY : null;
+    }
+
+    /**
+     * 内存缓存中的bitmap是否可以直接显示在该view上；必须显示原图质量时，不使用RGB_565解码的bitmap
+     *
+     * @param bitmap
+     * @return
+     */
+    public boolean acceptsCachedBitmap(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return false;
+        }
+        return !(fullQualityRequired && bitmap.getConfig() == Bitmap.Config.RGB_565);
+    }
+
     /**
      * 设置压缩图片目标大小targetSize的值
      *
@@ -166,17 +287,16 @@ public abstract class ViewAware {
      * 如果view的实际大小获取失败则使用默认大小作为目标尺寸.
      */
     private void initTagetSize() {
-        if (targetSize[0] > 0 && targetSize[1] > 0) {
-            //已有合法的targetSize
-            return;
-        } else {
-            //targetSize不合法
+        if (targetSize[0] <= 0 || targetSize[1] <= 0) {
+            //没有合法的targetSize时按view的大小
             targetSize[0] = getWidth();
             if (targetSize[0] <= 0) targetSize[0] = ImageLoader.getDefaultWidht();
 
             targetSize[1] = getHeight();
             if (targetSize[1] <= 0) targetSize[1] = ImageLoader.getDefaultWidht();
         }
+        //取整到档位，大小相近的view共用同一个内存缓存key
+        FileNameGenerator.bucketTargetSize(targetSize);
     }
 
     /**
@@ -0,0 +1,56 @@
+package com.itzs.zimageloader.view;
+
+import android.widget.ImageView.ScaleType;
+
+/**
+ * 图片在view中的缩放方式，决定解码时按哪条边缩放到目标大小
+ * @author zhangshuo
+ */
+public enum ViewScaleType {
+    /**
+     * 整张图片显示在view内，图片的宽高都不大于目标大小（至少一条边等于目标大小）
+     */
+    FIT_INSIDE,
+    /**
+     * 图片填满view，图片的宽高都不小于目标大小（至少一条边等于目标大小），超出的部分被裁剪或拉伸
+     */
+    CROP;
+
+    /**
+     * 根据ImageView的ScaleType返回缩放方式：<br/>
+     * FIT_CENTER、FIT_START、FIT_END、CENTER_INSIDE -> FIT_INSIDE；<br/>
+     * CENTER_CROP、FIT_XY（拉伸时两条边都不能小于目标大小）、CENTER、MATRIX -> CROP
+     *
+     * @param scaleType
+     * @return
+     */
+    public static ViewScaleType fromScaleType(ScaleType scaleType) {
+        if (scaleType == null) {
+            return CROP;
+        }
+        switch (scaleType) {
+            case FIT_CENTER:
+            case FIT_START:
+            case FIT_END:
+            case CENTER_INSIDE:
+                return FIT_INSIDE;
+            case FIT_XY:
+            case CENTER_CROP:
+            case CENTER:
+            case MATRIX:
+            default:
+                return CROP;
+        }
+    }
+
+    /**
+     * 按ScaleType显示时，view是否会缩放图片；CENTER、MATRIX按图片原始像素大小显示，
+     * 解码时不能精确缩放到目标大小，否则会改变显示出来的大小
+     *
+     * @param scaleType
+     * @return
+     */
+    public static boolean isScaledByView(ScaleType scaleType) {
+        return scaleType != ScaleType.CENTER && scaleType != ScaleType.MATRIX;
+    }
+}
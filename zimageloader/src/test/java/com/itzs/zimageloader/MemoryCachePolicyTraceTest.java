@@ -0,0 +1,231 @@
+package com.itzs.zimageloader;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 按请求序列比较内存缓存的LRU和W-TinyLFU策略的命中率，直接驱动{@link LruMemoryCache}，两者都按字节计算容量
+ * <p/>
+ * 除生成的序列外，可以用系统属性zimageloader.trace指定记录的请求序列文件，每行一个请求：内存缓存key和bitmap字节数，以空格分隔；两种策略的命中率写入同目录下的“文件名.hitrate”
+ */
+public class MemoryCachePolicyTraceTest {
+
+    private static final int CACHE_SIZE = 8 * 1024 * 1024;
+    private static final int AVATAR_SIZE = 96 * 96 * 4;
+    private static final int HEADER_SIZE = 360 * 200 * 4;
+    private static final int ITEM_SIZE = 360 * 360 * 4;
+
+    private static final class Request {
+        final String key;
+        final int size;
+
+        Request(String key, int size) {
+            this.key = key;
+            this.size = size;
+        }
+    }
+
+    /**
+     * JVM单元测试中不能创建真正的bitmap，按key返回请求序列中记录的大小
+     */
+    private static final class SizedMemoryCache extends LruMemoryCache {
+        final Map<String, Integer> sizes = new HashMap<String, Integer>();
+
+        SizedMemoryCache(int maxSize, EvictionPolicy policy) {
+            super(maxSize, policy);
+        }
+
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return sizes.get(key);
+        }
+
+        void put(String key, int size) throws Exception {
+            sizes.put(key, size);
+            put(key, newOpaqueBitmap());
+        }
+    }
+
+    /**
+     * android.jar的方法在JVM上只返回默认值，通过反射调用Bitmap的构造方法创建不透明的bitmap，只用作缓存的值
+     */
+    private static Bitmap newOpaqueBitmap() throws Exception {
+        Constructor<?> constructor = Bitmap.class.getDeclaredConstructors()[0];
+        constructor.setAccessible(true);
+        Class<?>[] types = constructor.getParameterTypes();
+        Object[] args = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == boolean.class) {
+                args[i] = false;
+            } else if (types[i] == long.class) {
+                args[i] = 0L;
+            } else if (types[i] == float.class) {
+                args[i] = 0f;
+            } else if (types[i] == double.class) {
+                args[i] = 0d;
+            } else if (types[i].isPrimitive()) {
+                args[i] = 0;
+            }
+        }
+        return (Bitmap) constructor.newInstance(args);
+    }
+
+    /**
+     * 与加载流程相同的调用顺序：get未命中时put，由缓存按策略淘汰到不超过容量
+     */
+    private static float replay(List<Request> trace, LruMemoryCache.EvictionPolicy policy) throws Exception {
+        SizedMemoryCache cache = new SizedMemoryCache(CACHE_SIZE, policy);
+        for (Request request : trace) {
+            if (cache.get(request.key) == null) {
+                cache.put(request.key, request.size);
+            }
+        }
+        assertEquals(trace.size(), cache.hitCount() + cache.missCount());
+        return (float) cache.hitCount() / trace.size();
+    }
+
+    private static float replayLru(List<Request> trace) throws Exception {
+        return replay(trace, LruMemoryCache.EvictionPolicy.LRU);
+    }
+
+    private static float replayTinyLfu(List<Request> trace) throws Exception {
+        return replay(trace, LruMemoryCache.EvictionPolicy.TINY_LFU);
+    }
+
+    /**
+     * 信息流：每屏都显示几个常用头像和标题图，再加几张新图片；不时快速滑过一长串只看一眼的图片
+     */
+    private static List<Request> feedWithFlings(long seed) {
+        Random random = new Random(seed);
+        List<Request> trace = new ArrayList<Request>();
+        int unique = 0;
+        for (int screen = 0; screen < 2000; screen++) {
+            for (int i = 0; i < 4; i++) {
+                trace.add(new Request("avatar" + random.nextInt(40) + "_96x96", AVATAR_SIZE));
+            }
+            trace.add(new Request("header" + random.nextInt(12) + "_360x200", HEADER_SIZE));
+            for (int i = 0; i < 3; i++) {
+                trace.add(new Request("item" + (unique++) + "_360x360", ITEM_SIZE));
+            }
+            if (screen % 25 == 24) {
+                for (int i = 0; i < 120; i++) {
+                    trace.add(new Request("item" + (unique++) + "_360x360", ITEM_SIZE));
+                }
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * 没有扫描的偏斜访问：图库中反复翻看少数图片
+     */
+    private static List<Request> skewedGallery(long seed) {
+        Random random = new Random(seed);
+        List<Request> trace = new ArrayList<Request>();
+        for (int i = 0; i < 20000; i++) {
+            //近似Zipf分布，编号越小访问越频繁
+            int id = (int) Math.floor(Math.pow(400, random.nextDouble())) - 1;
+            trace.add(new Request("photo" + id + "_360x360", ITEM_SIZE));
+        }
+        return trace;
+    }
+
+    @Test
+    public void tinyLfuResistsFlingPollution() throws Exception {
+        List<Request> trace = feedWithFlings(1);
+        float lru = replayLru(trace);
+        float tinyLfu = replayTinyLfu(trace);
+        assertTrue("TinyLFU=" + tinyLfu + " LRU=" + lru, tinyLfu > lru);
+    }
+
+    @Test
+    public void tinyLfuMatchesLruOnSkewedAccess() throws Exception {
+        List<Request> trace = skewedGallery(2);
+        float lru = replayLru(trace);
+        float tinyLfu = replayTinyLfu(trace);
+        assertTrue("TinyLFU=" + tinyLfu + " LRU=" + lru, tinyLfu >= lru - 0.02f);
+    }
+
+    @Test
+    public void evictsEverythingWhenTrimmedToZero() throws Exception {
+        TinyLfuPolicy policy = new TinyLfuPolicy(CACHE_SIZE);
+        for (int i = 0; i < 10; i++) {
+            policy.onPut("item" + i, ITEM_SIZE);
+        }
+        policy.onHit("item3");
+        int evicted = 0;
+        while (policy.evict(-1) != null) {
+            evicted++;
+        }
+        assertEquals(10, evicted);
+    }
+
+    @Test
+    public void peekDoesNotCountAsRequest() throws Exception {
+        SizedMemoryCache cache = new SizedMemoryCache(CACHE_SIZE, LruMemoryCache.EvictionPolicy.TINY_LFU);
+        cache.put("item0_360x360", ITEM_SIZE);
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(cache.peek("item0_360x360"));
+            assertNull(cache.peek("item1_360x360"));
+        }
+        assertEquals(0, cache.hitCount());
+        assertEquals(0, cache.missCount());
+    }
+
+    @Test
+    public void peekAndVariantLookupKeepLruOrder() throws Exception {
+        SizedMemoryCache cache = new SizedMemoryCache(2 * ITEM_SIZE, LruMemoryCache.EvictionPolicy.LRU);
+        cache.put("http://a/1.jpg_360x360", ITEM_SIZE);
+        cache.put("http://b/2.jpg_360x360", ITEM_SIZE);
+        // 只查询，不应使最久未访问的a变为最近访问
+        cache.peek("http://a/1.jpg_360x360");
+        cache.getClosestVariant("http://a/1.jpg_180x180", 180, 180);
+        cache.put("http://c/3.jpg_360x360", ITEM_SIZE);
+        assertNull(cache.peek("http://a/1.jpg_360x360"));
+        assertNotNull(cache.peek("http://b/2.jpg_360x360"));
+    }
+
+    @Test
+    public void replayRecordedTrace() throws Exception {
+        String path = System.getProperty("zimageloader.trace");
+        if (path == null) {
+            return;
+        }
+        List<Request> trace = new ArrayList<Request>();
+        BufferedReader reader = new BufferedReader(new FileReader(new File(path)));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.lastIndexOf(' ');
+                if (separator > 0) {
+                    trace.add(new Request(line.substring(0, separator), Integer.parseInt(line.substring(separator + 1).trim())));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        // 结果写在请求序列文件旁边
+        Writer writer = new FileWriter(new File(path + ".hitrate"));
+        try {
+            writer.write(String.format("requests=%d LRU=%.3f TinyLFU=%.3f%n", trace.size(),
+                    replayLru(trace), replayTinyLfu(trace)));
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.itzs.zimageloader.decoder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * GIF解码测试：标准的1x1透明GIF样本，以及按giflib的LZW编码方式生成的多帧GIF（局部颜色表、交错、透明、各种处置方式）
+ */
+public class GifDecoderTest {
+
+    /**
+     * 常见的1x1透明GIF
+     */
+    private static final byte[] TRANSPARENT_PIXEL = {
+            'G', 'I', 'F', '8', '9', 'a', 1, 0, 1, 0, (byte) 0x80, 0, 0,
+            0, 0, 0, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+            0x21, (byte) 0xf9, 4, 1, 0, 0, 0, 0,
+            0x2c, 0, 0, 0, 0, 1, 0, 1, 0, 0,
+            2, 2, 0x44, 1, 0,
+            0x3b
+    };
+
+    private static final int[] PALETTE = {0xff000000, 0xffff0000, 0xff00ff00, 0xff0000ff};
+
+    @Test
+    public void decodesTransparentPixelSample() throws Exception {
+        GifDecoder decoder = new GifDecoder(TRANSPARENT_PIXEL);
+        assertEquals(1, decoder.getWidth());
+        assertEquals(1, decoder.getHeight());
+        assertEquals(1, decoder.getFrameCount());
+        assertEquals(-1, decoder.getLoopCount());
+        int[] frame = new int[1];
+        frame[0] = 0x12345678;
+        assertEquals(0, decoder.advance(frame));
+        assertEquals(0, frame[0]);
+    }
+
+    @Test
+    public void decodesLargeRandomFrameAcrossTableResets() throws Exception {
+        int width = 401;
+        int height = 299;
+        Random random = new Random(42);
+        byte[] indices = new byte[width * height];
+        for (int i = 0; i < indices.length; i++) {
+            // 前半部分随机（字典很快写满并重置），后半部分重复（长的字典项）
+            indices[i] = (byte) (i < indices.length / 2 ? random.nextInt(4) : (i / 7) % 4);
+        }
+        GifWriter writer = new GifWriter(width, height, PALETTE);
+        writer.addFrame(0, 0, width, height, indices, 0, GifDecoder.DISPOSAL_NONE, -1, false, null);
+        GifDecoder decoder = new GifDecoder(writer.toByteArray());
+        int[] pixels = new int[width * height];
+        decoder.advance(pixels);
+        for (int i = 0; i < indices.length; i++) {
+            assertEquals("pixel " + i, PALETTE[indices[i]], pixels[i]);
+        }
+    }
+
+    @Test
+    public void appliesDisposalAndTransparency() throws Exception {
+        GifWriter writer = new GifWriter(4, 4, PALETTE);
+        writer.setLoopCount(0);
+        // 第1帧：整个画面为红色
+        writer.addFrame(0, 0, 4, 4, fill(16, 1), 5, GifDecoder.DISPOSAL_NONE, -1, false, null);
+        // 第2帧：左上2x2为绿色，之后恢复为背景（透明）
+        writer.addFrame(0, 0, 2, 2, fill(4, 2), 5, GifDecoder.DISPOSAL_BACKGROUND, -1, false, null);
+        // 第3帧：右下2x2，透明索引0不覆盖，索引3为蓝色，之后恢复为绘制前的画面
+        writer.addFrame(2, 2, 2, 2, new byte[]{0, 3, 3, 0}, 5, GifDecoder.DISPOSAL_PREVIOUS, 0, false, null);
+        // 第4帧：1x1，使用局部颜色表
+        writer.addFrame(3, 0, 1, 1, new byte[]{1}, 0, GifDecoder.DISPOSAL_NONE, -1, false, new int[]{0xff000000, 0xffffff00});
+
+        GifDecoder decoder = new GifDecoder(writer.toByteArray());
+        assertEquals(4, decoder.getFrameCount());
+        assertEquals(0, decoder.getLoopCount());
+        assertEquals(50, decoder.getDelay(0));
+        assertEquals(GifDecoder.DEFAULT_DELAY, decoder.getDelay(3));
+
+        int red = PALETTE[1];
+        int green = PALETTE[2];
+        int blue = PALETTE[3];
+        int[] pixels = new int[16];
+
+        decoder.advance(pixels);
+        assertArrayEquals(repeat(16, red), pixels);
+
+        decoder.advance(pixels);
+        assertEquals(green, pixels[0]);
+        assertEquals(green, pixels[5]);
+        assertEquals(red, pixels[2]);
+
+        decoder.advance(pixels);
+        // 第2帧的区域已恢复为透明
+        assertEquals(0, pixels[0]);
+        assertEquals(0, pixels[5]);
+        assertEquals(red, pixels[10]);
+        assertEquals(blue, pixels[11]);
+        assertEquals(blue, pixels[14]);
+        assertEquals(red, pixels[15]);
+
+        decoder.advance(pixels);
+        // 第3帧恢复为绘制前的画面
+        assertEquals(red, pixels[11]);
+        assertEquals(0xffffff00, pixels[3]);
+
+        // 循环回到第1帧
+        assertEquals(0, decoder.advance(pixels));
+        assertArrayEquals(repeat(16, red), pixels);
+    }
+
+    @Test
+    public void decodesInterlacedFrame() throws Exception {
+        int width = 3;
+        int height = 11;
+        byte[] rows = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            Arrays.fill(rows, y * width, (y + 1) * width, (byte) (y % 4));
+        }
+        GifWriter writer = new GifWriter(width, height, PALETTE);
+        writer.addFrame(0, 0, width, height, rows, 0, GifDecoder.DISPOSAL_NONE, -1, true, null);
+        int[] pixels = new int[width * height];
+        new GifDecoder(writer.toByteArray()).advance(pixels);
+        for (int y = 0; y < height; y++) {
+            assertEquals("row " + y, PALETTE[y % 4], pixels[y * width]);
+        }
+    }
+
+    @Test
+    public void truncatedFileKeepsCompleteFrames() throws Exception {
+        GifWriter writer = new GifWriter(4, 4, PALETTE);
+        writer.addFrame(0, 0, 4, 4, fill(16, 1), 5, GifDecoder.DISPOSAL_NONE, -1, false, null);
+        int firstFrameEnd = writer.size();
+        writer.addFrame(0, 0, 4, 4, fill(16, 2), 5, GifDecoder.DISPOSAL_NONE, -1, false, null);
+        byte[] data = writer.toByteArray();
+        GifDecoder decoder = new GifDecoder(Arrays.copyOf(data, firstFrameEnd + 12));
+        assertEquals(1, decoder.getFrameCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonGif() throws Exception {
+        new GifDecoder(new byte[]{(byte) 0x89, 'P', 'N', 'G', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+    }
+
+    private static byte[] fill(int count, int index) {
+        byte[] indices = new byte[count];
+        Arrays.fill(indices, (byte) index);
+        return indices;
+    }
+
+    private static int[] repeat(int count, int color) {
+        int[] pixels = new int[count];
+        Arrays.fill(pixels, color);
+        return pixels;
+    }
+
+    /**
+     * 生成GIF，LZW编码与giflib一致
+     */
+    private static class GifWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private boolean loopWritten;
+
+        GifWriter(int width, int height, int[] palette) {
+            out.write('G');
+            out.write('I');
+            out.write('F');
+            out.write('8');
+            out.write('9');
+            out.write('a');
+            writeShort(width);
+            writeShort(height);
+            out.write(0x80 | (tableBits(palette.length) - 1));
+            out.write(0);
+            out.write(0);
+            writeColorTable(palette);
+        }
+
+        void setLoopCount(int loopCount) {
+            if (loopWritten) {
+                return;
+            }
+            loopWritten = true;
+            out.write(0x21);
+            out.write(0xff);
+            out.write(11);
+            byte[] app = "NETSCAPE2.0".getBytes();
+            out.write(app, 0, app.length);
+            out.write(3);
+            out.write(1);
+            writeShort(loopCount);
+            out.write(0);
+        }
+
+        void addFrame(int x, int y, int width, int height, byte[] indices, int delayCs, int disposal,
+                      int transparentIndex, boolean interlace, int[] localPalette) {
+            out.write(0x21);
+            out.write(0xf9);
+            out.write(4);
+            out.write((disposal << 2) | (transparentIndex >= 0 ? 1 : 0));
+            writeShort(delayCs);
+            out.write(Math.max(0, transparentIndex));
+            out.write(0);
+
+            out.write(0x2c);
+            writeShort(x);
+            writeShort(y);
+            writeShort(width);
+            writeShort(height);
+            int packed = interlace ? 0x40 : 0;
+            if (localPalette != null) {
+                packed |= 0x80 | (tableBits(localPalette.length) - 1);
+            }
+            out.write(packed);
+            if (localPalette != null) {
+                writeColorTable(localPalette);
+            }
+            byte[] stored = interlace ? interlace(indices, width, height) : indices;
+            int minCodeSize = 2;
+            out.write(minCodeSize);
+            byte[] lzw = lzw(stored, minCodeSize);
+            for (int i = 0; i < lzw.length; i += 255) {
+                int length = Math.min(255, lzw.length - i);
+                out.write(length);
+                out.write(lzw, i, length);
+            }
+            out.write(0);
+        }
+
+        int size() {
+            return out.size();
+        }
+
+        byte[] toByteArray() {
+            ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            byte[] data = out.toByteArray();
+            copy.write(data, 0, data.length);
+            copy.write(0x3b);
+            return copy.toByteArray();
+        }
+
+        private static byte[] interlace(byte[] indices, int width, int height) {
+            byte[] stored = new byte[indices.length];
+            int row = 0;
+            int[][] passes = {{0, 8}, {4, 8}, {2, 4}, {1, 2}};
+            for (int[] pass : passes) {
+                for (int y = pass[0]; y < height; y += pass[1]) {
+                    System.arraycopy(indices, y * width, stored, row++ * width, width);
+                }
+            }
+            return stored;
+        }
+
+        private static int tableBits(int size) {
+            int bits = 1;
+            while ((1 << bits) < size) {
+                bits++;
+            }
+            return bits;
+        }
+
+        private void writeColorTable(int[] palette) {
+            int size = 1 << tableBits(palette.length);
+            for (int i = 0; i < size; i++) {
+                int color = i < palette.length ? palette[i] : 0;
+                out.write((color >> 16) & 0xff);
+                out.write((color >> 8) & 0xff);
+                out.write(color & 0xff);
+            }
+        }
+
+        private void writeShort(int value) {
+            out.write(value & 0xff);
+            out.write((value >> 8) & 0xff);
+        }
+
+        private static byte[] lzw(byte[] indices, int minCodeSize) {
+            BitWriter bits = new BitWriter();
+            int clear = 1 << minCodeSize;
+            int endOfInformation = clear + 1;
+            int codeSize = minCodeSize + 1;
+            int next = endOfInformation + 1;
+            Map<Integer, Integer> dictionary = new HashMap<Integer, Integer>();
+            bits.write(clear, codeSize);
+            int prefix = indices[0] & 0xff;
+            for (int i = 1; i < indices.length; i++) {
+                int k = indices[i] & 0xff;
+                Integer code = dictionary.get((prefix << 8) | k);
+                if (code != null) {
+                    prefix = code;
+                    continue;
+                }
+                bits.write(prefix, codeSize);
+                if (next >= (1 << codeSize) && codeSize < 12) {
+                    codeSize++;
+                }
+                if (next >= 4095) {
+                    bits.write(clear, codeSize);
+                    dictionary.clear();
+                    next = endOfInformation + 1;
+                    codeSize = minCodeSize + 1;
+                } else {
+                    dictionary.put((prefix << 8) | k, next++);
+                }
+                prefix = k;
+            }
+            bits.write(prefix, codeSize);
+            if (next >= (1 << codeSize) && codeSize < 12) {
+                codeSize++;
+            }
+            bits.write(endOfInformation, codeSize);
+            return bits.toByteArray();
+        }
+    }
+
+    private static class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int buffer;
+        private int count;
+
+        void write(int code, int size) {
+            buffer |= code << count;
+            count += size;
+            while (count >= 8) {
+                out.write(buffer & 0xff);
+                buffer >>>= 8;
+                count -= 8;
+            }
+        }
+
+        byte[] toByteArray() {
+            if (count > 0) {
+                out.write(buffer & 0xff);
+                buffer = 0;
+                count = 0;
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.itzs.zimageloader.decoder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * 文件头解析测试：按各格式规范拼出的最小文件头样本，检查格式、宽高、EXIF方向和透明判断
+ */
+public class ImageHeaderParserTest {
+
+    private static final int LIMIT = 64 * 1024;
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    @Test
+    public void parsesPngRgba() throws Exception {
+        ImageHeader header = parse(png(640, 480, 6, null));
+        assertEquals(ImageHeader.Format.PNG, header.getFormat());
+        assertEquals(640, header.getWidth());
+        assertEquals(480, header.getHeight());
+        assertEquals(ImageHeader.ORIENTATION_UNKNOWN, header.getOrientation());
+        assertTrue(header.hasAlpha());
+    }
+
+    @Test
+    public void pngRgbWithoutTransparencyIsOpaque() throws Exception {
+        ImageHeader header = parse(png(300, 200, 2, null));
+        assertEquals(300, header.getWidth());
+        assertEquals(200, header.getHeight());
+        assertFalse(header.hasAlpha());
+    }
+
+    @Test
+    public void pngPaletteWithTrnsHasAlpha() throws Exception {
+        assertTrue(parse(png(16, 16, 3, "tRNS")).hasAlpha());
+        assertFalse(parse(png(16, 16, 3, "PLTE")).hasAlpha());
+    }
+
+    @Test
+    public void pngTruncatedBeforeImageDataHasAlpha() throws Exception {
+        // 读到IHDR后数据流结束，无法确定有没有tRNS块，按有透明处理
+        byte[] bytes = png(16, 16, 2, null);
+        byte[] truncated = new byte[8 + 8 + 13 + 4];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        assertTrue(parse(truncated).hasAlpha());
+    }
+
+    @Test
+    public void parsesJpegSizeAndExifOrientation() throws Exception {
+        ImageHeader header = parse(jpeg(1024, 768, 6, true));
+        assertEquals(ImageHeader.Format.JPEG, header.getFormat());
+        assertEquals(1024, header.getWidth());
+        assertEquals(768, header.getHeight());
+        assertEquals(6, header.getOrientation());
+        assertFalse(header.hasAlpha());
+
+        assertEquals(8, parse(jpeg(10, 20, 8, false)).getOrientation());
+    }
+
+    @Test
+    public void parsesJpegWithoutExif() throws Exception {
+        ImageHeader header = parse(jpeg(33, 44, 0, false));
+        assertEquals(33, header.getWidth());
+        assertEquals(44, header.getHeight());
+        assertEquals(ImageHeader.ORIENTATION_UNKNOWN, header.getOrientation());
+    }
+
+    @Test
+    public void jpegWithoutSofBeforeScanIsUnknown() throws Exception {
+        byte[] bytes = {(byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xda, 0, 2, 0, 0};
+        assertNull(parse(bytes));
+    }
+
+    @Test
+    public void parsesGifAsTransparent() throws Exception {
+        byte[] bytes = {'G', 'I', 'F', '8', '9', 'a', (byte) 0x90, 1, (byte) 0xc8, 0, 0, 0, 0, 0x3b};
+        ImageHeader header = parse(bytes);
+        assertEquals(ImageHeader.Format.GIF, header.getFormat());
+        assertEquals(400, header.getWidth());
+        assertEquals(200, header.getHeight());
+        assertTrue(header.hasAlpha());
+    }
+
+    @Test
+    public void parsesLossyWebpAsOpaque() throws Exception {
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        chunk.write(new byte[]{0, 0, 0, (byte) 0x9d, 0x01, 0x2a});
+        writeUInt16LE(chunk, 320);
+        writeUInt16LE(chunk, 240);
+        ImageHeader header = parse(webp("VP8 ", chunk.toByteArray()));
+        assertEquals(ImageHeader.Format.WEBP, header.getFormat());
+        assertEquals(320, header.getWidth());
+        assertEquals(240, header.getHeight());
+        assertFalse(header.hasAlpha());
+    }
+
+    @Test
+    public void parsesLosslessWebpAlphaBit() throws Exception {
+        assertTrue(parse(webp("VP8L", vp8l(128, 64, true))).hasAlpha());
+        ImageHeader header = parse(webp("VP8L", vp8l(128, 64, false)));
+        assertEquals(128, header.getWidth());
+        assertEquals(64, header.getHeight());
+        assertFalse(header.hasAlpha());
+    }
+
+    @Test
+    public void parsesExtendedWebpAlphaFlag() throws Exception {
+        ImageHeader header = parse(webp("VP8X", vp8x(1920, 1080, 0x10)));
+        assertEquals(1920, header.getWidth());
+        assertEquals(1080, header.getHeight());
+        assertTrue(header.hasAlpha());
+        assertFalse(parse(webp("VP8X", vp8x(1920, 1080, 0))).hasAlpha());
+    }
+
+    @Test
+    public void parsesBmp() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('B');
+        out.write('M');
+        out.write(new byte[12]);
+        writeInt32LE(out, 40);
+        writeInt32LE(out, 50);
+        writeInt32LE(out, -70); // 负数表示从上到下存储
+        writeUInt16LE(out, 1);
+        writeUInt16LE(out, 32);
+        ImageHeader header = parse(out.toByteArray());
+        assertEquals(ImageHeader.Format.BMP, header.getFormat());
+        assertEquals(50, header.getWidth());
+        assertEquals(70, header.getHeight());
+        assertTrue(header.hasAlpha());
+    }
+
+    @Test
+    public void unknownFormatIsNull() throws Exception {
+        assertNull(parse(new byte[]{'<', 's', 'v', 'g', ' ', '/', '>'}));
+        assertNull(parse(new byte[0]));
+    }
+
+    @Test
+    public void stopsAtReadLimit() throws Exception {
+        // EXIF段较大，SOF在读取上限之外
+        byte[] bytes = jpeg(100, 100, 6, true);
+        assertNull(ImageHeaderParser.parse(new ByteArrayInputStream(bytes), 20));
+        ByteArrayInputStream is = new ByteArrayInputStream(bytes);
+        is.mark(LIMIT);
+        assertNotNull(ImageHeaderParser.parse(is, LIMIT));
+        is.reset();
+        assertEquals(0xff, is.read());
+        assertEquals(0xd8, is.read());
+    }
+
+    private static ImageHeader parse(byte[] bytes) throws IOException {
+        return ImageHeaderParser.parse(new ByteArrayInputStream(bytes), LIMIT);
+    }
+
+    /**
+     * @param extraChunk IHDR之后、IDAT之前的块类型，null则没有
+     */
+    private static byte[] png(int width, int height, int colorType, String extraChunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(PNG_SIGNATURE);
+        ByteArrayOutputStream ihdr = new ByteArrayOutputStream();
+        writeInt32BE(ihdr, width);
+        writeInt32BE(ihdr, height);
+        ihdr.write(new byte[]{8, (byte) colorType, 0, 0, 0});
+        writePngChunk(out, "IHDR", ihdr.toByteArray());
+        if (extraChunk != null) {
+            writePngChunk(out, extraChunk, new byte[3]);
+        }
+        writePngChunk(out, "IDAT", new byte[4]);
+        writePngChunk(out, "IEND", new byte[0]);
+        return out.toByteArray();
+    }
+
+    private static void writePngChunk(ByteArrayOutputStream out, String type, byte[] data) throws IOException {
+        writeInt32BE(out, data.length);
+        out.write(type.getBytes("US-ASCII"));
+        out.write(data);
+        writeInt32BE(out, 0); // CRC，解析时不校验
+    }
+
+    /**
+     * SOI、可选的EXIF APP1段、DQT段、SOF0段、SOS
+     *
+     * @param orientation 0则没有APP1段
+     */
+    private static byte[] jpeg(int width, int height, int orientation, boolean littleEndian) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{(byte) 0xff, (byte) 0xd8});
+        if (orientation != 0) {
+            ByteArrayOutputStream exif = new ByteArrayOutputStream();
+            exif.write(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+            exif.write(littleEndian ? new byte[]{'I', 'I', 42, 0} : new byte[]{'M', 'M', 0, 42});
+            writeInt(exif, 8, 4, littleEndian); // IFD0偏移
+            writeInt(exif, 2, 2, littleEndian); // 条目数
+            // 先放一个无关的条目（ImageWidth）
+            writeInt(exif, 0x0100, 2, littleEndian);
+            writeInt(exif, 3, 2, littleEndian);
+            writeInt(exif, 1, 4, littleEndian);
+            writeInt(exif, width, 2, littleEndian);
+            writeInt(exif, 0, 2, littleEndian);
+            // Orientation，SHORT类型，值在前两个字节
+            writeInt(exif, 0x0112, 2, littleEndian);
+            writeInt(exif, 3, 2, littleEndian);
+            writeInt(exif, 1, 4, littleEndian);
+            writeInt(exif, orientation, 2, littleEndian);
+            writeInt(exif, 0, 2, littleEndian);
+            writeInt(exif, 0, 4, littleEndian); // 下一个IFD
+            exif.write(new byte[64]);
+            writeJpegSegment(out, 0xe1, exif.toByteArray());
+        }
+        writeJpegSegment(out, 0xdb, new byte[65]);
+        ByteArrayOutputStream sof = new ByteArrayOutputStream();
+        sof.write(8);
+        writeInt(sof, height, 2, false);
+        writeInt(sof, width, 2, false);
+        sof.write(new byte[]{3, 1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1});
+        writeJpegSegment(out, 0xc0, sof.toByteArray());
+        writeJpegSegment(out, 0xda, new byte[10]);
+        out.write(new byte[]{(byte) 0xff, (byte) 0xd9});
+        return out.toByteArray();
+    }
+
+    private static void writeJpegSegment(ByteArrayOutputStream out, int marker, byte[] data) throws IOException {
+        out.write(0xff);
+        out.write(marker);
+        writeInt(out, data.length + 2, 2, false);
+        out.write(data);
+    }
+
+    private static byte[] webp(String chunkType, byte[] chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("RIFF".getBytes("US-ASCII"));
+        writeInt32LE(out, 4 + 8 + chunk.length);
+        out.write("WEBP".getBytes("US-ASCII"));
+        out.write(chunkType.getBytes("US-ASCII"));
+        writeInt32LE(out, chunk.length);
+        out.write(chunk);
+        return out.toByteArray();
+    }
+
+    private static byte[] vp8l(int width, int height, boolean alpha) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x2f);
+        int bits = (width - 1) | ((height - 1) << 14) | ((alpha ? 1 : 0) << 28);
+        writeInt32LE(out, bits);
+        return out.toByteArray();
+    }
+
+    private static byte[] vp8x(int width, int height, int flags) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(flags);
+        out.write(new byte[3]);
+        writeInt(out, width - 1, 3, true);
+        writeInt(out, height - 1, 3, true);
+        return out.toByteArray();
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value, int bytes, boolean littleEndian) {
+        for (int i = 0; i < bytes; i++) {
+            int shift = littleEndian ? i * 8 : (bytes - 1 - i) * 8;
+            out.write((value >>> shift) & 0xff);
+        }
+    }
+
+    private static void writeUInt16LE(ByteArrayOutputStream out, int value) {
+        writeInt(out, value, 2, true);
+    }
+
+    private static void writeInt32LE(ByteArrayOutputStream out, int value) {
+        writeInt(out, value, 4, true);
+    }
+
+    private static void writeInt32BE(ByteArrayOutputStream out, int value) {
+        writeInt(out, value, 4, false);
+    }
+}
@@ -0,0 +1,104 @@
+package com.itzs.zimageloader.decoder;
+
+import com.itzs.zimageloader.view.ViewScaleType;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 采样率计算的矩阵测试：不同的图片大小、目标大小、缩放方式下，比较解码的像素字节数与实际显示的像素数
+ * <p/>
+ * 采样后的图片不能小于显示大小（否则显示模糊），2的幂采样时每条边最多是显示大小的2倍（像素数最多4倍）
+ */
+public class ImageSampleSizeTest {
+
+    private static final int[][] SOURCE_SIZES = {
+            {4000, 3000}, {3000, 4000}, {1920, 1080}, {1000, 1000}, {500, 2000}, {12000, 800}, {301, 299}
+    };
+
+    private static final int[][] TARGET_SIZES = {
+            {300, 300}, {1080, 600}, {200, 800}, {96, 96}
+    };
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    @Test
+    public void sampledImageIsNeverSmallerThanDisplayed() throws Exception {
+        for (ViewScaleType scaleType : ViewScaleType.values()) {
+            for (boolean powerOf2 : new boolean[]{true, false}) {
+                for (int[] src : SOURCE_SIZES) {
+                    for (int[] target : TARGET_SIZES) {
+                        int[] displayed = displayedSize(src, target, scaleType);
+                        int sample = ImageDecoder.computeImageSampleSize(src[0], src[1], target[0], target[1], scaleType, powerOf2);
+                        String name = describe(scaleType, powerOf2, src, target, sample);
+                        assertTrue(name, sample >= 1);
+                        assertTrue(name, src[0] / sample >= displayed[0] && src[1] / sample >= displayed[1]);
+                        if (powerOf2) {
+                            assertEquals(name, 0, sample & (sample - 1));
+                        }
+                        // 再大一级采样就会小于显示大小
+                        int next = powerOf2 ? sample * 2 : sample + 1;
+                        assertTrue(name, src[0] / next < displayed[0] || src[1] / next < displayed[1]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fitInsideDecodesLessThanCrop() throws Exception {
+        for (int[] src : SOURCE_SIZES) {
+            for (int[] target : TARGET_SIZES) {
+                int fit = ImageDecoder.computeImageSampleSize(src[0], src[1], target[0], target[1], ViewScaleType.FIT_INSIDE, true);
+                int crop = ImageDecoder.computeImageSampleSize(src[0], src[1], target[0], target[1], ViewScaleType.CROP, true);
+                assertTrue(fit >= crop);
+            }
+        }
+    }
+
+    @Test
+    public void invalidTargetSizeDoesNotSample() throws Exception {
+        assertEquals(1, ImageDecoder.computeImageSampleSize(4000, 3000, 0, 0, ViewScaleType.CROP, false));
+        assertEquals(1, ImageDecoder.computeImageSampleSize(4000, 3000, 0, 300, ViewScaleType.FIT_INSIDE, true));
+    }
+
+    /**
+     * 每种组合解码的字节数与显示像素字节数的比例，用于比较不同的采样策略；比例写在断言信息中
+     */
+    @Test
+    public void decodedBytesStayCloseToDisplayedBytes() throws Exception {
+        for (ViewScaleType scaleType : ViewScaleType.values()) {
+            for (boolean powerOf2 : new boolean[]{true, false}) {
+                long decodedBytes = 0;
+                long displayedBytes = 0;
+                for (int[] src : SOURCE_SIZES) {
+                    for (int[] target : TARGET_SIZES) {
+                        int sample = ImageDecoder.computeImageSampleSize(src[0], src[1], target[0], target[1], scaleType, powerOf2);
+                        int[] displayed = displayedSize(src, target, scaleType);
+                        decodedBytes += (long) (src[0] / sample) * (src[1] / sample) * BYTES_PER_PIXEL;
+                        displayedBytes += (long) displayed[0] * displayed[1] * BYTES_PER_PIXEL;
+                    }
+                }
+                double ratio = (double) decodedBytes / displayedBytes;
+                assertTrue(String.format("%s powerOf2=%b decoded=%dKB displayed=%dKB ratio=%.2f",
+                        scaleType, powerOf2, decodedBytes / 1024, displayedBytes / 1024, ratio), ratio >= 1 && ratio < 4);
+            }
+        }
+    }
+
+    /**
+     * 图片按缩放方式显示在目标大小的view中时的像素大小，不放大
+     */
+    private static int[] displayedSize(int[] src, int[] target, ViewScaleType scaleType) {
+        float widthScale = (float) target[0] / src[0];
+        float heightScale = (float) target[1] / src[1];
+        float scale = scaleType == ViewScaleType.FIT_INSIDE ? Math.min(widthScale, heightScale) : Math.max(widthScale, heightScale);
+        scale = Math.min(scale, 1f);
+        return new int[]{(int) (src[0] * scale), (int) (src[1] * scale)};
+    }
+
+    private static String describe(ViewScaleType scaleType, boolean powerOf2, int[] src, int[] target, int sample) {
+        return String.format("%s powerOf2=%b %dx%d -> %dx%d sample=%d", scaleType, powerOf2, src[0], src[1], target[0], target[1], sample);
+    }
+}
@@ -0,0 +1,233 @@
+package com.itzs.zimageloader.downloader;
+
+import com.itzs.zimageloader.DefaultConfigurationFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 对冲请求测试：本地HTTP服务器按固定比例注入慢响应，检查慢响应触发对冲、落败的请求被中止。
+ * 不断言耗时的比较，机器负载高时不稳定
+ */
+public class HedgedDownloaderLatencyTest {
+
+    private static final int REQUESTS = 150;
+    private static final int WARM_UP_REQUESTS = 30;
+    private static final double SLOW_RATIO = 0.05;
+    private static final long SLOW_DELAY = 400;
+    /** 不响应的请求的等待时间，远大于测试等待线程释放的时间 */
+    private static final long STALL_DELAY = 5000;
+    private static final byte[] BODY = new byte[16 * 1024];
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private ExecutorService hedgeExecutor;
+    private String imageUri;
+    private String stallingUri;
+
+    /**
+     * 直接用HttpURLConnection请求，不依赖Android的downloader
+     */
+    private static final BaseDownloader HTTP_DOWNLOADER = new BaseDownloader() {
+        @Override
+        public InputStream getStream(String imageUri, Object extra) throws IOException {
+            HttpURLConnection conn = (HttpURLConnection) new URL(imageUri).openConnection();
+            conn.setConnectTimeout(5000);
+            conn.setReadTimeout(10000);
+            AbortableRequest.track(conn);
+            return conn.getInputStream();
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        final Random random = new Random(7);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/image", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                boolean slow;
+                synchronized (random) {
+                    slow = random.nextDouble() < SLOW_RATIO;
+                }
+                try {
+                    if (slow) {
+                        Thread.sleep(SLOW_DELAY);
+                    }
+                    exchange.sendResponseHeaders(200, BODY.length);
+                    OutputStream os = exchange.getResponseBody();
+                    os.write(BODY);
+                    os.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    // 对冲请求的胜者返回后，另一个请求的连接被关闭
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        final AtomicInteger stallRequests = new AtomicInteger();
+        server.createContext("/stall", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // 第一个请求迟迟不返回响应头，之后的请求立即返回
+                try {
+                    if (stallRequests.getAndIncrement() == 0) {
+                        Thread.sleep(STALL_DELAY);
+                    }
+                    exchange.sendResponseHeaders(200, BODY.length);
+                    OutputStream os = exchange.getResponseBody();
+                    os.write(BODY);
+                    os.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    // 落败的请求已断开连接
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        imageUri = "http://127.0.0.1:" + server.getAddress().getPort() + "/image";
+        stallingUri = "http://127.0.0.1:" + server.getAddress().getPort() + "/stall";
+        hedgeExecutor = DefaultConfigurationFactory.createHedgeExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        hedgeExecutor.shutdownNow();
+        hedgeExecutor.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void slowResponsesAreHedged() throws Exception {
+        HedgedImageDownloader hedged = new HedgedImageDownloader(HTTP_DOWNLOADER, hedgeExecutor);
+        hedged.setHedgePercentile(90);
+        measure(hedged, WARM_UP_REQUESTS);
+        measure(hedged, REQUESTS);
+        assertEquals(WARM_UP_REQUESTS + REQUESTS, hedged.getRequestCount());
+        assertTrue(hedged.toString(), hedged.getHedgeCount() > 0);
+    }
+
+    @Test
+    public void losingRequestIsAborted() throws Exception {
+        HedgedImageDownloader hedged = new HedgedImageDownloader(HTTP_DOWNLOADER, hedgeExecutor);
+        InputStream is = hedged.getStream(stallingUri, null);
+        try {
+            assertEquals(1, hedged.getHedgeWinCount());
+        } finally {
+            is.close();
+        }
+        // 中断不能打断等待响应头的原请求，断开连接后线程应在服务器返回前释放
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) hedgeExecutor;
+        long deadline = System.currentTimeMillis() + STALL_DELAY / 2;
+        while (executor.getActiveCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, executor.getActiveCount());
+    }
+
+    @Test
+    public void streamsAreClosedWhenCallerIsInterrupted() throws Exception {
+        final AtomicInteger opened = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+        BaseDownloader tracking = new BaseDownloader() {
+            @Override
+            public InputStream getStream(String imageUri, Object extra) throws IOException {
+                // 模拟不响应中断的网络连接：调用者已被中断、请求被取消后数据流才返回
+                long end = System.currentTimeMillis() + 20;
+                while (System.currentTimeMillis() < end) {
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                opened.incrementAndGet();
+                return new ByteArrayInputStream(BODY) {
+                    private boolean streamClosed;
+
+                    @Override
+                    public synchronized void close() throws IOException {
+                        // 落败的请求可能被中止时和offer时各关闭一次
+                        if (!streamClosed) {
+                            streamClosed = true;
+                            closed.incrementAndGet();
+                        }
+                    }
+                };
+            }
+        };
+        HedgedImageDownloader hedged = new HedgedImageDownloader(tracking, hedgeExecutor);
+        final Thread caller = Thread.currentThread();
+        ScheduledExecutorService interrupter = Executors.newSingleThreadScheduledExecutor();
+        for (int i = 0; i < 20; i++) {
+            // 请求已经开始后中断调用者
+            interrupter.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    caller.interrupt();
+                }
+            }, 5, TimeUnit.MILLISECONDS);
+            try {
+                hedged.getStream(imageUri, null).close();
+                fail("interrupted request should not return a stream");
+            } catch (InterruptedIOException expected) {
+                // 请求线程返回或被取消后，数据流在finish或offer中关闭
+            } finally {
+                Thread.interrupted();
+            }
+        }
+        interrupter.shutdown();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (closed.get() < opened.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(opened.get() > 0);
+        assertEquals(opened.get(), closed.get());
+    }
+
+    private void measure(BaseDownloader downloader, int count) throws IOException {
+        byte[] buffer = new byte[4096];
+        for (int i = 0; i < count; i++) {
+            InputStream is = downloader.getStream(imageUri, null);
+            try {
+                int total = 0;
+                int read;
+                while ((read = is.read(buffer)) != -1) {
+                    total += read;
+                }
+                assertEquals(BODY.length, total);
+            } finally {
+                is.close();
+            }
+        }
+    }
+}